@@ -1,7 +1,6 @@
 package com.adafruit.bluefruit.le.connect.app;
 
 import android.app.AlertDialog;
-import android.bluetooth.BluetoothGattCharacteristic;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
@@ -21,11 +20,13 @@ import android.widget.Toast;
 import com.adafruit.bluefruit.le.connect.R;
 import com.adafruit.bluefruit.le.connect.app.settings.ConnectedSettingsActivity;
 import com.adafruit.bluefruit.le.connect.ble.BleManager;
+import com.adafruit.bluefruit.le.connect.ble.CharacteristicValue;
+import com.adafruit.bluefruit.le.connect.ble.RssiSampler;
 import com.adafruit.bluefruit.le.connect.ui.tabs.SlidingTabLayout;
 
 import java.nio.charset.Charset;
 
-public class BeaconActivity extends UartInterfaceActivity implements IBeaconFragment.OnFragmentInteractionListener, URIBeaconFragment.OnFragmentInteractionListener {
+public class BeaconActivity extends UartInterfaceActivity implements IBeaconFragment.OnFragmentInteractionListener, URIBeaconFragment.OnFragmentInteractionListener, RssiSampler.Listener {
     // Log
     private final static String TAG = BeaconActivity.class.getSimpleName();
 
@@ -122,6 +123,20 @@ public class BeaconActivity extends UartInterfaceActivity implements IBeaconFrag
 
         // Setup listeners
         mBleManager.setBleListener(this);
+
+        // Sample the rssi while visible (used to calibrate the Rssi@1m and for proximity alerts)
+        RssiSampler rssiSampler = mBleManager.getRssiSampler();
+        rssiSampler.setListener(this);
+        rssiSampler.start();
+    }
+
+    @Override
+    public void onPause() {
+        RssiSampler rssiSampler = mBleManager.getRssiSampler();
+        rssiSampler.stop();
+        rssiSampler.setListener(null);
+
+        super.onPause();
     }
 
     @Override
@@ -286,62 +301,57 @@ public class BeaconActivity extends UartInterfaceActivity implements IBeaconFrag
     }
 
     @Override
-    public void onDataAvailable(BluetoothGattCharacteristic characteristic) {
-        super.onDataAvailable(characteristic);
+    protected void onRxDataAvailable(CharacteristicValue value) {
+        super.onRxDataAvailable(value);
         // UART RX
-        if (characteristic.getService().getUuid().toString().equalsIgnoreCase(UUID_SERVICE)) {
-            if (characteristic.getUuid().toString().equalsIgnoreCase(UUID_RX)) {
+        // Cancel the timer if was set
+        if (mCommandTimeoutHandler != null) {
+            mCommandTimeoutHandler.removeCallbacksAndMessages(null);
+            mCommandTimeoutHandler = null;
+        }
 
-                // Cancel the timer if was set
-                if (mCommandTimeoutHandler != null) {
-                    mCommandTimeoutHandler.removeCallbacksAndMessages(null);
-                    mCommandTimeoutHandler = null;
-                }
+        final String data = value.toString(Charset.forName("UTF-8")).trim();
+        Log.d(TAG, "received: " + data);
+
+        String message = null;
+        if (data.equalsIgnoreCase("OK")) {      // All good!
+
+            switch (mCurrentOperation) {
+                case kOperation_BeaconDisable:
+                    break;
+                case kOperation_iBeaconEnable:
+                    onBeaconEnabled();
+                    break;
+                case kOperation_UriBeaconEnable:
+                    onBeaconEnabled();
+                    break;
+                default:
+                    break;
+            }
+        } else  // Error received
+        {
+            mCurrentOperation = kOperation_BeaconNoOperation;
+            message = data;
+        }
 
-                final String data = new String(characteristic.getValue(), Charset.forName("UTF-8")).trim();
-                Log.d(TAG, "received: " + data);
-
-                String message = null;
-                if (data.equalsIgnoreCase("OK")) {      // All good!
-
-                    switch (mCurrentOperation) {
-                        case kOperation_BeaconDisable:
-                            break;
-                        case kOperation_iBeaconEnable:
-                            onBeaconEnabled();
-                            break;
-                        case kOperation_UriBeaconEnable:
-                            onBeaconEnabled();
-                            break;
-                        default:
-                            break;
+        if (message != null) {
+            final String finalMessage = message;
+            // Update UI
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (mDialog != null) {
+                        mDialog.dismiss();
                     }
-                } else  // Error received
-                {
-                    mCurrentOperation = kOperation_BeaconNoOperation;
-                    message = data;
-                }
 
-                if (message != null) {
-                    final String finalMessage = message;
-                    // Update UI
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (mDialog != null) {
-                                mDialog.dismiss();
-                            }
-
-                            // Alert
-                            AlertDialog.Builder builder = new AlertDialog.Builder(BeaconActivity.this);
-                            builder.setMessage(finalMessage).setPositiveButton(android.R.string.ok, null);
-                            mDialog = builder.create();
-                            mDialog.show();
-
-                        }
-                    });
+                    // Alert
+                    AlertDialog.Builder builder = new AlertDialog.Builder(BeaconActivity.this);
+                    builder.setMessage(finalMessage).setPositiveButton(android.R.string.ok, null);
+                    mDialog = builder.create();
+                    mDialog.show();
+
                 }
-            }
+            });
         }
     }
 
@@ -359,13 +369,44 @@ public class BeaconActivity extends UartInterfaceActivity implements IBeaconFrag
             runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    ((IBeaconFragment) currentFragment).setRssi(rssi);
+                    ((IBeaconFragment) currentFragment).onRssiRead(rssi);
                 }
             });
         }
     }
     // endregion
 
+    // region RssiSampler.Listener
+    @Override
+    public void onRssiSampled(int rssi, float smoothedRssi) {
+    }
+
+    @Override
+    public void onProximityChanged(final int proximity, final float smoothedRssi) {
+        final int messageId;
+        switch (proximity) {
+            case RssiSampler.PROXIMITY_IMMEDIATE:
+                messageId = R.string.beacon_proximity_immediate;
+                break;
+            case RssiSampler.PROXIMITY_NEAR:
+                messageId = R.string.beacon_proximity_near;
+                break;
+            case RssiSampler.PROXIMITY_FAR:
+                messageId = R.string.beacon_proximity_far;
+                break;
+            default:
+                return;
+        }
+
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(BeaconActivity.this, getString(messageId, smoothedRssi), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+    // endregion
+
     private void onBeaconEnabled() {
         // Reset device
         String uartCommand = "ATZ\r\n";
@@ -143,7 +143,7 @@ public class ColorPickerActivity extends UartInterfaceActivity implements ColorP
     }
 
     @Override
-    public void onDataAvailable(BluetoothGattCharacteristic characteristic) {
+    public void onDataAvailable(CharacteristicValue value) {
 
     }
 
@@ -498,7 +498,7 @@ public class ControllerActivity extends UartInterfaceActivity implements SensorE
     }
 
     @Override
-    public void onDataAvailable(BluetoothGattCharacteristic characteristic) {
+    public void onDataAvailable(CharacteristicValue value) {
 
     }
 
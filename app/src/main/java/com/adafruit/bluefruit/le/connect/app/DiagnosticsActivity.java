@@ -0,0 +1,149 @@
+package com.adafruit.bluefruit.le.connect.app;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import com.adafruit.bluefruit.le.connect.R;
+import com.adafruit.bluefruit.le.connect.ble.BleManager;
+import com.adafruit.bluefruit.le.connect.ble.BleMetrics;
+
+import java.util.Map;
+
+// Shows the metrics of the gatt operations of the current connection (used to tune the connection parameters for each board)
+public class DiagnosticsActivity extends AppCompatActivity {
+    // Log
+    private final static String TAG = DiagnosticsActivity.class.getSimpleName();
+
+    // Constants
+    private final static int kUIRefreshInterval = 1000;        // in milliseconds
+
+    // UI
+    private TextView mDiagnosticsTextView;
+    private Handler mUIRefreshTimerHandler = new Handler();
+    private Runnable mUIRefreshTimerRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (isUITimerRunning) {
+                updateUI();
+                mUIRefreshTimerHandler.postDelayed(this, kUIRefreshInterval);
+            }
+        }
+    };
+    private boolean isUITimerRunning = false;
+
+    // Data
+    private BleManager mBleManager;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+
+        mBleManager = BleManager.getInstance(this);
+
+        // UI
+        mDiagnosticsTextView = (TextView) findViewById(R.id.diagnosticsTextView);
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+
+        isUITimerRunning = true;
+        mUIRefreshTimerHandler.postDelayed(mUIRefreshTimerRunnable, 0);
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        isUITimerRunning = false;
+        mUIRefreshTimerHandler.removeCallbacksAndMessages(null);
+    }
+
+    // region Menu
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_diagnostics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+
+        if (id == R.id.action_reset) {
+            mBleManager.getMetrics().reset();
+            updateUI();
+            return true;
+        }
+
+        return super.onOptionsItemSelected(item);
+    }
+    // endregion
+
+    private void updateUI() {
+        final BleMetrics metrics = mBleManager.getMetrics();
+        StringBuilder text = new StringBuilder();
+
+        // Connection
+        text.append(getString(R.string.diagnostics_connection)).append("\n");
+        text.append(getString(R.string.diagnostics_mtu_format, mBleManager.getMtu(), mBleManager.getMaxWritePayloadSize())).append("\n");
+        final long elapsedSeconds = (System.currentTimeMillis() - metrics.getStartTimeMillis()) / 1000;
+        text.append(getString(R.string.diagnostics_elapsed_format, elapsedSeconds)).append("\n");
+        text.append(getString(R.string.diagnostics_reconnections_format, metrics.getReconnections(), metrics.getFailedReconnections())).append("\n");
+        text.append(getString(R.string.diagnostics_downtime_format, metrics.getLastDowntimeMillis(), metrics.getMaxDowntimeMillis(), metrics.getTotalDowntimeMillis())).append("\n\n");
+
+        // Queue
+        text.append(getString(R.string.diagnostics_queue)).append("\n");
+        text.append(getString(R.string.diagnostics_queuedepth_format, getString(R.string.diagnostics_queue_control), metrics.getQueueDepth(BleManager.PRIORITY_CONTROL), metrics.getMaxQueueDepth(BleManager.PRIORITY_CONTROL))).append("\n");
+        text.append(getString(R.string.diagnostics_queuedepth_format, getString(R.string.diagnostics_queue_bulk), metrics.getQueueDepth(BleManager.PRIORITY_BULK), metrics.getMaxQueueDepth(BleManager.PRIORITY_BULK))).append("\n");
+        text.append(getString(R.string.diagnostics_queuedepth_format, getString(R.string.diagnostics_queue_background), metrics.getQueueDepth(BleManager.PRIORITY_BACKGROUND), metrics.getMaxQueueDepth(BleManager.PRIORITY_BACKGROUND))).append("\n\n");
+
+        // Latencies
+        text.append(getString(R.string.diagnostics_queuelatency)).append("\n");
+        appendHistogram(text, metrics.getQueueLatency());
+        text.append("\n");
+        text.append(getString(R.string.diagnostics_operationlatency)).append("\n");
+        appendHistogram(text, metrics.getOperationLatency());
+        text.append("\n");
+
+        // Throughput
+        text.append(getString(R.string.diagnostics_throughput)).append("\n");
+        text.append(getString(R.string.diagnostics_throughput_format, metrics.getTxBytes(), metrics.getTxBytesPerSecond(), metrics.getRxBytes(), metrics.getRxBytesPerSecond())).append("\n\n");
+
+        // Errors
+        text.append(getString(R.string.diagnostics_errors)).append("\n");
+        text.append(getString(R.string.diagnostics_timeouts_format, metrics.getTimeouts())).append("\n");
+        final Map<Integer, Long> errors = metrics.getErrorsByStatus();
+        if (errors.isEmpty()) {
+            text.append(getString(R.string.diagnostics_noerrors)).append("\n");
+        } else {
+            for (Map.Entry<Integer, Long> entry : errors.entrySet()) {
+                text.append(getString(R.string.diagnostics_errorstatus_format, entry.getKey(), entry.getValue())).append("\n");
+            }
+        }
+
+        mDiagnosticsTextView.setText(text);
+    }
+
+    private void appendHistogram(StringBuilder text, BleMetrics.LatencyHistogram histogram) {
+        text.append(getString(R.string.diagnostics_latency_format, histogram.getCount(), histogram.getAverageMillis(), histogram.getMaxMillis(), histogram.getPercentileMillis(50), histogram.getPercentileMillis(90), histogram.getPercentileMillis(99))).append("\n");
+
+        // Only show the non-empty buckets
+        for (int i = 0; i < BleMetrics.LatencyHistogram.kNumBuckets; i++) {
+            final long count = histogram.getBucketCount(i);
+            if (count > 0) {
+                if (i < BleMetrics.LatencyHistogram.kNumBuckets - 1) {
+                    text.append(getString(R.string.diagnostics_histogrambucket_format, BleMetrics.LatencyHistogram.getBucketUpperBoundMicros(i) / 1000f, count)).append("\n");
+                } else {
+                    text.append(getString(R.string.diagnostics_histogramoverflow_format, BleMetrics.LatencyHistogram.getBucketUpperBoundMicros(i - 1) / 1000f, count)).append("\n");
+                }
+            }
+        }
+    }
+}
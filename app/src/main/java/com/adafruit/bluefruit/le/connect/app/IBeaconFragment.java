@@ -15,6 +15,7 @@ import android.widget.EditText;
 
 import com.adafruit.bluefruit.le.connect.R;
 import com.adafruit.bluefruit.le.connect.ble.BleManager;
+import com.adafruit.bluefruit.le.connect.ble.RssiSampler;
 import com.adafruit.bluefruit.le.connect.ui.keyboard.CustomEditTextFormatter;
 import com.adafruit.bluefruit.le.connect.ui.keyboard.CustomKeyboard;
 
@@ -46,6 +47,7 @@ public class IBeaconFragment extends Fragment {
     // Data
     private int mRssi;
     private OnFragmentInteractionListener mListener;
+    private boolean mIsRssiRefreshRequested = false;
 
     // the fragment initialization parameters, e.g. ARG_ITEM_NUMBER
     private static final String ARG_PARAM1 = "param1";
@@ -210,9 +212,20 @@ public class IBeaconFragment extends Fragment {
 
     public void onClickRefreshRssi(View view) {
         BleManager bleManager = BleManager.getInstance(getActivity());
-        boolean waiting = bleManager.readRssi(); // Wait for callback
-        if (waiting) {
+        RssiSampler rssiSampler = bleManager.getRssiSampler();
+        if (rssiSampler.hasEstimate()) {
+            // Use the smoothed estimate (a single read is too noisy to calibrate the beacon)
+            setRssi(Math.round(rssiSampler.getSmoothedRssi()));
+        } else {
+            mIsRssiRefreshRequested = bleManager.readRssi(); // Wait for callback
+        }
+    }
 
+    // Called for every rssi read (the sampler reads it periodically). Only updates the value if the user has requested it
+    public void onRssiRead(int rssi) {
+        if (mIsRssiRefreshRequested) {
+            mIsRssiRefreshRequested = false;
+            setRssi(rssi);
         }
     }
 
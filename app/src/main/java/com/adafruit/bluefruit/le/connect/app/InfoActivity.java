@@ -27,6 +27,7 @@ import com.adafruit.bluefruit.le.connect.R;
 import com.adafruit.bluefruit.le.connect.app.settings.ConnectedSettingsActivity;
 import com.adafruit.bluefruit.le.connect.ble.BleManager;
 import com.adafruit.bluefruit.le.connect.ble.BleUtils;
+import com.adafruit.bluefruit.le.connect.ble.CharacteristicValue;
 import com.adafruit.bluefruit.le.connect.ble.KnownUUIDs;
 import com.adafruit.bluefruit.le.connect.ui.utils.ExpandableHeightListView;
 
@@ -132,6 +133,9 @@ public class InfoActivity extends AppCompatActivity implements BleManager.BleMan
         } else if (id == R.id.action_connected_settings) {
             startConnectedSettings();
             return true;
+        } else if (id == R.id.action_diagnostics) {
+            startDiagnostics();
+            return true;
         } else if (id == R.id.action_refreshcache) {
             if (mBleManager != null) {
                 mBleManager.refreshDeviceCache();
@@ -149,6 +153,11 @@ public class InfoActivity extends AppCompatActivity implements BleManager.BleMan
         startActivity(intent);
     }
 
+    private void startDiagnostics() {
+        Intent intent = new Intent(this, DiagnosticsActivity.class);
+        startActivity(intent);
+    }
+
     private void startConnectedSettings() {
         // Launch connected settings activity
         Intent intent = new Intent(this, ConnectedSettingsActivity.class);
@@ -206,6 +215,9 @@ public class InfoActivity extends AppCompatActivity implements BleManager.BleMan
         mDescriptorsMap.clear();
         mValuesMap.clear();
 
+        // All the readable characteristics and descriptors are read at once, so use the high throughput connection profile
+        mBleManager.requestHighThroughput();
+
         // Services
         List<BluetoothGattService> services = mBleManager.getSupportedGattServices();
         for (BluetoothGattService service : services) {
@@ -261,11 +273,12 @@ public class InfoActivity extends AppCompatActivity implements BleManager.BleMan
     }
 
     @Override
-    public void onDataAvailable(BluetoothGattCharacteristic characteristic) {
+    public void onDataAvailable(CharacteristicValue value) {
+        BluetoothGattCharacteristic characteristic = value.getCharacteristic();
         BluetoothGattService service = characteristic.getService();
         String key = new ElementPath(service.getUuid().toString(), service.getInstanceId(), characteristic.getUuid().toString(), null, null, null).getKey();
 
-        byte[] data = characteristic.getValue();
+        byte[] data = value.toByteArray();
         mValuesMap.put(key, data);
 
         // Update UI
@@ -21,6 +21,7 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
@@ -55,21 +56,25 @@ import android.widget.Toast;
 
 import com.adafruit.bluefruit.le.connect.R;
 import com.adafruit.bluefruit.le.connect.app.neopixel.NeopixelActivity;
+import com.adafruit.bluefruit.le.connect.app.settings.PreferencesFragment;
 import com.adafruit.bluefruit.le.connect.app.settings.SettingsActivity;
 import com.adafruit.bluefruit.le.connect.app.update.FirmwareUpdater;
-import com.adafruit.bluefruit.le.connect.app.update.ReleasesParser;
 import com.adafruit.bluefruit.le.connect.ble.BleDevicesScanner;
 import com.adafruit.bluefruit.le.connect.ble.BleManager;
 import com.adafruit.bluefruit.le.connect.ble.BleUtils;
+import com.adafruit.bluefruit.le.connect.ble.CharacteristicValue;
+import com.adafruit.bluefruit.le.connect.core.AdvertisementData;
+import com.adafruit.bluefruit.le.connect.core.AdvertisementParser;
+import com.adafruit.bluefruit.le.connect.core.AdvertisementReader;
+import com.adafruit.bluefruit.le.connect.core.DeviceTable;
+import com.adafruit.bluefruit.le.connect.core.ReleasesParser;
 import com.adafruit.bluefruit.le.connect.ui.utils.DialogUtils;
 import com.adafruit.bluefruit.le.connect.ui.utils.ExpandableHeightExpandableListView;
 
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
@@ -81,6 +86,11 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
     // Constants
     private final static String TAG = MainActivity.class.getSimpleName();
     private final static long kMinDelayToUpdateUI = 200;    // in milliseconds
+    private final static long kStaleDevicesCheckInterval = 5000;      // in milliseconds
+    private final static int kEvictedDevicesPercent = 10;             // Percentage of the least recently seen devices removed when the list is full
+    private final static long kRssiSmoothingTimeConstant = 2000;      // in milliseconds. Time for a new rssi level to reach 63% of the displayed value
+    public final static int kDefaultDeviceExpirationSeconds = 60;
+    public final static int kDefaultMaxScannedDevices = 500;
     private static final String kGenericAttributeService = "00001801-0000-1000-8000-00805F9B34FB";
     private static final String kServiceChangedCharacteristic = "00002A05-0000-1000-8000-00805F9B34FB";
 
@@ -109,6 +119,10 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
     private ExpandableListAdapter mScannedDevicesAdapter;
     private Button mScanButton;
     private long mLastUpdateMillis;
+    private long mDeviceExpirationMillis;           // 0 if devices are never removed
+    private int mMaxScannedDevices;
+    private long mStaleDeviceLastSeenLimitMillis;   // Devices last seen before this time are removed by mIsStaleDeviceCondition
+    private final Handler mStaleDevicesHandler = new Handler();
     private TextView mNoDevicesTextView;
     private ScrollView mDevicesScrollView;
     private SwipeRefreshLayout mSwipeRefreshLayout;
@@ -131,7 +145,8 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
     private FirmwareUpdater mFirmwareUpdater;
     private PeripheralList mPeripheralList;
 
-    private ArrayList<BluetoothDeviceData> mScannedDevices;
+    private DeviceTable<BluetoothDeviceData> mScannedDevices;      // Indexed by address
+    private final AdvertisementReader mAdvertisementReader = new AdvertisementReader();     // Reused to decode the scan records (only used from the main thread)
     private BluetoothDeviceData mSelectedDeviceData;
     private Class<?> mComponentToStartWhenConnected;
     private boolean mShouldEnableWifiOnQuit = false;
@@ -171,7 +186,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
         mSwipeRefreshLayout.setOnRefreshListener(new OnRefreshListener() {
             @Override
             public void onRefresh() {
-                mScannedDevices.clear();
+                clearScannedDevices();
                 startScan(null);
 
                 mSwipeRefreshLayout.postDelayed(new Runnable() {
@@ -340,9 +355,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
             mBleManager.disconnect();
 
             // Force restart scanning
-            if (mScannedDevices != null) {      // Fixed a weird bug when resuming the app (this was null on very rare occasions even if it should not be)
-                mScannedDevices.clear();
-            }
+            clearScannedDevices();
             startScan(null);
         }
     }
@@ -584,7 +597,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
 
     private void updateFilters() {
         updateFiltersTitle();
-        mScannedDevicesAdapter.notifyDataSetChanged();
+        updateScannedDevicesList();
     }
 
     private void setRssiSliderValue(int value) {
@@ -828,7 +841,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
     public void onClickDeviceConnect(int scannedDeviceIndex) {
         stopScanning();
 
-        ArrayList<BluetoothDeviceData> filteredPeripherals = mPeripheralList.filteredPeripherals(false);
+        ArrayList<BluetoothDeviceData> filteredPeripherals = mPeripheralList.filteredPeripherals();
         if (scannedDeviceIndex < filteredPeripherals.size()) {
             mSelectedDeviceData = filteredPeripherals.get(scannedDeviceIndex);
             BluetoothDevice device = mSelectedDeviceData.device;
@@ -869,56 +882,62 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
         if (BleUtils.getBleStatus(this) != BleUtils.STATUS_BLE_ENABLED) {
             Log.w(TAG, "startScan: BluetoothAdapter not initialized or unspecified address.");
         } else {
-            mScanner = new BleDevicesScanner(bluetoothAdapter, servicesToScan, new BluetoothAdapter.LeScanCallback() {
+            mDeviceExpirationMillis = PreferencesFragment.getScanDeviceExpirationSeconds(this) * 1000L;
+            mMaxScannedDevices = PreferencesFragment.getScanMaxDevices(this);
+
+            mScanner = new BleDevicesScanner(bluetoothAdapter, servicesToScan, new BleDevicesScanner.ScanBatchCallback() {
+                // Called on the main thread
                 @Override
                 public void onLeScan(final BluetoothDevice device, final int rssi, byte[] scanRecord) {
                     //final String deviceName = device.getName();
                     //Log.d(TAG, "Discovered device: " + (deviceName != null ? deviceName : "<unknown>"));
 
-                    BluetoothDeviceData previouslyScannedDeviceData = null;
                     if (mScannedDevices == null)
-                        mScannedDevices = new ArrayList<>();       // Safeguard
+                        mScannedDevices = new DeviceTable<>();       // Safeguard
 
                     // Check that the device was not previously found
-                    for (BluetoothDeviceData deviceData : mScannedDevices) {
-                        if (deviceData.device.getAddress().equals(device.getAddress())) {
-                            previouslyScannedDeviceData = deviceData;
-                            break;
-                        }
-                    }
+                    final long address = DeviceTable.addressToLong(device.getAddress());
+                    BluetoothDeviceData previouslyScannedDeviceData = mScannedDevices.find(address);
 
                     BluetoothDeviceData deviceData;
                     if (previouslyScannedDeviceData == null) {
+                        // Make room for the device if the list is full
+                        if (mScannedDevices.size() >= mMaxScannedDevices) {
+                            removeLeastRecentlySeenDevices();
+                        }
+
                         // Add it to the mScannedDevice list
                         deviceData = new BluetoothDeviceData();
-                        mScannedDevices.add(deviceData);
+                        deviceData.address = address;
+                        mScannedDevices.put(address, deviceData);
                     } else {
                         deviceData = previouslyScannedDeviceData;
                     }
 
                     deviceData.device = device;
-                    deviceData.rssi = rssi;
+                    deviceData.addRssiSample(rssi, SystemClock.elapsedRealtime());
                     deviceData.scanRecord = scanRecord;
                     decodeScanRecords(deviceData);
+                    mPeripheralList.onDeviceUpdated(deviceData);
+                }
 
-                    // Update device data
+                @Override
+                public void onScanBatchDelivered(int count) {
+                    // Update UI
                     long currentMillis = SystemClock.uptimeMillis();
-                    if (previouslyScannedDeviceData == null || currentMillis - mLastUpdateMillis > kMinDelayToUpdateUI) {          // Avoid updating when not a new device has been found and the time from the last update is really short to avoid updating UI so fast that it will become unresponsive
+                    // The adapter must be notified as soon as the filtered list adds, removes or moves a device (the ListView throws if its count changes without a notification). Other changes are throttled to avoid updating UI so fast that it will become unresponsive
+                    if (mPeripheralList.isStructureChanged() || currentMillis - mLastUpdateMillis > kMinDelayToUpdateUI) {
                         mLastUpdateMillis = currentMillis;
-
-                        runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                updateUI();
-                            }
-                        });
+                        updateUI();
                     }
-
                 }
             });
 
             // Start scanning
             mScanner.start();
+            if (mDeviceExpirationMillis > 0) {
+                mStaleDevicesHandler.postDelayed(mRemoveStaleDevicesRunnable, kStaleDevicesCheckInterval);
+            }
         }
 
         // Update UI
@@ -931,139 +950,81 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
             mScanner.stop();
             mScanner = null;
         }
+        mStaleDevicesHandler.removeCallbacks(mRemoveStaleDevicesRunnable);
 
         updateUI();
     }
     // endregion
 
-    private void decodeScanRecords(BluetoothDeviceData deviceData) {
-        // based on http://stackoverflow.com/questions/24003777/read-advertisement-packet-in-android
-        final byte[] scanRecord = deviceData.scanRecord;
-
-        ArrayList<UUID> uuids = new ArrayList<>();
-        byte[] advertisedData = Arrays.copyOf(scanRecord, scanRecord.length);
-        int offset = 0;
-        deviceData.type = BluetoothDeviceData.kType_Unknown;
-
-        // Check if is an iBeacon ( 0x02, 0x0x1, a flag byte, 0x1A, 0xFF, manufacturer (2bytes), 0x02, 0x15)
-        final boolean isBeacon = advertisedData[0] == 0x02 && advertisedData[1] == 0x01 && advertisedData[3] == 0x1A && advertisedData[4] == (byte) 0xFF && advertisedData[7] == 0x02 && advertisedData[8] == 0x15;
-
-        // Check if is an URIBeacon
-        final byte[] kUriBeaconPrefix = {0x03, 0x03, (byte) 0xD8, (byte) 0xFE};
-        final boolean isUriBeacon = Arrays.equals(Arrays.copyOf(scanRecord, kUriBeaconPrefix.length), kUriBeaconPrefix) && advertisedData[5] == 0x16 && advertisedData[6] == kUriBeaconPrefix[2] && advertisedData[7] == kUriBeaconPrefix[3];
-
-        if (isBeacon) {
-            deviceData.type = BluetoothDeviceData.kType_Beacon;
-
-            // Read uuid
-            offset = 9;
-            UUID uuid = BleUtils.getUuidFromByteArrayBigEndian(Arrays.copyOfRange(scanRecord, offset, offset + 16));
-            uuids.add(uuid);
-            offset += 16;
-
-            // Skip major minor
-            offset += 2 * 2;   // major, minor
-
-            // Read txpower
-            final int txPower = advertisedData[offset++];
-            deviceData.txPower = txPower;
-        } else if (isUriBeacon) {
-            deviceData.type = BluetoothDeviceData.kType_UriBeacon;
-
-            // Read txpower
-            final int txPower = advertisedData[9];
-            deviceData.txPower = txPower;
-        } else {
-            // Read standard advertising packet
-            while (offset < advertisedData.length - 2) {
-                // Length
-                int len = advertisedData[offset++];
-                if (len == 0) break;
-
-                // Type
-                int type = advertisedData[offset++];
-                if (type == 0) break;
-
-                // Data
-//            Log.d(TAG, "record -> lenght: " + length + " type:" + type + " data" + data);
-
-                switch (type) {
-                    case 0x02:          // Partial list of 16-bit UUIDs
-                    case 0x03: {        // Complete list of 16-bit UUIDs
-                        while (len > 1) {
-                            int uuid16 = advertisedData[offset++] & 0xFF;
-                            uuid16 |= (advertisedData[offset++] << 8);
-                            len -= 2;
-                            uuids.add(UUID.fromString(String.format("%08x-0000-1000-8000-00805f9b34fb", uuid16)));
-                        }
-                        break;
-                    }
+    // region Device aging
+    // Removes the devices that have not advertised during mDeviceExpirationMillis. Runs periodically while scanning
+    private final Runnable mRemoveStaleDevicesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mScannedDevices != null) {
+                mStaleDeviceLastSeenLimitMillis = SystemClock.elapsedRealtime() - mDeviceExpirationMillis;
+                final int removedCount = mScannedDevices.removeIf(mIsStaleDeviceCondition);
+                if (removedCount > 0) {
+                    Log.d(TAG, "Removed stale devices: " + removedCount);
+                    updateUI();
+                }
+            }
 
-                    case 0x06:          // Partial list of 128-bit UUIDs
-                    case 0x07: {        // Complete list of 128-bit UUIDs
-                        while (len >= 16) {
-                            try {
-                                // Wrap the advertised bits and order them.
-                                UUID uuid = BleUtils.getUuidFromByteArraLittleEndian(Arrays.copyOfRange(advertisedData, offset, offset + 16));
-                                uuids.add(uuid);
-
-                            } catch (IndexOutOfBoundsException e) {
-                                Log.e(TAG, "BlueToothDeviceFilter.parseUUID: " + e.toString());
-                            } finally {
-                                // Move the offset to read the next uuid.
-                                offset += 16;
-                                len -= 16;
-                            }
-                        }
-                        break;
-                    }
+            mStaleDevicesHandler.postDelayed(this, kStaleDevicesCheckInterval);
+        }
+    };
 
-                    case 0x09: {
-                        byte[] nameBytes = new byte[len - 1];
-                        for (int i = 0; i < len - 1; i++) {
-                            nameBytes[i] = advertisedData[offset++];
-                        }
+    // Also removes the stale devices from the filtered list
+    private final DeviceTable.Condition<BluetoothDeviceData> mIsStaleDeviceCondition = new DeviceTable.Condition<BluetoothDeviceData>() {
+        @Override
+        public boolean test(BluetoothDeviceData deviceData) {
+            final boolean isStale = deviceData.lastSeenMillis < mStaleDeviceLastSeenLimitMillis;
+            if (isStale) {
+                mPeripheralList.onDeviceRemoved(deviceData);
+            }
+            return isStale;
+        }
+    };
 
-                        String name = null;
-                        try {
-                            name = new String(nameBytes, "utf-8");
-                        } catch (UnsupportedEncodingException e) {
-                            e.printStackTrace();
-                        }
-                        deviceData.advertisedName = name;
-                        break;
-                    }
+    // Removes the least recently seen kEvictedDevicesPercent of the devices (at least one) in a single pass, so the cost of compacting the table is shared by all the devices found until it is full again
+    private void removeLeastRecentlySeenDevices() {
+        final int count = mScannedDevices.size();
+        if (count == 0) {
+            return;
+        }
 
-                    case 0x0A: {        // TX Power
-                        final int txPower = advertisedData[offset++];
-                        deviceData.txPower = txPower;
-                        break;
-                    }
+        final long[] lastSeenMillis = new long[count];
+        for (int i = 0; i < count; i++) {
+            lastSeenMillis[i] = mScannedDevices.get(i).lastSeenMillis;
+        }
+        Arrays.sort(lastSeenMillis);
+        final int evictedCount = Math.max(1, count * kEvictedDevicesPercent / 100);
 
-                    default: {
-                        offset += (len - 1);
-                        break;
-                    }
-                }
-            }
+        // Devices seen at the same time as the last evicted one are also removed
+        mStaleDeviceLastSeenLimitMillis = lastSeenMillis[evictedCount - 1] + 1;
+        mScannedDevices.removeIf(mIsStaleDeviceCondition);
+    }
+    // endregion
 
-            // Check if Uart is contained in the uuids
-            boolean isUart = false;
-            for (UUID uuid : uuids) {
-                if (uuid.toString().equalsIgnoreCase(UartInterfaceActivity.UUID_SERVICE)) {
-                    isUart = true;
-                    break;
-                }
-            }
-            if (isUart) {
-                deviceData.type = BluetoothDeviceData.kType_Uart;
-            }
+    private void decodeScanRecords(BluetoothDeviceData deviceData) {
+        final AdvertisementData advertisementData = deviceData.advertisementData;       // Reused for each advertisement of the device
+        AdvertisementParser.parse(mAdvertisementReader.reset(deviceData.scanRecord), advertisementData);
+        deviceData.type = advertisementData.type;
+        deviceData.txPower = advertisementData.txPower;
+        deviceData.uuids = advertisementData.uuids;
+        if (advertisementData.advertisedName != null) {
+            deviceData.advertisedName = advertisementData.advertisedName;
         }
-
-        deviceData.uuids = uuids;
     }
 
 
+    private void clearScannedDevices() {
+        if (mScannedDevices != null) {      // Fixed a weird bug when resuming the app (this was null on very rare occasions even if it should not be)
+            mScannedDevices.clear();
+        }
+        mPeripheralList.clear();
+    }
+
     private void updateUI() {
         // Scan button
         boolean isScanning = mScanner != null && mScanner.isScanning();
@@ -1075,7 +1036,22 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
         mDevicesScrollView.setVisibility(isListEmpty ? View.GONE : View.VISIBLE);
 
         // devices list
-        mScannedDevicesAdapter.notifyDataSetChanged();
+        updateScannedDevicesList();
+    }
+
+    // Reloads the list only if devices have been added, removed or moved. Otherwise only the rows of the devices that have changed are refreshed
+    private void updateScannedDevicesList() {
+        if (mPeripheralList.isStructureChanged()) {
+            mScannedDevicesAdapter.notifyDataSetChanged();
+        } else {
+            for (BluetoothDeviceData deviceData : mPeripheralList.getChangedPeripherals()) {
+                final int groupPosition = mPeripheralList.indexOfFilteredPeripheral(deviceData);
+                if (groupPosition >= 0) {
+                    mScannedDevicesAdapter.updateGroup(mScannedDevicesListView, groupPosition);
+                }
+            }
+        }
+        mPeripheralList.clearChanges();
     }
 
     // region ResetBluetoothAdapterListener
@@ -1196,7 +1172,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
     }
 
     @Override
-    public void onDataAvailable(BluetoothGattCharacteristic characteristic) {
+    public void onDataAvailable(CharacteristicValue value) {
     }
 
     @Override
@@ -1261,7 +1237,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
 
         mLatestCheckedDeviceAddress = null;
 
-        mScannedDevices.clear();
+        clearScannedDevices();
         startScan(null);
     }
 
@@ -1271,7 +1247,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
 
         Toast.makeText(this, R.string.scan_softwareupdate_completed, Toast.LENGTH_LONG).show();
 
-        mScannedDevices.clear();
+        clearScannedDevices();
         startScan(null);
     }
 
@@ -1282,7 +1258,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
 
         mLatestCheckedDeviceAddress = null;
 
-        mScannedDevices.clear();
+        clearScannedDevices();
         startScan(null);
     }
 
@@ -1297,7 +1273,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
 
                 mLatestCheckedDeviceAddress = null;
 
-                mScannedDevices.clear();
+                clearScannedDevices();
                 startScan(null);
             }
         });
@@ -1309,21 +1285,43 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
     // region Helpers
     private class BluetoothDeviceData {
         BluetoothDevice device;
-        public int rssi;
+        long address;                           // Address as a number (key in mScannedDevices)
+        boolean isChangePending;                // Used by PeripheralList to track the rows that have to be refreshed
+        public int rssi;                        // Smoothed rssi (127 if not available)
+        long lastSeenMillis;                    // Time of the last advertisement received (SystemClock.elapsedRealtime)
+        private float smoothedRssi;
+        private boolean isRssiAvailable;
         byte[] scanRecord;
         private String advertisedName;           // Advertised name
         private String cachedNiceName;
         private String cachedName;
 
         // Decoded scan record (update R.array.scan_devicetypes if this list is modified)
-        static final int kType_Unknown = 0;
-        static final int kType_Uart = 1;
-        static final int kType_Beacon = 2;
-        static final int kType_UriBeacon = 3;
+        static final int kType_Unknown = AdvertisementData.kType_Unknown;
+        static final int kType_Uart = AdvertisementData.kType_Uart;
+        static final int kType_Beacon = AdvertisementData.kType_Beacon;
+        static final int kType_UriBeacon = AdvertisementData.kType_UriBeacon;
 
         public int type;
         int txPower;
         ArrayList<UUID> uuids;
+        final AdvertisementData advertisementData = new AdvertisementData();
+
+        // Exponential moving average weighted by the time elapsed since the previous advertisement (so devices that advertise at different intervals are smoothed over the same time span)
+        void addRssiSample(int sample, long timeMillis) {
+            if (sample != 127) {        // 127 reserved for RSSI not available
+                if (!isRssiAvailable) {
+                    smoothedRssi = sample;
+                    isRssiAvailable = true;
+                } else {
+                    final double weight = 1 - Math.exp(-(timeMillis - lastSeenMillis) / (double) kRssiSmoothingTimeConstant);
+                    smoothedRssi += weight * (sample - smoothedRssi);
+                }
+            }
+
+            rssi = isRssiAvailable ? Math.round(smoothedRssi) : 127;
+            lastSeenMillis = timeMillis;
+        }
 
         String getName() {
             if (cachedName == null) {
@@ -1369,17 +1367,20 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
         private int mRssiFilterValue;
         private boolean mIsUnnamedEnabled;
         private boolean mIsOnlyUartEnabled;
-        private ArrayList<BluetoothDeviceData> mCachedFilteredPeripheralList;
+        private String mFilterNameLowerCase;
+        private final ArrayList<BluetoothDeviceData> mCachedFilteredPeripheralList = new ArrayList<>();
+        private final ArrayList<BluetoothDeviceData> mChangedPeripherals = new ArrayList<>();
         private boolean mIsFilterDirty;
+        private boolean mIsStructureChanged;
 
         private SharedPreferences.Editor preferencesEditor = getSharedPreferences(kPreferences, MODE_PRIVATE).edit();
 
         PeripheralList() {
             mIsFilterDirty = true;
-            mCachedFilteredPeripheralList = new ArrayList<>();
 
             SharedPreferences preferences = getSharedPreferences(kPreferences, MODE_PRIVATE);
             mFilterName = preferences.getString(kPreferences_filtersName, null);
+            mFilterNameLowerCase = mFilterName != null ? mFilterName.toLowerCase() : null;
             mIsFilterNameExact = preferences.getBoolean(kPreferences_filtersIsNameExact, false);
             mIsFilterNameCaseInsensitive = preferences.getBoolean(kPreferences_filtersIsNameCaseInsensitive, true);
             mRssiFilterValue = preferences.getInt(kPreferences_filtersRssi, kMaxRssiValue);
@@ -1393,6 +1394,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
 
         void setFilterName(String name) {
             mFilterName = name;
+            mFilterNameLowerCase = name != null ? name.toLowerCase() : null;
             mIsFilterDirty = true;
 
             preferencesEditor.putString(kPreferences_filtersName, name);
@@ -1463,6 +1465,8 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
 
         void setDefaultFilters() {
             mFilterName = null;
+            mFilterNameLowerCase = null;
+            mIsFilterDirty = true;
             mIsFilterNameExact = false;
             mIsFilterNameCaseInsensitive = true;
             mRssiFilterValue = kMaxRssiValue;
@@ -1474,76 +1478,137 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
             return (mFilterName != null && !mFilterName.isEmpty()) || mRssiFilterValue > kMaxRssiValue || mIsOnlyUartEnabled || !mIsUnnamedEnabled;
         }
 
-        ArrayList<BluetoothDeviceData> filteredPeripherals(boolean forceUpdate) {
-            if (mIsFilterDirty || forceUpdate) {
-                mCachedFilteredPeripheralList = calculateFilteredPeripherals();
+        // Devices that pass the filters, sorted by name. The list is rebuilt when the filters change and updated incrementally (with onDeviceUpdated) when a device advertises
+        ArrayList<BluetoothDeviceData> filteredPeripherals() {
+            if (mIsFilterDirty) {
+                calculateFilteredPeripherals();
                 mIsFilterDirty = false;
             }
 
             return mCachedFilteredPeripheralList;
         }
 
-        private ArrayList<BluetoothDeviceData> calculateFilteredPeripherals() {
+        // Returns true if the filtered list has changed its structure (devices added, removed or moved) since the last call to clearChanges. If false, only the devices returned by getChangedPeripherals have to be refreshed
+        boolean isStructureChanged() {
+            return mIsStructureChanged || mIsFilterDirty;
+        }
 
-            ArrayList<BluetoothDeviceData> peripherals = (ArrayList<BluetoothDeviceData>) mScannedDevices.clone();
+        // Devices of the filtered list whose data has changed (without changing their position)
+        ArrayList<BluetoothDeviceData> getChangedPeripherals() {
+            return mChangedPeripherals;
+        }
 
-            // Sort devices alphabetically
-            Collections.sort(peripherals, new Comparator<BluetoothDeviceData>() {
-                @Override
-                public int compare(BluetoothDeviceData o1, BluetoothDeviceData o2) {
-                    return o1.getNiceName().compareToIgnoreCase(o2.getNiceName());
-                }
-            });
+        void clearChanges() {
+            mIsStructureChanged = false;
+            for (BluetoothDeviceData deviceData : mChangedPeripherals) {
+                deviceData.isChangePending = false;
+            }
+            mChangedPeripherals.clear();
+        }
 
-            // Apply filters
-            if (mIsOnlyUartEnabled) {
-                for (Iterator<BluetoothDeviceData> it = peripherals.iterator(); it.hasNext(); ) {
-                    if (it.next().type != BluetoothDeviceData.kType_Uart) {
-                        it.remove();
+        void clear() {
+            mCachedFilteredPeripheralList.clear();
+            clearChanges();
+            mIsStructureChanged = true;
+        }
+
+        // Re-evaluates the filters only for the device and moves it to its sorted position (the name used to sort a device doesn't change once computed, so its current position can be found with a binary search)
+        void onDeviceUpdated(BluetoothDeviceData deviceData) {
+            if (mIsFilterDirty) {
+                return;         // The whole list will be recalculated
+            }
+
+            final int index = indexOfFilteredPeripheral(deviceData);
+            final boolean isPassingFilters = isPassingFilters(deviceData);
+            if (index >= 0) {
+                if (isPassingFilters) {
+                    if (!deviceData.isChangePending) {
+                        deviceData.isChangePending = true;
+                        mChangedPeripherals.add(deviceData);
                     }
+                } else {
+                    mCachedFilteredPeripheralList.remove(index);
+                    mIsStructureChanged = true;
                 }
+            } else if (isPassingFilters) {
+                mCachedFilteredPeripheralList.add(-index - 1, deviceData);
+                mIsStructureChanged = true;
             }
+        }
 
-            if (!mIsUnnamedEnabled) {
-                for (Iterator<BluetoothDeviceData> it = peripherals.iterator(); it.hasNext(); ) {
-                    if (it.next().getName() == null) {
-                        it.remove();
-                    }
+        void onDeviceRemoved(BluetoothDeviceData deviceData) {
+            if (mIsFilterDirty) {
+                return;         // The whole list will be recalculated
+            }
+
+            final int index = indexOfFilteredPeripheral(deviceData);
+            if (index >= 0) {
+                mCachedFilteredPeripheralList.remove(index);
+                mIsStructureChanged = true;
+            }
+        }
+
+        int indexOfFilteredPeripheral(BluetoothDeviceData deviceData) {
+            return Collections.binarySearch(mCachedFilteredPeripheralList, deviceData, mPeripheralComparator);
+        }
+
+        // Sort devices alphabetically (and by address if they have the same name, so each device has a unique position)
+        private final Comparator<BluetoothDeviceData> mPeripheralComparator = new Comparator<BluetoothDeviceData>() {
+            @Override
+            public int compare(BluetoothDeviceData o1, BluetoothDeviceData o2) {
+                final int result = o1.getNiceName().compareToIgnoreCase(o2.getNiceName());
+                return result != 0 ? result : (o1.address < o2.address ? -1 : (o1.address == o2.address ? 0 : 1));
+            }
+        };
+
+        private void calculateFilteredPeripherals() {
+            mCachedFilteredPeripheralList.clear();
+            for (BluetoothDeviceData deviceData : mScannedDevices.values()) {
+                if (isPassingFilters(deviceData)) {
+                    mCachedFilteredPeripheralList.add(deviceData);
                 }
             }
+            Collections.sort(mCachedFilteredPeripheralList, mPeripheralComparator);
+
+            clearChanges();
+            mIsStructureChanged = true;
+        }
+
+        private boolean isPassingFilters(BluetoothDeviceData deviceData) {
+            if (mIsOnlyUartEnabled && deviceData.type != BluetoothDeviceData.kType_Uart) {
+                return false;
+            }
+
+            if (deviceData.rssi < mRssiFilterValue) {
+                return false;
+            }
+
+            final String name = deviceData.getName();
+            if (!mIsUnnamedEnabled && name == null) {
+                return false;
+            }
 
             if (mFilterName != null && !mFilterName.isEmpty()) {
-                for (Iterator<BluetoothDeviceData> it = peripherals.iterator(); it.hasNext(); ) {
-                    String name = it.next().getName();
-                    boolean testPassed = false;
-                    if (name != null) {
-                        if (mIsFilterNameExact) {
-                            if (mIsFilterNameCaseInsensitive) {
-                                testPassed = name.compareToIgnoreCase(mFilterName) == 0;
-                            } else {
-                                testPassed = name.compareTo(mFilterName) == 0;
-                            }
-                        } else {
-                            if (mIsFilterNameCaseInsensitive) {
-                                testPassed = name.toLowerCase().contains(mFilterName.toLowerCase());
-                            } else {
-                                testPassed = name.contains(mFilterName);
-                            }
-                        }
-                    }
-                    if (!testPassed) {
-                        it.remove();
-                    }
+                if (name == null) {
+                    return false;
                 }
-            }
 
-            for (Iterator<BluetoothDeviceData> it = peripherals.iterator(); it.hasNext(); ) {
-                if (it.next().rssi < mRssiFilterValue) {
-                    it.remove();
+                if (mIsFilterNameExact) {
+                    if (mIsFilterNameCaseInsensitive) {
+                        return name.compareToIgnoreCase(mFilterName) == 0;
+                    } else {
+                        return name.compareTo(mFilterName) == 0;
+                    }
+                } else {
+                    if (mIsFilterNameCaseInsensitive) {
+                        return name.toLowerCase().contains(mFilterNameLowerCase);
+                    } else {
+                        return name.contains(mFilterName);
+                    }
                 }
             }
 
-            return peripherals;
+            return true;
         }
 
         String filtersDescription() {
@@ -1602,7 +1667,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
 
         @Override
         public int getGroupCount() {
-            mFilteredPeripherals = mPeripheralList.filteredPeripherals(true);
+            mFilteredPeripherals = mPeripheralList.filteredPeripherals();
             return mFilteredPeripherals.size();
         }
 
@@ -1738,7 +1803,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
 
         @Override
         public long getGroupId(int groupPosition) {
-            return groupPosition;
+            return mFilteredPeripherals.get(groupPosition).address;        // Stable while the device moves in the list (so the list keeps the expanded state of the device)
         }
 
         @Override
@@ -1827,6 +1892,25 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
             return convertView;
         }
 
+        // Rebinds the views of the group (and its child if expanded) in place, without reloading the list
+        void updateGroup(ExpandableListView listView, int groupPosition) {
+            final int flatPosition = listView.getFlatListPosition(ExpandableListView.getPackedPositionForGroup(groupPosition));
+            final int viewIndex = flatPosition - listView.getFirstVisiblePosition();
+            final View groupView = viewIndex >= 0 ? listView.getChildAt(viewIndex) : null;
+            if (groupView == null) {
+                return;         // Not visible
+            }
+
+            final boolean isExpanded = listView.isGroupExpanded(groupPosition);
+            getGroupView(groupPosition, isExpanded, groupView, listView);
+            if (isExpanded) {
+                final View childView = listView.getChildAt(viewIndex + 1);
+                if (childView != null) {
+                    getChildView(groupPosition, 0, true, childView, listView);
+                }
+            }
+        }
+
         private int getDrawableIdForRssi(int rssi) {
             int index;
             if (rssi == 127 || rssi <= -84) {       // 127 reserved for RSSI not available
@@ -1865,7 +1949,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
             rawDataButton.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    ArrayList<BluetoothDeviceData> filteredPeripherals = mPeripheralList.filteredPeripherals(false);
+                    ArrayList<BluetoothDeviceData> filteredPeripherals = mPeripheralList.filteredPeripherals();
                     if (groupPosition < filteredPeripherals.size()) {
                         final BluetoothDeviceData deviceData = filteredPeripherals.get(groupPosition);
                         final byte[] scanRecord = deviceData.scanRecord;
@@ -1903,7 +1987,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
 
     // region DataFragment
     public static class DataFragment extends Fragment {
-        private ArrayList<BluetoothDeviceData> mScannedDevices;
+        private DeviceTable<BluetoothDeviceData> mScannedDevices;
         private Class<?> mComponentToStartWhenConnected;
         private boolean mShouldEnableWifiOnQuit;
         private FirmwareUpdater mFirmwareUpdater;
@@ -1929,7 +2013,7 @@ public class MainActivity extends AppCompatActivity implements BleManager.BleMan
             mRetainedDataFragment = new DataFragment();
             fm.beginTransaction().add(mRetainedDataFragment, TAG).commitAllowingStateLoss();        // http://stackoverflow.com/questions/7575921/illegalstateexception-can-not-perform-this-action-after-onsaveinstancestate-h
 
-            mScannedDevices = new ArrayList<>();
+            mScannedDevices = new DeviceTable<>();
             // mPeripheralList = new PeripheralList();
 
         } else {
@@ -174,7 +174,7 @@ public class PadActivity extends UartInterfaceActivity {
     }
 
     @Override
-    public void onDataAvailable(BluetoothGattCharacteristic characteristic) {
+    public void onDataAvailable(CharacteristicValue value) {
 
     }
 
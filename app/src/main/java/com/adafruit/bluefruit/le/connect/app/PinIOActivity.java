@@ -3,7 +3,6 @@ package com.adafruit.bluefruit.le.connect.app;
 import android.app.AlertDialog;
 import android.app.Fragment;
 import android.app.FragmentManager;
-import android.bluetooth.BluetoothGattCharacteristic;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
@@ -26,11 +25,13 @@ import com.adafruit.bluefruit.le.connect.R;
 import com.adafruit.bluefruit.le.connect.app.settings.ConnectedSettingsActivity;
 import com.adafruit.bluefruit.le.connect.ble.BleManager;
 import com.adafruit.bluefruit.le.connect.ble.BleUtils;
+import com.adafruit.bluefruit.le.connect.ble.CharacteristicValue;
+import com.adafruit.bluefruit.le.connect.core.FirmataParser;
 import com.adafruit.bluefruit.le.connect.ui.utils.ExpandableHeightExpandableListView;
 
 import java.util.ArrayList;
 
-public class PinIOActivity extends UartInterfaceActivity {
+public class PinIOActivity extends UartInterfaceActivity implements FirmataParser.Listener {
     // Log
     private final static String TAG = UartActivity.class.getSimpleName();
 
@@ -94,6 +95,7 @@ public class PinIOActivity extends UartInterfaceActivity {
     private boolean mIsActivityFirstRun;
     private ArrayList<PinData> mPins = new ArrayList<>();
     private int mUartStatus = kUartStatus_InputOutput;
+    private final FirmataParser mFirmataParser = new FirmataParser(this);
     private Handler mQueryCapabilitiesTimerHandler;
     private Runnable mQueryCapabilitiesTimerRunnable = new Runnable() {
         @Override
@@ -204,8 +206,9 @@ public class PinIOActivity extends UartInterfaceActivity {
     }
 
     @Override
-    public void onDataAvailable(BluetoothGattCharacteristic characteristic) {
-        byte[] data = characteristic.getValue();
+    protected void onRxDataAvailable(CharacteristicValue value) {
+        super.onRxDataAvailable(value);
+        byte[] data = value.toByteArray();
         Log.d(TAG, "received: " + BleUtils.bytesToHexWithSpaces(data));
 
         switch (mUartStatus) {
@@ -226,6 +229,7 @@ public class PinIOActivity extends UartInterfaceActivity {
     private void reset() {
         mUartStatus = kUartStatus_InputOutput;
         mPins.clear();
+        mFirmataParser.reset();
 
         mPinListAdapter.notifyDataSetChanged();
 
@@ -603,133 +607,57 @@ public class PinIOActivity extends UartInterfaceActivity {
         }
     }
 
-    private ArrayList<Byte> receivedPinStateDataBuffer2 = new ArrayList<>();
-
-    private int getUnsignedReceivedPinState(int index) {
-        return receivedPinStateDataBuffer2.get(index) & 0xff;
-    }
-
     private void receivedPinState(byte[] data) {
+        mFirmataParser.parse(data);
 
-        // Append received bytes to buffer
-        for (final byte dataByte : data) {
-            receivedPinStateDataBuffer2.add(dataByte);
-        }
+        // Refresh
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mPinListAdapter.notifyDataSetChanged();
+            }
+        });
+    }
 
-        // Check if we received a pin state response
-        int endIndex = receivedPinStateDataBuffer2.indexOf(SYSEX_END);
-        if (receivedPinStateDataBuffer2.size() >= 5 && getUnsignedReceivedPinState(0) == SYSEX_START && getUnsignedReceivedPinState(1) == 0x6e && endIndex >= 0) {
-            /* pin state response
-            * -------------------------------
-            * 0  START_SYSEX (0xF0) (MIDI System Exclusive)
-            * 1  pin state response (0x6E)
-            * 2  pin (0 to 127)
-            * 3  pin mode (the currently configured mode)
-            * 4  pin state, bits 0-6
-            * 5  (optional) pin state, bits 7-13
-            * 6  (optional) pin state, bits 14-20
-            ...  additional optional bytes, as many as needed
-            * N  END_SYSEX (0xF7)
-            */
-
-            int pinDigitalId = getUnsignedReceivedPinState(2);
-            int pinMode = getUnsignedReceivedPinState(3);
-            int pinState = getUnsignedReceivedPinState(4);
-
-            int index = indexOfPinWithDigitalId(pinDigitalId);
-            if (index >= 0) {
-                PinData pin = mPins.get(index);
-                pin.mode = pinMode;
-                if (pinMode == PinData.kMode_Analog || pinMode == PinData.kMode_PWM || pinMode == PinData.kMode_Servo) {
-                    if (receivedPinStateDataBuffer2.size() >= 6) {
-                        pin.analogValue = pinState + (getUnsignedReceivedPinState(5) << 7);
-                    } else {
-                        Log.d(TAG, "Warning: received pinstate for analog pin without analogValue");
-                    }
+    // region FirmataParser.Listener
+    @Override
+    public void onPinStateReceived(int digitalPinId, int mode, int state) {
+        int index = indexOfPinWithDigitalId(digitalPinId);
+        if (index >= 0) {
+            PinData pin = mPins.get(index);
+            pin.mode = mode;
+            if (mode == PinData.kMode_Analog || mode == PinData.kMode_PWM || mode == PinData.kMode_Servo) {
+                pin.analogValue = state;
+            } else {
+                if (state == PinData.kDigitalValue_Low || state == PinData.kDigitalValue_High) {
+                    pin.digitalValue = state;
                 } else {
-                    if (pinState == PinData.kDigitalValue_Low || pinState == PinData.kDigitalValue_High) {
-                        pin.digitalValue = pinState;
-                    } else {
-                        Log.d(TAG, "Warning: received pinstate with unknown digital value. Valid (0,1). Received: " + pinState);
-                    }
+                    Log.d(TAG, "Warning: received pinstate with unknown digital value. Valid (0,1). Received: " + state);
                 }
-
-            } else {
-                Log.d(TAG, "Warning: received pinstate for unknown digital pin id: " + pinDigitalId);
             }
 
-            //  Remove from the buffer the bytes parsed
-            for (int i = 0; i < endIndex; i++) {
-                receivedPinStateDataBuffer2.remove(0);
-            }
         } else {
-            // Each pin message is 3 bytes long
-            int data0 = getUnsignedReceivedPinState(0);
-            boolean isDigitalReportingMessage = data0 >= 0x90 && data0 <= 0x9F;
-            boolean isAnalogReportingMessage = data0 >= 0xe0 && data0 <= 0xef;
-//            Log.d(TAG, "data0: "+data0);
-
-            Log.d(TAG, "receivedPinStateDataBuffer size: " + receivedPinStateDataBuffer2.size());
-            //          Log.d(TAG, "data[0]="+BleUtils.byteToHex(receivedPinStateDataBuffer.get(0))+ "data[1]="+BleUtils.byteToHex(receivedPinStateDataBuffer.get(1)));
-
-            while (receivedPinStateDataBuffer2.size() >= 3 && (isDigitalReportingMessage || isAnalogReportingMessage)) {     // Check that current message length is at least 3 bytes
-                if (isDigitalReportingMessage) {            // Digital Reporting (per port)
-                     /* two byte digital data format, second nibble of byte 0 gives the port number (e.g. 0x92 is the third port, port 2)
-                    * 0  digital data, 0x90-0x9F, (MIDI NoteOn, but different data format)
-                    * 1  digital pins 0-6 bitmask
-                    * 2  digital pin 7 bitmask
-                    */
-
-                    int port = getUnsignedReceivedPinState(0) - 0x90;
-                    int pinStates = getUnsignedReceivedPinState(1);
-                    pinStates |= getUnsignedReceivedPinState(2) << 7;        // PORT 0: use LSB of third byte for pin7, PORT 1: pins 14 & 15
-                    updatePinsForReceivedStates(pinStates, port);
-                } else if (isAnalogReportingMessage) {        // Analog Reporting (per pin)
-                    /* analog 14-bit data format
-                    * 0  analog pin, 0xE0-0xEF, (MIDI Pitch Wheel)
-                    * 1  analog least significant 7 bits
-                    * 2  analog most significant 7 bits
-                    */
-
-                    int analogPinId = getUnsignedReceivedPinState(0) - 0xe0;
-                    int value = getUnsignedReceivedPinState(1) + (getUnsignedReceivedPinState(2) << 7);
-
-                    int index = indexOfPinWithAnalogId(analogPinId);
-                    if (index >= 0) {
-                        PinData pin = mPins.get(index);
-                        pin.analogValue = value;
-                        Log.d(TAG, "received analog value: " + value + " pin analog id: " + analogPinId + " digital Id: " + index);
-                    } else {
-                        Log.d(TAG, "Warning: received pinstate for unknown analog pin id: " + index);
-                    }
-                }
-
-                //  Remove from the buffer the bytes parsed
-                for (int i = 0; i < 3; i++) {
-                    receivedPinStateDataBuffer2.remove(0);
-                }
+            Log.d(TAG, "Warning: received pinstate for unknown digital pin id: " + digitalPinId);
+        }
+    }
 
-                // Setup vars for next message
-                if (receivedPinStateDataBuffer2.size() >= 3) {
-                    data0 = getUnsignedReceivedPinState(0);
-                    isDigitalReportingMessage = data0 >= 0x90 && data0 <= 0x9F;
-                    isAnalogReportingMessage = data0 >= 0xe0 && data0 <= 0xef;
+    @Override
+    public void onDigitalPortReceived(int port, int pinStates) {
+        updatePinsForReceivedStates(pinStates, port);
+    }
 
-                } else {
-                    isDigitalReportingMessage = false;
-                    isAnalogReportingMessage = false;
-                }
-            }
+    @Override
+    public void onAnalogValueReceived(int analogPinId, int value) {
+        int index = indexOfPinWithAnalogId(analogPinId);
+        if (index >= 0) {
+            PinData pin = mPins.get(index);
+            pin.analogValue = value;
+            Log.d(TAG, "received analog value: " + value + " pin analog id: " + analogPinId + " digital Id: " + index);
+        } else {
+            Log.d(TAG, "Warning: received pinstate for unknown analog pin id: " + analogPinId);
         }
-
-        // Refresh
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                mPinListAdapter.notifyDataSetChanged();
-            }
-        });
     }
+    // endregion
 
     private void updatePinsForReceivedStates(int pinStates, int port) {
         int offset = 8 * port;
@@ -3,7 +3,6 @@ package com.adafruit.bluefruit.le.connect.app;
 import android.app.AlertDialog;
 import android.app.Fragment;
 import android.app.FragmentManager;
-import android.bluetooth.BluetoothGattCharacteristic;
 import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.Context;
@@ -37,6 +36,8 @@ import com.adafruit.bluefruit.le.connect.app.settings.ConnectedSettingsActivity;
 import com.adafruit.bluefruit.le.connect.app.settings.MqttUartSettingsActivity;
 import com.adafruit.bluefruit.le.connect.app.settings.PreferencesFragment;
 import com.adafruit.bluefruit.le.connect.ble.BleManager;
+import com.adafruit.bluefruit.le.connect.ble.CharacteristicValue;
+import com.adafruit.bluefruit.le.connect.core.HexUtils;
 import com.adafruit.bluefruit.le.connect.mqtt.MqttManager;
 import com.adafruit.bluefruit.le.connect.mqtt.MqttSettings;
 
@@ -527,6 +528,19 @@ public class UartActivity extends UartInterfaceActivity implements MqttManager.M
     }
     // endregion
 
+    // region Send Data to UART
+    // The uart console is a byte stream: send it on the bulk queue and merge the small writes (typed characters) into bigger packets
+    @Override
+    protected int getWritePriority() {
+        return BleManager.PRIORITY_BULK;
+    }
+
+    @Override
+    protected boolean isWriteCoalescingEnabled() {
+        return true;
+    }
+    // endregion
+
     // region BleManagerListener
     /*
     @Override
@@ -553,42 +567,38 @@ public class UartActivity extends UartInterfaceActivity implements MqttManager.M
     }
 
     @Override
-    public synchronized void onDataAvailable(BluetoothGattCharacteristic characteristic) {
-        super.onDataAvailable(characteristic);
+    protected synchronized void onRxDataAvailable(CharacteristicValue value) {
+        super.onRxDataAvailable(value);
         // UART RX
-        if (characteristic.getService().getUuid().toString().equalsIgnoreCase(UUID_SERVICE)) {
-            if (characteristic.getUuid().toString().equalsIgnoreCase(UUID_RX)) {
-                final byte[] bytes = characteristic.getValue();
-                mReceivedBytes += bytes.length;
-
-                final UartDataChunk dataChunk = new UartDataChunk(System.currentTimeMillis(), UartDataChunk.TRANSFERMODE_RX, bytes);
-                mDataBuffer.add(dataChunk);
-
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (mIsTimestampDisplayMode) {
-                            final String currentDateTimeString = DateFormat.getTimeInstance().format(new Date(dataChunk.getTimestamp()));
-                            final String formattedData = mShowDataInHexFormat ? bytesToHex(bytes) : bytesToText(bytes, true);
-
-                            mBufferListAdapter.add(new TimestampData("[" + currentDateTimeString + "] RX: " + formattedData, mRxColor));
-                            //mBufferListAdapter.add("[" + currentDateTimeString + "] RX: " + formattedData);
-                            //mBufferListView.smoothScrollToPosition(mBufferListAdapter.getCount() - 1);
-                            mBufferListView.setSelection(mBufferListAdapter.getCount());
-                        }
-                        updateUI();
-                    }
-                });
-
-                // MQTT publish to RX
-                MqttSettings settings = MqttSettings.getInstance(UartActivity.this);
-                if (settings.isPublishEnabled()) {
-                    String topic = settings.getPublishTopic(MqttUartSettingsActivity.kPublishFeed_RX);
-                    final int qos = settings.getPublishQos(MqttUartSettingsActivity.kPublishFeed_RX);
-                    final String text = bytesToText(bytes, false);
-                    mMqttManager.publish(topic, text, qos);
+        final byte[] bytes = value.toByteArray();       // The data is kept in the buffer, so it is copied once and shared by the ui and mqtt
+        mReceivedBytes += bytes.length;
+
+        final UartDataChunk dataChunk = new UartDataChunk(value.getTimestamp(), UartDataChunk.TRANSFERMODE_RX, bytes);
+        mDataBuffer.add(dataChunk);
+
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mIsTimestampDisplayMode) {
+                    final String currentDateTimeString = DateFormat.getTimeInstance().format(new Date(dataChunk.getTimestamp()));
+                    final String formattedData = mShowDataInHexFormat ? bytesToHex(bytes) : bytesToText(bytes, true);
+
+                    mBufferListAdapter.add(new TimestampData("[" + currentDateTimeString + "] RX: " + formattedData, mRxColor));
+                    //mBufferListAdapter.add("[" + currentDateTimeString + "] RX: " + formattedData);
+                    //mBufferListView.smoothScrollToPosition(mBufferListAdapter.getCount() - 1);
+                    mBufferListView.setSelection(mBufferListAdapter.getCount());
                 }
+                updateUI();
             }
+        });
+
+        // MQTT publish to RX
+        MqttSettings settings = MqttSettings.getInstance(UartActivity.this);
+        if (settings.isPublishEnabled()) {
+            String topic = settings.getPublishTopic(MqttUartSettingsActivity.kPublishFeed_RX);
+            final int qos = settings.getPublishQos(MqttUartSettingsActivity.kPublishFeed_RX);
+            final String text = bytesToText(bytes, false);
+            mMqttManager.publish(topic, text, qos);
         }
     }
 
@@ -685,12 +695,8 @@ public class UartActivity extends UartInterfaceActivity implements MqttManager.M
     }
 
     private String bytesToHex(byte[] bytes) {
-        StringBuilder stringBuffer = new StringBuilder();
-        for (byte aByte : bytes) {
-            String charString = String.format("%02X", (byte) aByte);
-
-            stringBuffer.append(charString).append(" ");
-        }
+        StringBuilder stringBuffer = new StringBuilder(bytes.length * 3);
+        HexUtils.appendHexWithSpaces(stringBuffer, bytes);
         return stringBuffer.toString();
     }
 
@@ -1,19 +1,21 @@
 package com.adafruit.bluefruit.le.connect.app;
 
-import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
+import android.content.SharedPreferences;
 import android.os.Handler;
+import android.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 
 import com.adafruit.bluefruit.le.connect.ble.BleManager;
 import com.adafruit.bluefruit.le.connect.ble.BleUtils;
+import com.adafruit.bluefruit.le.connect.ble.CharacteristicValue;
 
 import java.nio.charset.Charset;
 import java.util.Arrays;
 
-public class UartInterfaceActivity extends AppCompatActivity implements BleManager.BleManagerListener {
+public class UartInterfaceActivity extends AppCompatActivity implements BleManager.BleManagerListener, BleManager.CharacteristicListener {
     // Log
     private final static String TAG = UartInterfaceActivity.class.getSimpleName();
 
@@ -22,13 +24,31 @@ public class UartInterfaceActivity extends AppCompatActivity implements BleManag
     public static final String UUID_RX = "6e400003-b5a3-f393-e0a9-e50e24dcca9e";
     public static final String UUID_TX = "6e400002-b5a3-f393-e0a9-e50e24dcca9e";
     public static final String UUID_DFU = "00001530-1212-EFDE-1523-785FEABCD123";
-    public static final int kTxMaxCharacters = 20;
+    public static final int kTxMaxCharacters = 20;          // Payload size with the default mtu. The real size is obtained from BleManager.getMaxWritePayloadSize
 
     // Data
     protected BleManager mBleManager;
     protected BluetoothGattService mUartService;
     private boolean isRxNotificationEnabled = false;
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        // Receive the uart rx data while the activity exists, also when other screens (settings, mqtt...) are on top of it. Subscribing again is ignored
+        if (mBleManager != null) {
+            mBleManager.subscribe(UUID_SERVICE, UUID_RX, this);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mBleManager != null) {
+            mBleManager.unsubscribe(UUID_SERVICE, UUID_RX, this);
+        }
+
+        super.onDestroy();
+    }
 
     // region Send Data to UART
     protected void sendData(String text) {
@@ -38,16 +58,30 @@ public class UartInterfaceActivity extends AppCompatActivity implements BleManag
 
     protected void sendData(byte[] data) {
         if (mUartService != null) {
-            // Split the value into chunks (UART service has a maximum number of characters that can be written )
-            for (int i = 0; i < data.length; i += kTxMaxCharacters) {
-                final byte[] chunk = Arrays.copyOfRange(data, i, Math.min(i + kTxMaxCharacters, data.length));
-                mBleManager.writeService(mUartService, UUID_TX, chunk);
+            SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+            final boolean isWriteWithoutResponseEnabled = sharedPreferences.getBoolean("pref_uartwritewithoutresponse", false);
+
+            // Split the value into chunks (UART service has a maximum number of characters that can be written, limited by the negotiated mtu)
+            final int maxChunkSize = Math.max(kTxMaxCharacters, mBleManager.getMaxWritePayloadSize());
+            for (int i = 0; i < data.length; i += maxChunkSize) {
+                final byte[] chunk = Arrays.copyOfRange(data, i, Math.min(i + maxChunkSize, data.length));
+                mBleManager.writeService(mUartService, UUID_TX, chunk, !isWriteWithoutResponseEnabled, isWriteCoalescingEnabled(), getWritePriority());
             }
         } else {
             Log.w(TAG, "Uart Service not discovered. Unable to send data");
         }
     }
 
+    // Queue used for the writes. Most subclasses send commands (Firmata, controller packets, neopixel commands...) that should not wait behind bulk transfers. Override to return PRIORITY_BULK for streams
+    protected int getWritePriority() {
+        return BleManager.PRIORITY_CONTROL;
+    }
+
+    // Merge consecutive small writes into bigger packets. Disabled by default because command protocols need each sendData call to arrive as a separate packet. Override to enable it for streams
+    protected boolean isWriteCoalescingEnabled() {
+        return false;
+    }
+
     // Send data to UART and add a byte with a custom CRC
     protected void sendDataWithCRC(byte[] data) {
 
@@ -147,27 +181,7 @@ public class UartInterfaceActivity extends AppCompatActivity implements BleManag
     }
 
     @Override
-    public void onDataAvailable(BluetoothGattCharacteristic characteristic) {
-        // Check if there is a pending sendDataRunnable
-        if (sendDataRunnable != null) {
-            if (characteristic.getService().getUuid().toString().equalsIgnoreCase(UUID_SERVICE)) {
-                if (characteristic.getUuid().toString().equalsIgnoreCase(UUID_RX)) {
-
-                    Log.d(TAG, "sendData received data");
-                    sendDataTimeoutHandler.removeCallbacks(sendDataRunnable);
-                    sendDataRunnable = null;
-
-                    if (sendDataCompletionHandler != null) {
-                        final byte[] bytes = characteristic.getValue();
-                        final String data = new String(bytes, Charset.forName("UTF-8"));
-
-                        final SendDataCompletionHandler dataCompletionHandler =  sendDataCompletionHandler;
-                        sendDataCompletionHandler = null;
-                        dataCompletionHandler.sendDataResponse(data);
-                    }
-                }
-            }
-        }
+    public void onDataAvailable(CharacteristicValue value) {
 
     }
 
@@ -182,4 +196,32 @@ public class UartInterfaceActivity extends AppCompatActivity implements BleManag
     }
 
     // endregion
+
+    // region CharacteristicListener
+
+    @Override
+    public void onCharacteristicValue(CharacteristicValue value) {
+        // Only subscribed to the uart rx characteristic
+        onRxDataAvailable(value);
+    }
+
+    // Called when data is received from the uart rx characteristic. Subclasses overriding it should call super to keep the sendData completionHandler working
+    protected void onRxDataAvailable(CharacteristicValue value) {
+        // Check if there is a pending sendDataRunnable
+        if (sendDataRunnable != null) {
+            Log.d(TAG, "sendData received data");
+            sendDataTimeoutHandler.removeCallbacks(sendDataRunnable);
+            sendDataRunnable = null;
+
+            if (sendDataCompletionHandler != null) {
+                final String data = value.toString(Charset.forName("UTF-8"));
+
+                final SendDataCompletionHandler dataCompletionHandler =  sendDataCompletionHandler;
+                sendDataCompletionHandler = null;
+                dataCompletionHandler.sendDataResponse(data);
+            }
+        }
+    }
+
+    // endregion
 }
@@ -26,8 +26,8 @@ import com.adafruit.bluefruit.le.connect.R;
 import com.adafruit.bluefruit.le.connect.app.update.ApplicationFilesFragmentDialog;
 import com.adafruit.bluefruit.le.connect.app.update.DfuService;
 import com.adafruit.bluefruit.le.connect.app.update.FirmwareUpdater;
-import com.adafruit.bluefruit.le.connect.app.update.ReleasesParser;
 import com.adafruit.bluefruit.le.connect.ble.BleManager;
+import com.adafruit.bluefruit.le.connect.core.ReleasesParser;
 import com.adafruit.bluefruit.le.connect.ui.utils.ExpandableHeightListView;
 
 import java.util.ArrayList;
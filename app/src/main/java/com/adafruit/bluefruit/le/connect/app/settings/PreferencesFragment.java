@@ -16,6 +16,7 @@ import android.util.Log;
 
 import com.adafruit.bluefruit.le.connect.BuildConfig;
 import com.adafruit.bluefruit.le.connect.R;
+import com.adafruit.bluefruit.le.connect.app.MainActivity;
 import com.adafruit.bluefruit.le.connect.app.UartActivity;
 import com.adafruit.bluefruit.le.connect.app.update.FirmwareUpdater;
 
@@ -53,6 +54,8 @@ public class PreferencesFragment extends PreferenceFragment implements SharedPre
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(getActivity());
 
         // Update summaries
+        updateEditTextPreferenceSummary("pref_scandeviceexpiration");
+        updateEditTextPreferenceSummary("pref_scanmaxdevices");
         updateEditTextPreferenceSummary("pref_uarttextmaxpackets");
         updateEditTextPreferenceSummary("pref_updateserver");
 
@@ -127,7 +130,27 @@ public class PreferencesFragment extends PreferenceFragment implements SharedPre
     {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(getActivity());
 
-        if (key.equals("pref_uarttextmaxpackets"))
+        if (key.equals("pref_scandeviceexpiration"))
+        {
+            // Set pref_scandeviceexpiration
+            final int deviceExpirationSeconds = getScanDeviceExpirationSeconds(getActivity());
+
+            EditTextPreference etp = (EditTextPreference) findPreference("pref_scandeviceexpiration");
+            String summary = deviceExpirationSeconds > 0 ? String.format(getString(R.string.settings_scandeviceexpiration_summary_format), deviceExpirationSeconds) : getString(R.string.settings_scandeviceexpiration_summary_disabled);
+            etp.setSummary(summary);
+            etp.setText("" + deviceExpirationSeconds);
+        }
+        else if (key.equals("pref_scanmaxdevices"))
+        {
+            // Set pref_scanmaxdevices
+            final int maxDevices = getScanMaxDevices(getActivity());
+
+            EditTextPreference etp = (EditTextPreference) findPreference("pref_scanmaxdevices");
+            String summary = String.format(getString(R.string.settings_scanmaxdevices_summary_format), maxDevices);
+            etp.setSummary(summary);
+            etp.setText("" + maxDevices);
+        }
+        else if (key.equals("pref_uarttextmaxpackets"))
         {
             // Set pref_uarttextmaxpackets
             final int uartTextMaxPackets = getUartTextMaxPackets(getActivity());
@@ -147,6 +170,37 @@ public class PreferencesFragment extends PreferenceFragment implements SharedPre
         }
     }
 
+    // Seconds without receiving advertisements before a device is removed from the scanned devices list (0 if devices are never removed)
+    public static int getScanDeviceExpirationSeconds(Context context) {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        String deviceExpirationString = sharedPreferences.getString("pref_scandeviceexpiration", "" + MainActivity.kDefaultDeviceExpirationSeconds);
+
+        // Extract integer (and check for exceptions)
+        int deviceExpirationSeconds = MainActivity.kDefaultDeviceExpirationSeconds;
+        try {
+            deviceExpirationSeconds = Integer.parseInt(deviceExpirationString);
+        } catch (NumberFormatException ignored) {
+        }
+        if (deviceExpirationSeconds < 0) deviceExpirationSeconds = 0;
+
+        return deviceExpirationSeconds;
+    }
+
+    public static int getScanMaxDevices(Context context) {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        String maxDevicesString = sharedPreferences.getString("pref_scanmaxdevices", "" + MainActivity.kDefaultMaxScannedDevices);
+
+        // Extract integer (and check for exceptions)
+        int maxDevices = MainActivity.kDefaultMaxScannedDevices;
+        try {
+            maxDevices = Integer.parseInt(maxDevicesString);
+        } catch (NumberFormatException ignored) {
+        }
+        if (maxDevices < 1) maxDevices = 1;       // Mininum value is 1
+
+        return maxDevices;
+    }
+
     public static int getUartTextMaxPackets(Context context) {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         String uartTextMaxPacketsString = sharedPreferences.getString("pref_uarttextmaxpackets", "" + UartActivity.kDefaultMaxPacketsToPaintAsText);
@@ -3,7 +3,6 @@ package com.adafruit.bluefruit.le.connect.app.update;
 import android.app.Activity;
 import android.app.NotificationManager;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.content.BroadcastReceiver;
@@ -18,6 +17,7 @@ import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.PowerManager;
 import android.preference.PreferenceManager;
 import android.support.v4.content.LocalBroadcastManager;
@@ -26,7 +26,10 @@ import android.widget.Toast;
 
 import com.adafruit.bluefruit.le.connect.BuildConfig;
 import com.adafruit.bluefruit.le.connect.R;
+import com.adafruit.bluefruit.le.connect.ble.BleFuture;
 import com.adafruit.bluefruit.le.connect.ble.BleManager;
+import com.adafruit.bluefruit.le.connect.ble.CharacteristicValue;
+import com.adafruit.bluefruit.le.connect.core.ReleasesParser;
 
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
@@ -34,6 +37,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
 
@@ -69,6 +73,7 @@ public class FirmwareUpdater implements DownloadTask.DownloadTaskListener, BleMa
     private DeviceInfoData mDeviceInfoData;
     private FirmwareUpdaterListener mListener;
     private PowerManager.WakeLock mWakeLock;
+    private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
 
     private ProgressFragmentDialog mProgressDialog;
     private Activity mParentActivity;
@@ -176,12 +181,36 @@ public class FirmwareUpdater implements DownloadTask.DownloadTaskListener, BleMa
 
                 //  if (isDISReadable) {
 
-                bleManager.readCharacteristic(deviceInformationService, kManufacturerNameCharacteristic);
-                bleManager.readCharacteristic(deviceInformationService, kModelNumberCharacteristic);
-                bleManager.readCharacteristic(deviceInformationService, kSoftwareRevisionCharacteristic);
-                bleManager.readCharacteristic(deviceInformationService, kFirmwareRevisionCharacteristic);
+                // Read all the characteristics at once and check the updates when all of them have finished (characteristics that can not be read are left as null)
+                final DeviceInfoData deviceInfoData = mDeviceInfoData;
+                bleManager.requestHighThroughput();
+                final BleFuture<byte[]> manufacturerFuture = bleManager.readCharacteristicAsync(deviceInformationService, kManufacturerNameCharacteristic);
+                final BleFuture<byte[]> modelNumberFuture = bleManager.readCharacteristicAsync(deviceInformationService, kModelNumberCharacteristic);
+                final BleFuture<byte[]> softwareRevisionFuture = bleManager.readCharacteristicAsync(deviceInformationService, kSoftwareRevisionCharacteristic);
+                final BleFuture<byte[]> firmwareRevisionFuture = bleManager.readCharacteristicAsync(deviceInformationService, kFirmwareRevisionCharacteristic);
 
-                // Data will be received asynchronously (onDataAvailable)
+                // The futures complete on the ble executor thread. Continue on the main thread, so parsing the releases and calling the listener don't block the next gatt operations
+                BleFuture.allOf(manufacturerFuture, modelNumberFuture, softwareRevisionFuture, firmwareRevisionFuture).addListener(new BleFuture.Listener<Void>() {
+                    @Override
+                    public void onComplete(BleFuture<Void> future) {
+                        mMainThreadHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                deviceInfoData.manufacturer = readValueAsString(manufacturerFuture);
+                                deviceInfoData.modelNumber = readValueAsString(modelNumberFuture);
+                                deviceInfoData.softwareRevision = readValueAsString(softwareRevisionFuture);
+                                deviceInfoData.firmwareRevision = readValueAsString(firmwareRevisionFuture);
+                                Log.d(TAG, "Updates: received manufacturer: " + deviceInfoData.manufacturer + " modelNumber: " + deviceInfoData.modelNumber + " softwareRevision: " + deviceInfoData.softwareRevision + " firmwareRevision: " + deviceInfoData.firmwareRevision);
+
+                                if (deviceInfoData == mDeviceInfoData) {        // Skip if a new check has been started
+                                    onDeviceInfoDataReceived();
+                                }
+                            }
+                        });
+                    }
+                });
+
+                // Data will be received asynchronously
                 return true;        // returns true that means that the process is still working
                 // }
             } else {
@@ -579,122 +608,93 @@ public class FirmwareUpdater implements DownloadTask.DownloadTaskListener, BleMa
     }
 
 
-    private String readCharacteristicValueAsString(BluetoothGattCharacteristic characteristic) {
-        String string = "";     // Not null
-        try {
-            string = characteristic.getStringValue(0);
-        } catch (Exception e) {
-            Log.w(TAG, "readCharacteristicValueAsString" + e);
+    // Value of a read operation as a string or null if the read failed
+    private String readValueAsString(BleFuture<byte[]> future) {
+        String string = null;
+        if (future.isSuccess()) {
+            final byte[] value = future.getValue();
+            string = value != null ? new String(value, Charset.forName("UTF-8")) : "";
         }
         return string;
     }
 
     @Override
-    public void onDataAvailable(BluetoothGattCharacteristic characteristic) {
-
-        // Process DIS characteristics
-        if (characteristic.getService().getUuid().toString().equalsIgnoreCase(kDeviceInformationService)) {
-            final String charUuid = characteristic.getUuid().toString();
-            if (charUuid.equalsIgnoreCase(kManufacturerNameCharacteristic)) {
-                String manufacturer = readCharacteristicValueAsString(characteristic);
-                mDeviceInfoData.manufacturer = manufacturer != null ? manufacturer : "";
-                Log.d(TAG, "Updates: received manufacturer:" + mDeviceInfoData.manufacturer);
-            } else if (charUuid.equalsIgnoreCase(kModelNumberCharacteristic)) {
-                String modelNumber = readCharacteristicValueAsString(characteristic);
-                mDeviceInfoData.modelNumber = modelNumber != null ? modelNumber : "";
-                Log.d(TAG, "Updates: received modelNumber:" + mDeviceInfoData.modelNumber);
-            } else if (charUuid.equalsIgnoreCase(kSoftwareRevisionCharacteristic)) {
-                String softwareRevision = readCharacteristicValueAsString(characteristic);
-                mDeviceInfoData.softwareRevision = softwareRevision != null ? softwareRevision : "";
-                Log.d(TAG, "Updates: received softwareRevision:" + mDeviceInfoData.softwareRevision);
-            } else if (charUuid.equalsIgnoreCase(kFirmwareRevisionCharacteristic)) {
-                String firmwareRevision = readCharacteristicValueAsString(characteristic);
-                mDeviceInfoData.firmwareRevision = firmwareRevision != null ? firmwareRevision : "";
-                Log.d(TAG, "Updates: received firmwareRevision:" + mDeviceInfoData.firmwareRevision);
-            }
-        }
+    public void onDataAvailable(CharacteristicValue value) {
+    }
 
-        BleManager bleManager = BleManager.getInstance(mContext);
-        BluetoothGattService deviceInformationService = bleManager.getGattService(kDeviceInformationService);
-
-        // Check if we have all data required to check if a software update is needed
-        if ((mDeviceInfoData.manufacturer != null || !bleManager.isCharacteristicReadable(deviceInformationService, kManufacturerNameCharacteristic))
-                && (mDeviceInfoData.modelNumber != null || !bleManager.isCharacteristicReadable(deviceInformationService, kModelNumberCharacteristic))
-                && (mDeviceInfoData.firmwareRevision != null || !bleManager.isCharacteristicReadable(deviceInformationService, kFirmwareRevisionCharacteristic))
-                && (mDeviceInfoData.softwareRevision != null) || !bleManager.isCharacteristicReadable(deviceInformationService, kSoftwareRevisionCharacteristic)) {
-            if (mListener != null) {
-                boolean isFirmwareUpdateAvailable = false;
-
-                Map<String, ReleasesParser.BoardInfo> allReleases = getReleases();
-                ReleasesParser.FirmwareInfo latestRelease = null;
-
-                boolean isManufacturerCorrect = mDeviceInfoData.manufacturer != null && mDeviceInfoData.manufacturer.equalsIgnoreCase(kManufacturer);
-                if (isManufacturerCorrect && mDeviceInfoData.modelNumber != null) {
-                    ReleasesParser.BoardInfo boardInfo = allReleases.get(mDeviceInfoData.modelNumber);
-                    if (boardInfo != null) {
-                        List<ReleasesParser.FirmwareInfo> modelReleases = boardInfo.firmwareReleases;
-                        if (modelReleases != null && modelReleases.size() > 0) {
-                            // Get the latest release (discard all beta releases)
-                            int selectedRelease = 0;
-                            do {
-                                latestRelease = modelReleases.get(selectedRelease);
-                                selectedRelease++;
-                            }
-                            while (latestRelease.isBeta && selectedRelease < modelReleases.size());
+    private void onDeviceInfoDataReceived() {
+        if (mListener != null) {
+            boolean isFirmwareUpdateAvailable = false;
+
+            Map<String, ReleasesParser.BoardInfo> allReleases = getReleases();
+            ReleasesParser.FirmwareInfo latestRelease = null;
+
+            boolean isManufacturerCorrect = mDeviceInfoData.manufacturer != null && mDeviceInfoData.manufacturer.equalsIgnoreCase(kManufacturer);
+            if (isManufacturerCorrect && mDeviceInfoData.modelNumber != null) {
+                ReleasesParser.BoardInfo boardInfo = allReleases.get(mDeviceInfoData.modelNumber);
+                if (boardInfo != null) {
+                    List<ReleasesParser.FirmwareInfo> modelReleases = boardInfo.firmwareReleases;
+                    if (modelReleases != null && modelReleases.size() > 0) {
+                        // Get the latest release (discard all beta releases)
+                        int selectedRelease = 0;
+                        do {
+                            latestRelease = modelReleases.get(selectedRelease);
+                            selectedRelease++;
+                        }
+                        while (latestRelease.isBeta && selectedRelease < modelReleases.size());
 
-                            if (!latestRelease.isBeta) {
-                                // Check if the bootloader is compatible with this version
-                                if (mDeviceInfoData.getBootloaderVersion().compareToIgnoreCase(latestRelease.minBootloaderVersion) >= 0) {
+                        if (!latestRelease.isBeta) {
+                            // Check if the bootloader is compatible with this version
+                            if (mDeviceInfoData.getBootloaderVersion().compareToIgnoreCase(latestRelease.minBootloaderVersion) >= 0) {
 
-                                    // Check if the user chose to ignore this version
-                                    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
-                                    String versionToIgnore = sharedPreferences.getString("pref_ignoredversion", "");
-                                    if (ReleasesParser.versionCompare(latestRelease.version, versionToIgnore) != 0) {
+                                // Check if the user chose to ignore this version
+                                SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+                                String versionToIgnore = sharedPreferences.getString("pref_ignoredversion", "");
+                                if (ReleasesParser.versionCompare(latestRelease.version, versionToIgnore) != 0) {
 
-                                        if (mDeviceInfoData.softwareRevision != null) {
-                                            final boolean isNewerVersion = ReleasesParser.versionCompare(latestRelease.version, mDeviceInfoData.softwareRevision) > 0;
-                                            final boolean showUpdateOnlyForNewerVersions = sharedPreferences.getBoolean("pref_updatesversioncheck", true);
+                                    if (mDeviceInfoData.softwareRevision != null) {
+                                        final boolean isNewerVersion = ReleasesParser.versionCompare(latestRelease.version, mDeviceInfoData.softwareRevision) > 0;
+                                        final boolean showUpdateOnlyForNewerVersions = sharedPreferences.getBoolean("pref_updatesversioncheck", true);
 
-                                            isFirmwareUpdateAvailable = isNewerVersion || !showUpdateOnlyForNewerVersions;
+                                        isFirmwareUpdateAvailable = isNewerVersion || !showUpdateOnlyForNewerVersions;
 
-                                            if (BuildConfig.DEBUG) {
-                                                if (isNewerVersion) {
-                                                    Log.d(TAG, "Updates: New version found. Ask the user to install: " + latestRelease.version);
-                                                } else {
-                                                    Log.d(TAG, "Updates: Device has already latest version: " + mDeviceInfoData.softwareRevision);
+                                        if (BuildConfig.DEBUG) {
+                                            if (isNewerVersion) {
+                                                Log.d(TAG, "Updates: New version found. Ask the user to install: " + latestRelease.version);
+                                            } else {
+                                                Log.d(TAG, "Updates: Device has already latest version: " + mDeviceInfoData.softwareRevision);
 
-                                                    if (isFirmwareUpdateAvailable) {
-                                                        Log.d(TAG, "Updates: user asked to show old versions too");
-                                                    }
+                                                if (isFirmwareUpdateAvailable) {
+                                                    Log.d(TAG, "Updates: user asked to show old versions too");
                                                 }
                                             }
-                                        } else {
-                                            Log.d(TAG, "Updates: softwareRevision is null. Skipping...");
                                         }
                                     } else {
-                                        Log.d(TAG, "Updates: User ignored version: " + versionToIgnore + ". Skipping...");
+                                        Log.d(TAG, "Updates: softwareRevision is null. Skipping...");
                                     }
                                 } else {
-                                    Log.d(TAG, "Updates: Bootloader version " + mDeviceInfoData.getBootloaderVersion() + " below minimum needed: " + latestRelease.minBootloaderVersion);
+                                    Log.d(TAG, "Updates: User ignored version: " + versionToIgnore + ". Skipping...");
                                 }
                             } else {
-                                Log.d(TAG, "Updates: No non-beta firmware releases found for model: " + mDeviceInfoData.modelNumber);
+                                Log.d(TAG, "Updates: Bootloader version " + mDeviceInfoData.getBootloaderVersion() + " below minimum needed: " + latestRelease.minBootloaderVersion);
                             }
                         } else {
-                            Log.d(TAG, "Updates: No firmware releases found for model: " + mDeviceInfoData.modelNumber);
+                            Log.d(TAG, "Updates: No non-beta firmware releases found for model: " + mDeviceInfoData.modelNumber);
                         }
                     } else {
-                        Log.d(TAG, "Updates: No releases found for model: " + mDeviceInfoData.modelNumber);
+                        Log.d(TAG, "Updates: No firmware releases found for model: " + mDeviceInfoData.modelNumber);
                     }
                 } else {
-                    Log.d(TAG, "Updates: No updates for unknown manufacturer " + mDeviceInfoData.manufacturer);
+                    Log.d(TAG, "Updates: No releases found for model: " + mDeviceInfoData.modelNumber);
                 }
-
-                // Send results to listener
-                mListener.onFirmwareUpdatesChecked(isFirmwareUpdateAvailable, latestRelease, mDeviceInfoData, allReleases);
             } else {
-                Log.d(TAG, "Updates: No listener. Skipping version check...");
+                Log.d(TAG, "Updates: No updates for unknown manufacturer " + mDeviceInfoData.manufacturer);
             }
+
+            // Send results to listener
+            mListener.onFirmwareUpdatesChecked(isFirmwareUpdateAvailable, latestRelease, mDeviceInfoData, allReleases);
+        } else {
+            Log.d(TAG, "Updates: No listener. Skipping version check...");
         }
     }
 
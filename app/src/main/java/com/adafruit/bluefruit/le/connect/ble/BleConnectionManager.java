@@ -0,0 +1,128 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps a BleManager session for each connected peripheral. Each session has its own BluetoothGatt, executor and listeners, so operations on a peripheral are not queued behind the operations of the others
+// The single peripheral screens keep using BleManager.getInstance
+public class BleConnectionManager {
+    // Log
+    private final static String TAG = BleConnectionManager.class.getSimpleName();
+
+    // Singleton
+    private static BleConnectionManager mInstance = null;
+
+    // Data
+    private final Context mContext;
+    private final ConcurrentHashMap<String, BleManager> mSessions = new ConcurrentHashMap<>();     // Key: device address (upper case)
+
+    public static synchronized BleConnectionManager getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new BleConnectionManager(context);
+        }
+        return mInstance;
+    }
+
+    private BleConnectionManager(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    private static String keyForAddress(String address) {
+        return address.toUpperCase(Locale.US);
+    }
+
+    /**
+     * Connects to a peripheral, creating its session if needed
+     *
+     * @return the session for the peripheral or null if the connection could not be initiated
+     */
+    public BleManager connect(String address, BleManager.BleManagerListener listener) {
+        if (address == null) {
+            Log.w(TAG, "connect: unspecified address");
+            return null;
+        }
+
+        final String key = keyForAddress(address);
+        while (true) {
+            BleManager session = mSessions.get(key);
+            boolean isNewSession = false;
+            if (session == null) {
+                final BleManager newSession = new BleManager(mContext);
+                session = mSessions.putIfAbsent(key, newSession);
+                if (session == null) {
+                    session = newSession;
+                    isNewSession = true;
+                } else {
+                    newSession.release();       // Other thread created the session at the same time
+                }
+            }
+
+            // Check the state and connect atomically, so two callers can not start the connection at the same time
+            synchronized (session) {
+                if (mSessions.get(key) != session) {
+                    continue;                   // The session has been removed by a failed connection on other thread. Try again with a new one
+                }
+
+                if (listener != null) {
+                    session.addBleListener(listener);
+                }
+
+                if (session.getState() == BleManager.STATE_DISCONNECTED && !session.connect(mContext, address)) {
+                    Log.w(TAG, "connect: could not connect to " + address);
+                    if (listener != null) {
+                        session.removeBleListener(listener);
+                    }
+                    if (isNewSession) {
+                        mSessions.remove(key, session);
+                        session.release();
+                    }
+                    return null;
+                }
+                return session;
+            }
+        }
+    }
+
+    public BleManager getSession(String address) {
+        return address != null ? mSessions.get(keyForAddress(address)) : null;
+    }
+
+    public List<BleManager> getSessions() {
+        return new ArrayList<>(mSessions.values());
+    }
+
+    public int getSessionsCount() {
+        return mSessions.size();
+    }
+
+    // Disconnects the peripheral but keeps its session, so it can be reconnected later
+    public void disconnect(String address) {
+        final BleManager session = getSession(address);
+        if (session != null) {
+            session.disconnect();
+        }
+    }
+
+    // Disconnects the peripheral and releases its session
+    public void remove(String address) {
+        if (address == null) {
+            return;
+        }
+
+        final BleManager session = mSessions.remove(keyForAddress(address));
+        if (session != null) {
+            session.release();
+        }
+    }
+
+    public void disconnectAll() {
+        for (String key : new ArrayList<>(mSessions.keySet())) {
+            remove(key);
+        }
+    }
+}
@@ -1,23 +1,42 @@
 package com.adafruit.bluefruit.le.connect.ble;
 
 
+import android.annotation.TargetApi;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.ParcelUuid;
 import android.util.Log;
+import android.view.Choreographer;
+
+import com.adafruit.bluefruit.le.connect.core.AdvertisementReader;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
+// Scans using BluetoothLeScanner on Lollipop or newer (service filters are evaluated by the controller and results are delivered in batches when supported), or the legacy startLeScan on older versions
+// Results are queued (keeping only the latest result of each device) and delivered on the main thread in a batch per frame
 public class BleDevicesScanner {
     private static final String TAG = BleDevicesScanner.class.getSimpleName();
     private static final long kScanPeriod = 20 * 1000; // scan period in milliseconds
+    private static final long kReportDelayMillis = 500;       // Max time that the controller can hold results before delivering them in a batch (only if batching is supported)
+    private static final int kMaxPendingResults = 512;         // Max devices with results waiting to be delivered
+
+    // Optional callback for the end of each batch of results (so the UI can be updated once per batch instead of once per result)
+    public interface ScanBatchCallback extends BluetoothAdapter.LeScanCallback {
+        // Called on the main thread after delivering count results with onLeScan
+        void onScanBatchDelivered(int count);
+    }
 
     // Data
     private final BluetoothAdapter mBluetoothAdapter;
@@ -25,7 +44,10 @@ public class BleDevicesScanner {
     private Handler mHandler;
     private List<UUID> mServicesToDiscover;
     private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
-    private final LeScansPoster mLeScansPoster;
+    private final BluetoothAdapter.LeScanCallback mResultCallback;
+    private final ScanResultQueue mResultQueue = new ScanResultQueue(kMaxPendingResults);
+    private final AdvertisementReader mAdvertisementReader = new AdvertisementReader();     // Used to filter the legacy scan results (guarded by itself)
+    private LollipopScanner mLollipopScanner;           // Null if using the legacy scanner
 
     //
     private BluetoothAdapter.LeScanCallback mLeScanCallback =
@@ -33,21 +55,40 @@ public class BleDevicesScanner {
 
                 @Override
                 public void onLeScan(final BluetoothDevice device, final int rssi, final byte[] scanRecord) {
-                    synchronized (mLeScansPoster) {
-                        if (mServicesToDiscover == null || !Collections.disjoint(parseUuids(scanRecord), mServicesToDiscover)) {       // only process the devices with uuids in mServicesToDiscover
-                            mLeScansPoster.set(device, rssi, scanRecord);
-                            mMainThreadHandler.post(mLeScansPoster);
-                        }
+                    if (mServicesToDiscover == null || containsServiceToDiscover(scanRecord)) {       // only process the devices with uuids in mServicesToDiscover
+                        queueResult(device, rssi, scanRecord);
                     }
                 }
             };
 
+    // Drains the queue on the next frame
+    private final Choreographer.FrameCallback mDrainFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            final int count = mResultQueue.drain(mResultCallback);
+            if (mResultCallback instanceof ScanBatchCallback) {
+                ((ScanBatchCallback) mResultCallback).onScanBatchDelivered(count);
+            }
+        }
+    };
+
+    private final Runnable mScheduleDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mDrainFrameCallback);
+        }
+    };
+
     public BleDevicesScanner(BluetoothAdapter adapter, UUID[] servicesToDiscover, BluetoothAdapter.LeScanCallback callback) {
         mBluetoothAdapter = adapter;
         mServicesToDiscover = servicesToDiscover == null ? null : Arrays.asList(servicesToDiscover);
-        mLeScansPoster = new LeScansPoster(callback);
+        mResultCallback = callback;
 
         mHandler = new Handler();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            mLollipopScanner = new LollipopScanner();
+        }
     }
 
     public void start() {
@@ -67,16 +108,21 @@ public class BleDevicesScanner {
 
         mIsScanning = true;
         Log.d(TAG, "start scanning");
-        mBluetoothAdapter.startLeScan(mLeScanCallback);
-
+        if (mLollipopScanner == null || !mLollipopScanner.start()) {
+            mBluetoothAdapter.startLeScan(mLeScanCallback);
+        }
     }
 
     public void stop() {
         if (mIsScanning) {
             mHandler.removeCallbacksAndMessages(null);      // cancel pending calls to stop
             mIsScanning = false;
-            mBluetoothAdapter.stopLeScan(mLeScanCallback);
-            Log.d(TAG, "stop scanning");
+            if (mLollipopScanner != null && mLollipopScanner.isStarted()) {
+                mLollipopScanner.stop();
+            } else {
+                mBluetoothAdapter.stopLeScan(mLeScanCallback);
+            }
+            Log.d(TAG, "stop scanning. Results received: " + mResultQueue.getReceivedCount() + " delivered: " + mResultQueue.getDeliveredCount() + " coalesced: " + mResultQueue.getCoalescedCount() + " dropped: " + mResultQueue.getDroppedCount());
         }
     }
 
@@ -84,66 +130,130 @@ public class BleDevicesScanner {
         return mIsScanning;
     }
 
-    private static class LeScansPoster implements Runnable {
-        private final BluetoothAdapter.LeScanCallback leScanCallback;
+    // region Statistics
+    // Results received from the scanner (after filtering)
+    public long getReceivedCount() {
+        return mResultQueue.getReceivedCount();
+    }
 
-        private BluetoothDevice device;
-        private int rssi;
-        private byte[] scanRecord;
+    // Results replaced by a newer result of the same device before being delivered
+    public long getCoalescedCount() {
+        return mResultQueue.getCoalescedCount();
+    }
 
-        private LeScansPoster(BluetoothAdapter.LeScanCallback leScanCallback) {
-            this.leScanCallback = leScanCallback;
-        }
+    // Results discarded because too many devices were waiting to be delivered
+    public long getDroppedCount() {
+        return mResultQueue.getDroppedCount();
+    }
 
-        public void set(BluetoothDevice device, int rssi, byte[] scanRecord) {
-            this.device = device;
-            this.rssi = rssi;
-            this.scanRecord = scanRecord;
-        }
+    public long getDeliveredCount() {
+        return mResultQueue.getDeliveredCount();
+    }
+    // endregion
 
-        @Override
-        public void run() {
-            leScanCallback.onLeScan(device, rssi, scanRecord);
+    // Can be called from any thread
+    private void queueResult(BluetoothDevice device, int rssi, byte[] scanRecord) {
+        final boolean isDrainNeeded = mResultQueue.offer(device, rssi, scanRecord);
+        if (isDrainNeeded) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                mScheduleDrainRunnable.run();
+            } else {
+                mMainThreadHandler.post(mScheduleDrainRunnable);        // The Choreographer has to be used from the main thread
+            }
         }
     }
 
     // Filtering by custom UUID is broken in Android 4.3 and 4.4, see:
     //   http://stackoverflow.com/questions/18019161/startlescan-with-128-bit-uuids-doesnt-work-on-native-android-ble-implementation?noredirect=1#comment27879874_18019161
-    // This is a workaround function from the SO thread to manually parse advertisement data.
-    private List<UUID> parseUuids(byte[] advertisedData) {
-        List<UUID> uuids = new ArrayList<>();
-
-        ByteBuffer buffer = ByteBuffer.wrap(advertisedData).order(ByteOrder.LITTLE_ENDIAN);
-        while (buffer.remaining() > 2) {
-            byte length = buffer.get();
-            if (length == 0) break;
-
-            byte type = buffer.get();
-            switch (type) {
-                case 0x02: // Partial list of 16-bit UUIDs
-                case 0x03: // Complete list of 16-bit UUIDs
-                    while (length >= 2) {
-                        uuids.add(UUID.fromString(String.format("%08x-0000-1000-8000-00805f9b34fb", buffer.getShort())));
-                        length -= 2;
-                    }
-                    break;
-
-                case 0x06: // Partial list of 128-bit UUIDs
-                case 0x07: // Complete list of 128-bit UUIDs
-                    while (length >= 16) {
-                        long lsb = buffer.getLong();
-                        long msb = buffer.getLong();
-                        uuids.add(new UUID(msb, lsb));
-                        length -= 16;
-                    }
-                    break;
+    // This is a workaround function to manually parse advertisement data.
+    private boolean containsServiceToDiscover(byte[] advertisedData) {
+        synchronized (mAdvertisementReader) {
+            mAdvertisementReader.reset(advertisedData);
+            for (UUID uuid : mServicesToDiscover) {
+                if (mAdvertisementReader.containsServiceUuid(uuid)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // region BluetoothLeScanner
+    // Kept in its own class so the classes added in Lollipop are not loaded on older versions
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private class LollipopScanner {
+        private BluetoothLeScanner mScanner;
+        private boolean mIsBatchingEnabled;
+
+        private final ScanCallback mScanCallback = new ScanCallback() {
+            @Override
+            public void onScanResult(int callbackType, ScanResult result) {
+                onResult(result);
+            }
+
+            @Override
+            public void onBatchScanResults(List<ScanResult> results) {
+                for (ScanResult result : results) {
+                    onResult(result);
+                }
+            }
+
+            @Override
+            public void onScanFailed(int errorCode) {
+                Log.w(TAG, "BluetoothLeScanner failed with error: " + errorCode + ". Using legacy scanner");
+                mScanner = null;
+                if (mIsScanning) {
+                    mBluetoothAdapter.startLeScan(mLeScanCallback);
+                }
+            }
+        };
 
-                default:
-                    buffer.position(buffer.position() + length - 1);
-                    break;
+        // Returns false if BluetoothLeScanner is not available (the legacy scanner should be used)
+        boolean start() {
+            mScanner = mBluetoothAdapter.getBluetoothLeScanner();
+            if (mScanner == null) {
+                return false;
             }
+
+            // Filters (evaluated by the controller if isOffloadedFilteringSupported, or by the stack otherwise. In both cases non matching advertisements never reach the app)
+            List<ScanFilter> filters = null;
+            if (mServicesToDiscover != null) {
+                filters = new ArrayList<>(mServicesToDiscover.size());
+                for (UUID uuid : mServicesToDiscover) {
+                    filters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(uuid)).build());
+                }
+            }
+
+            // Settings
+            mIsBatchingEnabled = mBluetoothAdapter.isOffloadedScanBatchingSupported();
+            ScanSettings.Builder settingsBuilder = new ScanSettings.Builder().setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);
+            if (mIsBatchingEnabled) {
+                settingsBuilder.setReportDelay(kReportDelayMillis);
+            }
+
+            Log.d(TAG, "BluetoothLeScanner start. Hardware filtering: " + mBluetoothAdapter.isOffloadedFilteringSupported() + " batching: " + mIsBatchingEnabled);
+            mScanner.startScan(filters, settingsBuilder.build(), mScanCallback);
+            return true;
         }
 
-        return uuids;
+        boolean isStarted() {
+            return mScanner != null;
+        }
+
+        void stop() {
+            if (mIsBatchingEnabled) {
+                mScanner.flushPendingScanResults(mScanCallback);          // Deliver the results held by the controller
+            }
+            mScanner.stopScan(mScanCallback);
+            mScanner = null;
+        }
+
+        private void onResult(ScanResult result) {
+            final ScanRecord scanRecord = result.getScanRecord();
+            if (scanRecord != null) {
+                queueResult(result.getDevice(), result.getRssi(), scanRecord.getBytes());
+            }
+        }
     }
-}
\ No newline at end of file
+    // endregion
+}
@@ -0,0 +1,169 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.bluetooth.BluetoothGatt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Result of an asynchronous gatt operation. It is completed with the value of the operation or with the gatt status if it failed
+// Listeners are called from a background thread (the thread that completes the operation). They should return quickly and post any ui work to the main thread
+// Note: CompletableFuture is not available on the supported Android versions
+public class BleFuture<T> {
+    // Status used for failures that don't come from the gatt
+    public static final int STATUS_TIMEOUT = -1;            // The operation was skipped because its callback was not received in time
+    public static final int STATUS_CANCELLED = -2;          // The operation was discarded (for example, on disconnect)
+
+    public interface Listener<T> {
+        void onComplete(BleFuture<T> future);
+    }
+
+    public interface Transform<T, R> {
+        R apply(T value);
+    }
+
+    // Data
+    private final CountDownLatch mDoneLatch = new CountDownLatch(1);
+    private final List<Listener<T>> mListeners = new ArrayList<>(1);
+    private boolean mIsDone;           // Guarded by mListeners
+    private volatile T mValue;
+    private volatile int mStatus = BluetoothGatt.GATT_SUCCESS;
+
+    public BleFuture() {
+    }
+
+    public static <T> BleFuture<T> failed(int status) {
+        BleFuture<T> future = new BleFuture<>();
+        future.fail(status);
+        return future;
+    }
+
+    // region Completion
+    // Returns false if the future was already completed
+    public boolean complete(T value) {
+        return setDone(value, BluetoothGatt.GATT_SUCCESS);
+    }
+
+    public boolean fail(int status) {
+        return setDone(null, status);
+    }
+
+    private boolean setDone(T value, int status) {
+        final List<Listener<T>> listeners;
+        synchronized (mListeners) {
+            if (mIsDone) {
+                return false;
+            }
+            mIsDone = true;
+            mValue = value;
+            mStatus = status;
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+        }
+
+        mDoneLatch.countDown();
+        for (Listener<T> listener : listeners) {
+            listener.onComplete(this);
+        }
+        return true;
+    }
+    // endregion
+
+    // region Getters
+    public boolean isDone() {
+        return mDoneLatch.getCount() == 0;
+    }
+
+    public boolean isSuccess() {
+        return isDone() && mStatus == BluetoothGatt.GATT_SUCCESS;
+    }
+
+    // Gatt status of the operation (BluetoothGatt.GATT_SUCCESS, other gatt error, STATUS_TIMEOUT or STATUS_CANCELLED). Only valid when isDone() is true
+    public int getStatus() {
+        return mStatus;
+    }
+
+    // Value of the operation. Null if the operation failed or is not completed yet
+    public T getValue() {
+        return mValue;
+    }
+
+    // Waits for the operation to finish. Don't call it from the main thread or from a gatt callback
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!mDoneLatch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return mValue;
+    }
+    // endregion
+
+    // region Composition
+    // Adds a listener that is called when the operation finishes (or immediately, from the calling thread, if it has already finished)
+    public BleFuture<T> addListener(Listener<T> listener) {
+        synchronized (mListeners) {
+            if (!mIsDone) {
+                mListeners.add(listener);
+                return this;
+            }
+        }
+        listener.onComplete(this);
+        return this;
+    }
+
+    // Returns a future that is completed with the value transformed (or fails with the same status)
+    public <R> BleFuture<R> then(final Transform<T, R> transform) {
+        final BleFuture<R> result = new BleFuture<>();
+        addListener(new Listener<T>() {
+            @Override
+            public void onComplete(BleFuture<T> future) {
+                if (future.isSuccess()) {
+                    result.complete(transform.apply(future.getValue()));
+                } else {
+                    result.fail(future.getStatus());
+                }
+            }
+        });
+        return result;
+    }
+
+    // Returns a future that is completed when all the futures have finished. It succeeds if all of them succeeded, or fails with the status of the first failed future (in the order of the parameters)
+    public static BleFuture<Void> allOf(final BleFuture<?>... futures) {
+        final BleFuture<Void> result = new BleFuture<>();
+        if (futures.length == 0) {
+            result.complete(null);
+            return result;
+        }
+
+        final AtomicInteger pendingCount = new AtomicInteger(futures.length);
+        for (BleFuture<?> future : futures) {
+            future.addDoneCallback(new Runnable() {
+                @Override
+                public void run() {
+                    if (pendingCount.decrementAndGet() == 0) {
+                        for (BleFuture<?> future : futures) {
+                            if (!future.isSuccess()) {
+                                result.fail(future.getStatus());
+                                return;
+                            }
+                        }
+                        result.complete(null);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    private void addDoneCallback(final Runnable runnable) {
+        addListener(new Listener<T>() {
+            @Override
+            public void onComplete(BleFuture<T> future) {
+                runnable.run();
+            }
+        });
+    }
+    // endregion
+}
@@ -2,29 +2,43 @@
 
 package com.adafruit.bluefruit.le.connect.ble;
 
+import android.annotation.TargetApi;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
+import android.os.Build;
 import android.util.Log;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 // Encapsulate a list of actions to execute. Actions should be queued and executed sequentially to avoid problems
+// Actions are queued in three lanes: control (notifications, reads, mtu...), bulk (data transfers) and background (rssi sampling), so latency sensitive operations don't wait behind big transfers and background work never delays either of them
+// Actions can be queued from any thread: the queue is lock-free and it is drained by a single dispatch thread that is the only one that executes actions (on the GattTransport of the connection)
 class BleGattExecutor extends BluetoothGattCallback {
     // Log
     private final static String TAG = BleGattExecutor.class.getSimpleName();
 
     // Constants
-    private static String CHARACTERISTIC_CONFIG = "00002902-0000-1000-8000-00805f9b34fb";
+    private static final UUID CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    private static final int kMaxWriteWithoutResponseCredits = 8;         // Number of consecutive write-without-response packets allowed before an acknowledged write is used to resync with the peripheral
+    private static final long kDefaultActionTimeoutMillis = 5000;       // Max time to wait for the callback of an action before retrying it
+    private static final int kNoAttempt = 0;                            // Attempt generation used when no attempt is waiting for its callback
+    private static final int kDefaultActionMaxRetries = 1;
+    private static final long kDiscoverServicesTimeoutMillis = 30000;   // The discovery of a big attribute table can take several seconds
+    private static final int kDefaultMaxWritePayloadSize = 20;
+    private static final int kMaxConsecutiveControlActions = 4;         // After this number of consecutive control actions, a pending bulk action is dispatched to avoid starving bulk transfers
 
     interface ServiceAction {
         ServiceAction NULL = new ServiceAction() {
             @Override
-            public boolean execute(BluetoothGatt bluetoothGatt) {
+            public boolean execute(GattTransport transport) {
                 // it is null action. do nothing.
                 return true;
             }
@@ -33,149 +47,461 @@ class BleGattExecutor extends BluetoothGattCallback {
         /**
          * Executes action.
          *
-         * @param bluetoothGatt
+         * @param transport
          * @return true - if action was executed instantly. false if action is waiting for feedback.
          */
-        boolean execute(BluetoothGatt bluetoothGatt);
+        boolean execute(GattTransport transport);
     }
 
-    private final LinkedList<BleGattExecutor.ServiceAction> mQueue = new LinkedList<ServiceAction>();        // list of actions to execute
-    private volatile ServiceAction mCurrentAction;
+    // Action that needs several gatt callbacks to finish (for example a reliable write transaction). The watchdog deadline is restarted for each step
+    interface MultiStepAction extends ServiceAction {
+        int STEP_STARTED = Integer.MIN_VALUE;          // Can't be a gatt status (0-255) or a BleFuture status (small negative values)
 
-    protected void read(BluetoothGattService gattService, String characteristicUUID, String descriptorUUID) {
-        ServiceAction action = serviceReadAction(gattService, characteristicUUID, descriptorUUID);
-        mQueue.add(action);
+        /**
+         * Called with the result of the current step.
+         *
+         * @return STEP_STARTED if the next step has been started and the action is waiting for its callback, or the final status of the action
+         */
+        int onStepCompleted(GattTransport transport, int status);
+    }
+
+    // Action with its timeout configuration and the future to complete with its result (optional)
+    private static class QueuedAction {
+        final ServiceAction action;
+        final int priority;
+        final long timeoutMillis;
+        final long enqueueNanos;
+        final BleFuture<?> future;
+        int retriesLeft;
+
+        QueuedAction(ServiceAction action, int priority, long timeoutMillis, int maxRetries, long enqueueNanos, BleFuture<?> future) {
+            this.action = action;
+            this.priority = priority;
+            this.timeoutMillis = timeoutMillis;
+            this.retriesLeft = maxRetries;
+            this.enqueueNanos = enqueueNanos;
+            this.future = future;
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(int status, Object value) {
+            if (future != null) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    ((BleFuture<Object>) future).complete(value);
+                } else {
+                    future.fail(status);
+                }
+            }
+        }
+    }
+
+    // Lists of actions to execute, one for each priority (BleManager.PRIORITY_CONTROL, PRIORITY_BULK and PRIORITY_BACKGROUND). Multiple producers, consumed only by the dispatch thread
+    @SuppressWarnings("unchecked")
+    private final ConcurrentLinkedQueue<QueuedAction>[] mQueues = new ConcurrentLinkedQueue[]{new ConcurrentLinkedQueue<QueuedAction>(), new ConcurrentLinkedQueue<QueuedAction>(), new ConcurrentLinkedQueue<QueuedAction>()};
+    private final AtomicBoolean mIsCurrentActionCompleted = new AtomicBoolean(false);      // set by the gatt callbacks (binder threads) to signal the dispatch thread
+    private final AtomicBoolean mIsResetRequested = new AtomicBoolean(false);
+    private volatile boolean mIsQuitRequested = false;
+    private volatile GattTransport mTransport;
+    private volatile int mWriteWithoutResponseCredits = kMaxWriteWithoutResponseCredits;     // only decremented by the dispatch thread. Refilled by the callback of a successful acknowledged write and emptied by the callback of a failed write, while no other write is in flight
+    private final Thread mDispatchThread;
+    private volatile long mActionTimeoutMillis = kDefaultActionTimeoutMillis;
+    private volatile int mActionMaxRetries = kDefaultActionMaxRetries;
+    private volatile boolean mIsWriteRetryEnabled = false;
+    private volatile int mMaxWritePayloadSize = kDefaultMaxWritePayloadSize;
+    private final BleMetrics mMetrics = new BleMetrics();
+    private volatile int mInFlightAttempt = kNoAttempt;         // Generation of the attempt waiting for its callback. Only written by the dispatch thread. The gatt callbacks use it to tag their result
+    private volatile int mLastCallbackAttempt;
+    private final AtomicBoolean mIsLateCallbackReceived = new AtomicBoolean(false);     // A callback has been received while no attempt was in flight
+    private volatile long mLastCallbackNanos;
+    private volatile int mLastCallbackStatus;
+    private volatile byte[] mLastCallbackValue;         // Copy of the value received by the last read callback
+    private volatile boolean mIsReplayWritesEnabled = false;
+    private final AtomicBoolean mIsKeepWritesRequested = new AtomicBoolean(false);       // The current reset should keep the write in flight for replay
+    private final ArrayList<QueuedAction> mReplayActions = new ArrayList<>();            // Writes pending when the connection was lost (guarded by itself)
+
+    // Dispatch thread data (only accessed from the dispatch thread)
+    private QueuedAction mCurrentAction;
+    private int mConsecutiveControlActions;
+    private long mCurrentActionStartNanos;
+    private long mCurrentActionDeadlineNanos;
+    private int mAttemptGeneration = kNoAttempt;        // Incremented for each attempt (the first execution of an action or a retry)
+    private boolean mIsWaitingForLateCallback;          // An attempt has timed out: nothing is executed until its callback arrives (or mCurrentActionDeadlineNanos) so it is not taken as the result of the next attempt
+
+    BleGattExecutor() {
+        mDispatchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchLoop();
+            }
+        }, TAG);
+        mDispatchThread.setDaemon(true);
+        mDispatchThread.start();
+    }
+
+    // Timeout and number of retries used for the actions queued from now on
+    void setActionTimeout(long timeoutMillis, int maxRetries) {
+        mActionTimeoutMillis = timeoutMillis;
+        mActionMaxRetries = maxRetries;
+    }
+
+    // Writes are not retried by default: the peripheral could have received the attempt that timed out, and sending the data again is not safe for streams like the UART
+    void setWriteRetryEnabled(boolean enabled) {
+        mIsWriteRetryEnabled = enabled;
+    }
+
+    private int getMaxRetries(ServiceAction action) {
+        final boolean isWrite = action instanceof WriteAction || action instanceof ReliableWriteAction;
+        return isWrite && !mIsWriteRetryEnabled ? 0 : mActionMaxRetries;
+    }
+
+    // Max size of the packets created when coalescing writes
+    void setMaxWritePayloadSize(int size) {
+        mMaxWritePayloadSize = size;
+    }
+
+    BleMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    // If enabled, the writes that are pending when the connection is lost are kept (instead of cancelled) until replayWrites or cancelReplayWrites are called
+    void setReplayWritesEnabled(boolean enabled) {
+        mIsReplayWritesEnabled = enabled;
+    }
+
+    private void enqueue(ServiceAction action, int priority, BleFuture<?> future) {
+        enqueue(action, priority, mActionTimeoutMillis, getMaxRetries(action), future);
+    }
+
+    private void enqueue(ServiceAction action, int priority, long timeoutMillis, int maxRetries, BleFuture<?> future) {
+        mMetrics.onActionQueued(priority);
+        mQueues[priority].add(new QueuedAction(action, priority, timeoutMillis, maxRetries, System.nanoTime(), future));
     }
 
-    private BleGattExecutor.ServiceAction serviceReadAction(final BluetoothGattService gattService, final String characteristicUuidString, final String descriptorUuidString) {
+    // future (optional): completed with the value read or with the gatt status if the read fails
+    void read(BluetoothGattCharacteristic characteristic, int priority, BleFuture<byte[]> future) {
+        ServiceAction action = serviceReadAction(characteristic);
+        enqueue(action, priority, future);
+    }
+
+    private BleGattExecutor.ServiceAction serviceReadAction(final BluetoothGattCharacteristic characteristic) {
         return new BleGattExecutor.ServiceAction() {
             @Override
-            public boolean execute(BluetoothGatt bluetoothGatt) {
-                final UUID characteristicUuid = UUID.fromString(characteristicUuidString);
-                final BluetoothGattCharacteristic characteristic = gattService.getCharacteristic(characteristicUuid);
-                if (characteristic != null) {
-                    if (descriptorUuidString == null) {
-                        // Read Characteristic
-                        if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_READ) != 0) {
-                            bluetoothGatt.readCharacteristic(characteristic);
-                            return false;
-                        } else {
-                            Log.w(TAG, "read: characteristic not readable: " + characteristicUuidString);
-                            return true;
-                        }
-                    } else {
-                        // Read Descriptor
-                        final UUID descriptorUuid = UUID.fromString(descriptorUuidString);
-                        final BluetoothGattDescriptor descriptor = characteristic.getDescriptor(descriptorUuid);
-                        if (descriptor != null) {
-                            bluetoothGatt.readDescriptor(descriptor);
-                            return false;
-                        } else {
-                            Log.w(TAG, "read: descriptor not found: " + descriptorUuidString);
-                            return true;
-                        }
-                    }
+            public String toString() {
+                return "read: " + characteristic.getUuid();
+            }
+
+            @Override
+            public boolean execute(GattTransport transport) {
+                if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_READ) != 0) {
+                    return !transport.readCharacteristic(characteristic);
                 } else {
-                    Log.w(TAG, "read: characteristic not found: " + characteristicUuidString);
+                    Log.w(TAG, "read: characteristic not readable: " + characteristic.getUuid());
                     return true;
                 }
             }
         };
     }
 
-    void enableNotification(BluetoothGattService gattService, String characteristicUUID, boolean enable) {
-        ServiceAction action = serviceNotifyAction(gattService, characteristicUUID, enable);
-        mQueue.add(action);
+    void read(BluetoothGattDescriptor descriptor, int priority, BleFuture<byte[]> future) {
+        ServiceAction action = serviceReadAction(descriptor);
+        enqueue(action, priority, future);
     }
 
-    private BleGattExecutor.ServiceAction serviceNotifyAction(final BluetoothGattService gattService, final String characteristicUuidString, final boolean enable) {
+    private BleGattExecutor.ServiceAction serviceReadAction(final BluetoothGattDescriptor descriptor) {
         return new BleGattExecutor.ServiceAction() {
             @Override
-            public boolean execute(BluetoothGatt bluetoothGatt) {
-                if (characteristicUuidString != null) {
-                    final UUID characteristicUuid = UUID.fromString(characteristicUuidString);
-                    final BluetoothGattCharacteristic dataCharacteristic = gattService.getCharacteristic(characteristicUuid);
-
-                    if (dataCharacteristic == null) {
-                        Log.w(TAG, "Characteristic with UUID " + characteristicUuidString + " not found");
-                        return true;
-                    }
+            public String toString() {
+                return "read: descriptor: " + descriptor.getUuid();
+            }
+
+            @Override
+            public boolean execute(GattTransport transport) {
+                return !transport.readDescriptor(descriptor);
+            }
+        };
+    }
 
-                    final UUID clientCharacteristicConfiguration = UUID.fromString(CHARACTERISTIC_CONFIG);
-                    final BluetoothGattDescriptor config = dataCharacteristic.getDescriptor(clientCharacteristicConfiguration);
-                    if (config == null)
-                        return true;
+    void enableNotification(BluetoothGattCharacteristic characteristic, boolean enable, BleFuture<Void> future) {
+        ServiceAction action = serviceNotifyAction(characteristic, enable);
+        enqueue(action, BleManager.PRIORITY_CONTROL, future);
+    }
 
-                    // enableNotification/disable locally
-                    bluetoothGatt.setCharacteristicNotification(dataCharacteristic, enable);
-                    // enableNotification/disable remotely
-                    config.setValue(enable ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-                    bluetoothGatt.writeDescriptor(config);
+    private BleGattExecutor.ServiceAction serviceNotifyAction(final BluetoothGattCharacteristic dataCharacteristic, final boolean enable) {
+        return new BleGattExecutor.ServiceAction() {
+            @Override
+            public String toString() {
+                return "notify: " + dataCharacteristic.getUuid() + " enable: " + enable;
+            }
 
-                    return false;
-                } else {
-                    Log.w(TAG, "Characteristic UUID is null");
+            @Override
+            public boolean execute(GattTransport transport) {
+                final BluetoothGattDescriptor config = dataCharacteristic.getDescriptor(CHARACTERISTIC_CONFIG);
+                if (config == null)
                     return true;
-                }
+
+                // enableNotification/disable locally
+                transport.setCharacteristicNotification(dataCharacteristic, enable);
+                // enableNotification/disable remotely
+                config.setValue(enable ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+                return !transport.writeDescriptor(config);
             }
         };
     }
 
-    void enableIndication(BluetoothGattService gattService, String characteristicUUID, boolean enable) {
-        ServiceAction action = serviceIndicateAction(gattService, characteristicUUID, enable);
-        mQueue.add(action);
+    void enableIndication(BluetoothGattCharacteristic characteristic, boolean enable, BleFuture<Void> future) {
+        ServiceAction action = serviceIndicateAction(characteristic, enable);
+        enqueue(action, BleManager.PRIORITY_CONTROL, future);
     }
 
-    private BleGattExecutor.ServiceAction serviceIndicateAction(final BluetoothGattService gattService, final String characteristicUuidString, final boolean enable) {
+    private BleGattExecutor.ServiceAction serviceIndicateAction(final BluetoothGattCharacteristic dataCharacteristic, final boolean enable) {
         return new BleGattExecutor.ServiceAction() {
             @Override
-            public boolean execute(BluetoothGatt bluetoothGatt) {
-                if (characteristicUuidString != null) {
-                    final UUID characteristicUuid = UUID.fromString(characteristicUuidString);
-                    final BluetoothGattCharacteristic dataCharacteristic = gattService.getCharacteristic(characteristicUuid);
-
-                    if (dataCharacteristic == null) {
-                        Log.w(TAG, "Characteristic with UUID " + characteristicUuidString + " not found");
-                        return true;
-                    }
+            public String toString() {
+                return "indicate: " + dataCharacteristic.getUuid() + " enable: " + enable;
+            }
+
+            @Override
+            public boolean execute(GattTransport transport) {
+                final BluetoothGattDescriptor config = dataCharacteristic.getDescriptor(CHARACTERISTIC_CONFIG);
+                if (config == null)
+                    return true;
 
-                    final UUID clientCharacteristicConfiguration = UUID.fromString(CHARACTERISTIC_CONFIG);
-                    final BluetoothGattDescriptor config = dataCharacteristic.getDescriptor(clientCharacteristicConfiguration);
-                    if (config == null)
-                        return true;
+                // enableNotification/disable remotely
+                config.setValue(enable ? BluetoothGattDescriptor.ENABLE_INDICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+                return !transport.writeDescriptor(config);
+            }
+        };
+    }
 
-                    // enableNotification/disable remotely
-                    config.setValue(enable ? BluetoothGattDescriptor.ENABLE_INDICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-                    bluetoothGatt.writeDescriptor(config);
 
-                    return false;
-                } else {
-                    Log.w(TAG, "Characteristic UUID is null");
+    // canBeCoalesced: true if the value can be merged with other consecutive writes to the same characteristic (for stream oriented characteristics like the UART TX). Use false if message boundaries should be kept
+    // future (optional): completed when the write finishes. Writes with a future are never coalesced
+    void write(BluetoothGattCharacteristic characteristic, byte[] value, boolean withResponse, boolean canBeCoalesced, int priority, BleFuture<Void> future) {
+        ServiceAction action = new WriteAction(characteristic, value, withResponse, canBeCoalesced && future == null);
+        enqueue(action, priority, future);
+    }
+
+
+    // Writes without response are only confirmed locally by onCharacteristicWrite (when the stack has buffered the packet), so several of them can go out in the same connection interval.
+    // Credit based flow control: each write without response consumes a credit. When there are no credits left, the next write is sent with response and its acknowledgement refills the credits. This avoids overflowing the peripheral buffers
+    private class WriteAction implements ServiceAction {
+        final BluetoothGattCharacteristic characteristic;
+        final byte[] value;
+        final boolean withResponse;
+        final boolean canBeCoalesced;
+
+        WriteAction(BluetoothGattCharacteristic characteristic, byte[] value, boolean withResponse, boolean canBeCoalesced) {
+            this.characteristic = characteristic;
+            this.value = value;
+            this.withResponse = withResponse;
+            this.canBeCoalesced = canBeCoalesced;
+        }
+
+        boolean canBeCoalescedWith(WriteAction action) {
+            return canBeCoalesced && action.canBeCoalesced && characteristic == action.characteristic && withResponse == action.withResponse;
+        }
+
+        @Override
+        public String toString() {
+            return "write: " + characteristic.getUuid() + " (" + value.length + " bytes)";
+        }
+
+        @Override
+        public boolean execute(GattTransport transport) {
+            final boolean isWriteWithoutResponseSupported = (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0;
+            final boolean isWithoutResponse = !withResponse && isWriteWithoutResponseSupported && mWriteWithoutResponseCredits > 0;
+            characteristic.setWriteType(isWithoutResponse ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            characteristic.setValue(value);
+            if (!transport.writeCharacteristic(characteristic)) {
+                Log.w(TAG, "write: could not be started: " + characteristic.getUuid());
+                return true;
+            }
+
+            if (isWithoutResponse) {
+                mWriteWithoutResponseCredits--;
+            }
+            mMetrics.onBytesSent(value.length);
+            return false;
+        }
+    }
+
+    // Writes the values to the characteristics as a single transaction: they are applied by the peripheral only if all of them are received correctly
+    // - A single value that doesn't fit in a packet is sent with a long write (the stack splits it in prepared writes and commits them with an execute write)
+    // - Several values are sent with a reliable write. Each one must fit in a prepared write (mtu - 5 bytes)
+    // future (optional): completed when the transaction is committed, or failed with the gatt status if it has been discarded
+    void reliableWrite(BluetoothGattCharacteristic[] characteristics, byte[][] values, int priority, BleFuture<Void> future) {
+        ServiceAction action = characteristics.length == 1 ? new WriteAction(characteristics[0], values[0], true, false) : new ReliableWriteAction(characteristics, values);
+        enqueue(action, priority, future);
+    }
+
+    // Reliable write: beginReliableWrite, a prepared write for each value (verified by the stack against the value echoed by the peripheral) and executeReliableWrite to commit them. If a step fails the transaction is aborted and the peripheral discards the values
+    private class ReliableWriteAction implements MultiStepAction {
+        final BluetoothGattCharacteristic[] characteristics;
+        final byte[][] values;
+        int mCurrentWrite;                  // Index of the write in flight (values.length while the execute write is in flight)
+        int mAbortStatus = BluetoothGatt.GATT_SUCCESS;      // Status to report when the abort finishes
+        boolean mIsTransactionStarted;
+        boolean mIsRestarting;              // Aborting the transaction of an attempt that timed out. The new transaction is started when the abort finishes
+
+        ReliableWriteAction(BluetoothGattCharacteristic[] characteristics, byte[][] values) {
+            this.characteristics = characteristics;
+            this.values = values;
+        }
+
+        @Override
+        public String toString() {
+            return "reliableWrite: " + characteristics.length + " characteristics";
+        }
+
+        @Override
+        public boolean execute(GattTransport transport) {
+            if (mIsTransactionStarted) {
+                // Retry after a timeout: discard the previous attempt. The abort has its own onReliableWriteCompleted, so wait for it before starting the new transaction
+                mIsTransactionStarted = false;
+                mIsRestarting = true;
+                transport.abortReliableWrite();
+                return false;
+            }
+
+            mIsRestarting = false;
+            return begin(transport) != STEP_STARTED;
+        }
+
+        @Override
+        public int onStepCompleted(GattTransport transport, int status) {
+            if (mIsRestarting) {
+                mIsRestarting = false;
+                return begin(transport);        // Abort of the previous attempt finished
+            }
+
+            if (mAbortStatus != BluetoothGatt.GATT_SUCCESS) {
+                mIsTransactionStarted = false;
+                return mAbortStatus;            // Abort finished
+            }
+
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                if (mCurrentWrite >= values.length) {
+                    mIsTransactionStarted = false;
+                    return status;              // Execute write failed (the peripheral has discarded the values)
+                }
+                return abort(transport, status);
+            }
+
+            if (mCurrentWrite >= values.length) {
+                mIsTransactionStarted = false;
+                return BluetoothGatt.GATT_SUCCESS;      // Committed
+            }
+
+            mCurrentWrite++;
+            return writeNext(transport);
+        }
+
+        private int begin(GattTransport transport) {
+            mCurrentWrite = 0;
+            mAbortStatus = BluetoothGatt.GATT_SUCCESS;
+            mIsTransactionStarted = transport.beginReliableWrite();
+            if (!mIsTransactionStarted) {
+                Log.w(TAG, "reliableWrite: transaction could not be started");
+                return BluetoothGatt.GATT_FAILURE;
+            }
+            return writeNext(transport);
+        }
+
+        private int writeNext(GattTransport transport) {
+            if (mCurrentWrite >= values.length) {
+                return transport.executeReliableWrite() ? STEP_STARTED : abort(transport, BluetoothGatt.GATT_FAILURE);
+            }
+
+            final BluetoothGattCharacteristic characteristic = characteristics[mCurrentWrite];
+            final byte[] value = values[mCurrentWrite];
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            characteristic.setValue(value);
+            if (!transport.writeCharacteristic(characteristic)) {
+                return abort(transport, BluetoothGatt.GATT_FAILURE);
+            }
+            mMetrics.onBytesSent(value.length);
+            return STEP_STARTED;
+        }
+
+        // The abort is confirmed with onReliableWriteCompleted
+        private int abort(GattTransport transport, int status) {
+            Log.w(TAG, "reliableWrite: aborted with status " + status);
+            mAbortStatus = status;
+            transport.abortReliableWrite();
+            return STEP_STARTED;
+        }
+    }
+
+    // Discovery is queued like the other operations, so it is not started while an operation is in flight. The result is received on onServicesDiscovered
+    // refreshCache: discard the attribute table cached by the Android stack before the discovery (used when the peripheral indicates that it has changed)
+    // future (optional): failed with STATUS_TIMEOUT if the discovery doesn't finish (it is not retried)
+    void discoverServices(boolean refreshCache, BleFuture<Void> future) {
+        ServiceAction action = serviceDiscoverServicesAction(refreshCache);
+        enqueue(action, BleManager.PRIORITY_CONTROL, kDiscoverServicesTimeoutMillis, 0, future);
+    }
+
+    private BleGattExecutor.ServiceAction serviceDiscoverServicesAction(final boolean refreshCache) {
+        return new BleGattExecutor.ServiceAction() {
+            @Override
+            public String toString() {
+                return "discoverServices" + (refreshCache ? " (refresh cache)" : "");
+            }
+
+            @Override
+            public boolean execute(GattTransport transport) {
+                if (refreshCache && transport instanceof BluetoothGattTransport) {
+                    ((BluetoothGattTransport) transport).refresh();
+                }
+
+                if (!transport.discoverServices()) {
+                    Log.w(TAG, "discoverServices: could not be started");
                     return true;
                 }
+                return false;
             }
         };
     }
 
+    // The result is received on onReadRemoteRssi
+    void readRssi(int priority) {
+        ServiceAction action = serviceReadRssiAction();
+        enqueue(action, priority, null);
+    }
+
+    private BleGattExecutor.ServiceAction serviceReadRssiAction() {
+        return new BleGattExecutor.ServiceAction() {
+            @Override
+            public String toString() {
+                return "readRssi";
+            }
 
-    void write(BluetoothGattService gattService, String uuid, byte[] value) {
-        ServiceAction action = serviceWriteAction(gattService, uuid, value);
-        mQueue.add(action);
+            @Override
+            public boolean execute(GattTransport transport) {
+                return !transport.readRemoteRssi();
+            }
+        };
     }
 
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    void requestMtu(int mtu) {
+        ServiceAction action = serviceRequestMtuAction(mtu);
+        enqueue(action, BleManager.PRIORITY_CONTROL, null);
+    }
 
-    private BleGattExecutor.ServiceAction serviceWriteAction(final BluetoothGattService gattService, final String uuid, final byte[] value) {
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private BleGattExecutor.ServiceAction serviceRequestMtuAction(final int mtu) {
         return new BleGattExecutor.ServiceAction() {
             @Override
-            public boolean execute(BluetoothGatt bluetoothGatt) {
-                final UUID characteristicUuid = UUID.fromString(uuid);
-                final BluetoothGattCharacteristic characteristic = gattService.getCharacteristic(characteristicUuid);
-                if (characteristic != null) {
-                    characteristic.setValue(value);
-                    bluetoothGatt.writeCharacteristic(characteristic);
+            public String toString() {
+                return "requestMtu: " + mtu;
+            }
+
+            @Override
+            public boolean execute(GattTransport transport) {
+                if (transport.requestMtu(mtu)) {
                     return false;
                 } else {
-                    Log.w(TAG, "write: characteristic not found: " + uuid);
+                    Log.w(TAG, "requestMtu: request failed: " + mtu);
                     return true;
                 }
             }
@@ -183,51 +509,322 @@ class BleGattExecutor extends BluetoothGattCallback {
     }
 
     protected void clear() {
-        mCurrentAction = null;
-        mQueue.clear();
+        clear(false);
+    }
+
+    // keepWrites: the pending writes are moved to the replay list instead of cancelled
+    private void clear(boolean keepWrites) {
+        for (int i = 0; i < mQueues.length; i++) {
+            int count = 0;
+            QueuedAction action;
+            while ((action = mQueues[i].poll()) != null) {
+                if (keepWrites && action.action instanceof WriteAction) {
+                    synchronized (mReplayActions) {
+                        mReplayActions.add(action);
+                    }
+                } else {
+                    action.complete(BleFuture.STATUS_CANCELLED, null);
+                }
+                count++;
+            }
+            mMetrics.onQueueCleared(i, count);
+        }
+        mWriteWithoutResponseCredits = kMaxWriteWithoutResponseCredits;
+        mIsKeepWritesRequested.set(keepWrites);
+        mIsResetRequested.set(true);
+        LockSupport.unpark(mDispatchThread);
+    }
+
+    // Queues again the writes kept when the connection was lost (in their original order). Returns the number of writes queued
+    int replayWrites() {
+        int count;
+        synchronized (mReplayActions) {
+            count = mReplayActions.size();
+            for (QueuedAction action : mReplayActions) {
+                mMetrics.onActionQueued(action.priority);
+                mQueues[action.priority].add(new QueuedAction(action.action, action.priority, action.timeoutMillis, getMaxRetries(action.action), System.nanoTime(), action.future));
+            }
+            mReplayActions.clear();
+        }
+        LockSupport.unpark(mDispatchThread);
+        return count;
+    }
+
+    void cancelReplayWrites() {
+        synchronized (mReplayActions) {
+            for (QueuedAction action : mReplayActions) {
+                action.complete(BleFuture.STATUS_CANCELLED, null);
+            }
+            mReplayActions.clear();
+        }
+    }
+
+    // Stops the dispatch thread. The executor can not be used after calling this method
+    void quit() {
+        mIsQuitRequested = true;
+        clear();
     }
 
-    void execute(BluetoothGatt gatt) {
-        if (mCurrentAction == null) {
-            while (!mQueue.isEmpty()) {
-                final BleGattExecutor.ServiceAction action = mQueue.pop();
-                mCurrentAction = action;
-                if (!action.execute(gatt))
-                    break;
+    void execute(GattTransport transport) {
+        mTransport = transport;
+        LockSupport.unpark(mDispatchThread);
+    }
+
+    private void onCurrentActionCompleted(int status, byte[] value) {
+        final int attempt = mInFlightAttempt;
+        if (attempt == kNoAttempt) {
+            // Late callback of an attempt that has timed out
+            mIsLateCallbackReceived.set(true);
+            LockSupport.unpark(mDispatchThread);
+            return;
+        }
+
+        mLastCallbackAttempt = attempt;
+        mLastCallbackNanos = System.nanoTime();
+        mLastCallbackStatus = status;
+        mLastCallbackValue = value;
+        mIsCurrentActionCompleted.set(true);
+        LockSupport.unpark(mDispatchThread);
+    }
+
+    private void dispatchLoop() {
+        while (!mIsQuitRequested) {
+            final boolean isResetRequested = mIsResetRequested.getAndSet(false);
+            final boolean isCurrentActionCompleted = mIsCurrentActionCompleted.getAndSet(false);
+            final GattTransport transport = mTransport;
+            boolean isCurrentActionFinished = isResetRequested;
+            final boolean isCurrentAttemptCompleted = isCurrentActionCompleted && mInFlightAttempt != kNoAttempt && mLastCallbackAttempt == mInFlightAttempt;
+            final boolean isLateCallbackReceived = mIsLateCallbackReceived.getAndSet(false) || (isCurrentActionCompleted && !isCurrentAttemptCompleted);      // The second case: tagged just before its attempt timed out
+            if (mCurrentAction != null) {
+                if (isCurrentAttemptCompleted) {
+                    final int status = onCurrentStepCompleted(transport, isResetRequested);
+                    if (status == MultiStepAction.STEP_STARTED) {
+                        mCurrentActionDeadlineNanos = System.nanoTime() + mCurrentAction.timeoutMillis * 1000000;
+                    } else {
+                        mMetrics.onOperationCompleted(mLastCallbackNanos - mCurrentActionStartNanos);
+                        mCurrentAction.complete(status, mLastCallbackValue);
+                        isCurrentActionFinished = true;
+                    }
+                } else if (isResetRequested) {
+                    if (mIsKeepWritesRequested.getAndSet(false) && mCurrentAction.action instanceof WriteAction) {
+                        synchronized (mReplayActions) {
+                            mReplayActions.add(0, mCurrentAction);      // It was sent before the queued writes
+                        }
+                    } else {
+                        mCurrentAction.complete(BleFuture.STATUS_CANCELLED, null);
+                    }
+                }
+            }
+            if (isCurrentActionFinished) {
                 mCurrentAction = null;
+                mInFlightAttempt = kNoAttempt;
+            }
+            if (isResetRequested) {
+                mIsWaitingForLateCallback = false;      // The callbacks of the previous connection will not arrive
+            }
+
+            if (transport != null) {
+                if (mIsWaitingForLateCallback) {
+                    // Wait for the callback of the attempt that timed out before executing anything else. Then retry the action (if it has not been skipped)
+                    if (isLateCallbackReceived || System.nanoTime() - mCurrentActionDeadlineNanos >= 0) {
+                        mIsWaitingForLateCallback = false;
+                        if (mCurrentAction != null) {
+                            executeCurrentAction(transport);
+                        }
+                    }
+                } else if (mCurrentAction != null && System.nanoTime() - mCurrentActionDeadlineNanos >= 0) {
+                    // Watchdog: the callback for the current action has not arrived in time
+                    onCurrentActionTimeout();
+                }
+
+                QueuedAction action;
+                while (!mIsWaitingForLateCallback && mCurrentAction == null && (action = pollNextAction()) != null) {
+                    mCurrentAction = coalesceWrites(action);
+                    executeCurrentAction(transport);
+                }
+            }
+
+            // Wait for new actions, callbacks or the current action deadline. The conditions are checked again before parking because the unpark permit could have been consumed while executing an action (for example if the action acquired a lock)
+            if (!hasPendingWork()) {
+                if (mCurrentAction != null || mIsWaitingForLateCallback) {
+                    LockSupport.parkNanos(this, mCurrentActionDeadlineNanos - System.nanoTime());
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+    }
+
+    // Returns the final status of the current action, or STEP_STARTED if it is a MultiStepAction that has started its next step
+    private int onCurrentStepCompleted(GattTransport transport, boolean isResetRequested) {
+        if (!(mCurrentAction.action instanceof MultiStepAction)) {
+            return mLastCallbackStatus;
+        }
+        if (isResetRequested || transport == null) {
+            return BleFuture.STATUS_CANCELLED;
+        }
+        return ((MultiStepAction) mCurrentAction.action).onStepCompleted(transport, mLastCallbackStatus);
+    }
+
+    // Fair scheduling: control actions are dispatched before bulk actions, but a pending bulk action is dispatched after kMaxConsecutiveControlActions control actions. Background actions are only dispatched when the other lanes are empty
+    private QueuedAction pollNextAction() {
+        QueuedAction action;
+        if (mConsecutiveControlActions >= kMaxConsecutiveControlActions) {
+            action = poll(BleManager.PRIORITY_BULK);
+            if (action != null) {
+                mConsecutiveControlActions = 0;
+                return action;
             }
         }
+
+        action = poll(BleManager.PRIORITY_CONTROL);
+        if (action != null) {
+            mConsecutiveControlActions++;
+            return action;
+        }
+
+        mConsecutiveControlActions = 0;
+        action = poll(BleManager.PRIORITY_BULK);
+        return action != null ? action : poll(BleManager.PRIORITY_BACKGROUND);
+    }
+
+    private QueuedAction poll(int priority) {
+        final QueuedAction action = mQueues[priority].poll();
+        if (action != null) {
+            mMetrics.onActionDequeued(priority, System.nanoTime() - action.enqueueNanos);
+        }
+        return action;
+    }
+
+    // Merge the consecutive pending writes to the same characteristic into a single packet (up to mMaxWritePayloadSize bytes)
+    private QueuedAction coalesceWrites(QueuedAction queuedAction) {
+        if (!(queuedAction.action instanceof WriteAction)) {
+            return queuedAction;
+        }
+
+        final ConcurrentLinkedQueue<QueuedAction> queue = mQueues[queuedAction.priority];
+        final WriteAction firstWrite = (WriteAction) queuedAction.action;
+        final int maxSize = mMaxWritePayloadSize;
+        int size = firstWrite.value.length;
+        byte[] buffer = null;
+
+        QueuedAction next;
+        while ((next = queue.peek()) != null && next.action instanceof WriteAction) {
+            final WriteAction nextWrite = (WriteAction) next.action;
+            if (!firstWrite.canBeCoalescedWith(nextWrite) || size + nextWrite.value.length > maxSize) {
+                break;
+            }
+
+            // clear() can drain the queue from other thread after the peek, so only the peeked write is removed (a poll could remove a different action that would never be executed or completed)
+            if (!queue.remove(next)) {
+                break;              // Already cancelled by clear()
+            }
+            mMetrics.onActionDequeued(queuedAction.priority, System.nanoTime() - next.enqueueNanos);
+
+            if (buffer == null) {
+                buffer = new byte[maxSize];
+                System.arraycopy(firstWrite.value, 0, buffer, 0, size);
+            }
+            System.arraycopy(nextWrite.value, 0, buffer, size, nextWrite.value.length);
+            size += nextWrite.value.length;
+        }
+
+        if (buffer == null) {
+            return queuedAction;
+        } else {
+            final WriteAction mergedWrite = new WriteAction(firstWrite.characteristic, Arrays.copyOf(buffer, size), firstWrite.withResponse, true);
+            return new QueuedAction(mergedWrite, queuedAction.priority, queuedAction.timeoutMillis, queuedAction.retriesLeft, queuedAction.enqueueNanos, null);        // Writes with futures are not coalesced
+        }
+    }
+
+    private void executeCurrentAction(GattTransport transport) {
+        mIsCurrentActionCompleted.set(false);       // ignore callbacks not related with this action that have been received before executing it
+        mAttemptGeneration++;
+        if (mAttemptGeneration == kNoAttempt) {
+            mAttemptGeneration++;
+        }
+        mInFlightAttempt = mAttemptGeneration;      // Set before executing, so the callback is tagged with this attempt even if it arrives before execute returns
+        mCurrentActionStartNanos = System.nanoTime();
+        mCurrentActionDeadlineNanos = mCurrentActionStartNanos + mCurrentAction.timeoutMillis * 1000000;
+        if (mCurrentAction.action.execute(transport)) {
+            mCurrentAction.complete(BluetoothGatt.GATT_FAILURE, null);      // Actions only finish instantly when they could not be started
+            mCurrentAction = null;
+            mInFlightAttempt = kNoAttempt;
+        }
+    }
+
+    private void onCurrentActionTimeout() {
+        final QueuedAction timedOutAction = mCurrentAction;
+        final long elapsedMillis = (System.nanoTime() - mCurrentActionStartNanos) / 1000000;
+        final boolean willRetry = timedOutAction.retriesLeft > 0;
+        Log.w(TAG, "Action stalled for " + elapsedMillis + "ms: " + timedOutAction.action + (willRetry ? ". Retrying" : ". Skipping it"));
+        mMetrics.onOperationTimeout();
+        onActionTimeout(timedOutAction.action.toString(), elapsedMillis, willRetry);
+
+        // The callback of the attempt could still arrive: it is ignored, and nothing else is executed until it arrives or another timeout period has elapsed
+        mInFlightAttempt = kNoAttempt;
+        mIsWaitingForLateCallback = true;
+        mCurrentActionDeadlineNanos = System.nanoTime() + timedOutAction.timeoutMillis * 1000000;
+
+        if (willRetry) {
+            timedOutAction.retriesLeft--;           // Retried when the wait finishes
+        } else {
+            timedOutAction.complete(BleFuture.STATUS_TIMEOUT, null);
+            mCurrentAction = null;
+        }
+    }
+
+    // Called from the dispatch thread when the callback for an action has not been received before its deadline
+    protected void onActionTimeout(String actionDescription, long elapsedMillis, boolean willRetry) {
+    }
+
+    private boolean hasPendingWork() {
+        return mIsQuitRequested || mIsResetRequested.get() || mIsCurrentActionCompleted.get() || mIsLateCallbackReceived.get() || (!mIsWaitingForLateCallback && mCurrentAction == null && mTransport != null && (!mQueues[BleManager.PRIORITY_CONTROL].isEmpty() || !mQueues[BleManager.PRIORITY_BULK].isEmpty() || !mQueues[BleManager.PRIORITY_BACKGROUND].isEmpty()));
     }
 
     @Override
     public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
         super.onDescriptorRead(gatt, descriptor, status);
 
-        mCurrentAction = null;
-        execute(gatt);
+        mMetrics.onGattStatus(status);
+        onCurrentActionCompleted(status, copyOf(descriptor.getValue()));
     }
 
     @Override
     public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
         super.onDescriptorWrite(gatt, descriptor, status);
 
-        mCurrentAction = null;
-        execute(gatt);
+        mMetrics.onGattStatus(status);
+        onCurrentActionCompleted(status, null);
     }
 
     @Override
     public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         super.onCharacteristicWrite(gatt, characteristic, status);
 
-        mCurrentAction = null;
-        execute(gatt);
+        mMetrics.onGattStatus(status);
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            mWriteWithoutResponseCredits = 0;       // Back off: send the next writes with response until one of them is acknowledged
+        } else if (characteristic.getWriteType() == BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT) {
+            mWriteWithoutResponseCredits = kMaxWriteWithoutResponseCredits;       // Acknowledged write: the peripheral has caught up
+        }
+
+        onCurrentActionCompleted(status, null);
+    }
+
+    @Override
+    public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
+        super.onReliableWriteCompleted(gatt, status);
+
+        mMetrics.onGattStatus(status);
+        onCurrentActionCompleted(status, null);
     }
 
     @Override
     public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+        mMetrics.onGattStatus(status);
         if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-            mQueue.clear();
-            mCurrentAction = null;
+            clear(mIsReplayWritesEnabled);
         }
     }
 
@@ -235,12 +832,32 @@ class BleGattExecutor extends BluetoothGattCallback {
     public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         super.onCharacteristicRead(gatt, characteristic, status);
 
-        mCurrentAction = null;
-        execute(gatt);
+        mMetrics.onGattStatus(status);
+        onCurrentActionCompleted(status, copyOf(characteristic.getValue()));
+    }
+
+    @Override
+    public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+        mMetrics.onGattStatus(status);
+        onCurrentActionCompleted(status, null);
     }
 
     @Override
     public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+        mMetrics.onGattStatus(status);
+        onCurrentActionCompleted(status, null);
+    }
+
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        super.onMtuChanged(gatt, mtu, status);
+
+        mMetrics.onGattStatus(status);
+        onCurrentActionCompleted(status, null);
+    }
+
+    private static byte[] copyOf(byte[] value) {
+        return value != null ? Arrays.copyOf(value, value.length) : null;
     }
 
 
@@ -282,6 +899,24 @@ class BleGattExecutor extends BluetoothGattCallback {
                 super.onReadRemoteRssi(gatt, rssi, status);
                 listener.onReadRemoteRssi(gatt, rssi, status);
             }
+
+            @Override
+            public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+                listener.onMtuChanged(gatt, mtu, status);       // Notify the listener before the next queued action is executed, so it uses the new mtu
+                super.onMtuChanged(gatt, mtu, status);
+            }
+
+            // Overrides BluetoothGattCallback.onPhyUpdate on API 26+ (not available in the sdk used to compile the app)
+            public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+                getMetrics().onGattStatus(status);
+                listener.onPhyUpdate(gatt, txPhy, rxPhy, status);
+            }
+
+            @Override
+            protected void onActionTimeout(String actionDescription, long elapsedMillis, boolean willRetry) {
+                super.onActionTimeout(actionDescription, elapsedMillis, willRetry);
+                listener.onActionTimeout(actionDescription, elapsedMillis, willRetry);
+            }
         };
     }
 
@@ -299,5 +934,11 @@ class BleGattExecutor extends BluetoothGattCallback {
 
         void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status);
 
+        void onMtuChanged(BluetoothGatt gatt, int mtu, int status);
+
+        void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status);
+
+        void onActionTimeout(String actionDescription, long elapsedMillis, boolean willRetry);
+
     }
 }
@@ -5,27 +5,63 @@ package com.adafruit.bluefruit.le.connect.ble;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
-import java.lang.reflect.Method;
 import java.util.List;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class BleManager implements BleGattExecutor.BleExecutorListener {
     // Log
     private final static String TAG = BleManager.class.getSimpleName();
 
     // Enumerations
-    private static final int STATE_DISCONNECTED = 0;
-    private static final int STATE_CONNECTING = 1;
-    private static final int STATE_CONNECTED = 2;
+    public static final int STATE_DISCONNECTED = 0;
+    public static final int STATE_CONNECTING = 1;
+    public static final int STATE_CONNECTED = 2;
+
+    // Operation priorities
+    public static final int PRIORITY_CONTROL = 0;       // Latency sensitive operations (notifications, reads, commands...)
+    public static final int PRIORITY_BULK = 1;          // Data transfers
+    public static final int PRIORITY_BACKGROUND = 2;    // Periodic work that should never delay the other lanes (rssi sampling)
+
+    // Connection profiles (same values as the BluetoothGatt.CONNECTION_PRIORITY constants)
+    public static final int CONNECTION_PROFILE_BALANCED = 0;
+    public static final int CONNECTION_PROFILE_HIGH_THROUGHPUT = 1;     // Shortest connection interval (7.5-15ms)
+    public static final int CONNECTION_PROFILE_LOW_POWER = 2;
+
+    // Phys (same values as the BluetoothDevice.PHY_LE_* constants). Masks are used to set the preferred phys
+    public static final int PHY_LE_1M = 1;
+    public static final int PHY_LE_2M = 2;
+    public static final int PHY_LE_CODED = 3;
+    public static final int PHY_LE_1M_MASK = 1;
+    public static final int PHY_LE_2M_MASK = 2;
+    public static final int PHY_LE_CODED_MASK = 4;
+
+    // Constants
+    private static final int kDefaultMtu = 23;          // ATT default MTU
+    private static final int kPreferredMtu = 247;       // Fits in a single LL packet when data length extension is available
+    private static final int kAttWriteOverhead = 3;     // opcode + attribute handle
+    private static final int kPrepareWriteOverhead = 5; // opcode + attribute handle + offset
+    private static final int kMaxAttributeLength = 512; // Max length of an attribute value
+    private static final int kApiLevelOreo = 26;                    // First version with setPreferredPhy (Build.VERSION_CODES.O is not available in the sdk used to compile)
+    private static final long kHighThroughputIdleMillis = 2000;     // Time without bulk operations before going back to the idle connection profile
+    private static final UUID kServiceChangedCharacteristicUUID = UUID.fromString("00002A05-0000-1000-8000-00805F9B34FB");
 
     // Singleton
     private static BleManager mInstance = null;
@@ -33,14 +69,46 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
     // Data
     private final BleGattExecutor mExecutor = BleGattExecutor.createExecutor(this);
     private BluetoothAdapter mAdapter;
-    private BluetoothGatt mGatt;
+    private GattTransport mGatt;
 //    private Context mContext;
 
     private BluetoothDevice mDevice;
     private String mDeviceAddress;
     private int mConnectionState = STATE_DISCONNECTED;
+    private volatile int mMtu = kDefaultMtu;
+    private volatile GattHandleCache mHandleCache;          // Services and characteristics of the current connection. Built when the services are discovered
 
     private BleManagerListener mBleListener;
+    private final CopyOnWriteArrayList<BleManagerListener> mBleListeners = new CopyOnWriteArrayList<>();     // Additional listeners (for consumers that are not the foreground activity)
+    private BleOperationErrorListener mOperationErrorListener;
+    private final CharacteristicRouter mCharacteristicRouter = new CharacteristicRouter();
+
+    // Reconnection
+    private final Object mReconnectLock = new Object();
+    private final Handler mReconnectHandler = new Handler(Looper.getMainLooper());
+    private final Random mReconnectRandom = new Random();
+    private volatile BleReconnectPolicy mReconnectPolicy = new BleReconnectPolicy();
+    private volatile boolean mIsReconnectEnabled = false;           // Set on connect (from the preferences)
+    private volatile boolean mIsDisconnectRequested = false;        // The app has requested the disconnection, so it should not reconnect
+    private boolean mIsReconnecting = false;                        // Guarded by mReconnectLock
+    private boolean mIsReconnectScheduled = false;                  // Guarded by mReconnectLock
+    private int mReconnectAttempt;                                  // Guarded by mReconnectLock
+    private long mDisconnectionTimeNanos;                           // Guarded by mReconnectLock
+    private ReconnectListener mReconnectListener;
+    private final CopyOnWriteArraySet<Subscription> mSubscriptions = new CopyOnWriteArraySet<>();       // Notifications and indications enabled (restored after a reconnection)
+
+    // Connection profile
+    private final Handler mConnectionProfileHandler = new Handler(Looper.getMainLooper());
+    private volatile int mIdleConnectionProfile = CONNECTION_PROFILE_BALANCED;
+    private volatile boolean mIsAutomaticHighThroughputEnabled = true;
+    private final AtomicBoolean mIsHighThroughputActive = new AtomicBoolean(false);     // High throughput profile requested because of bulk operations
+    private volatile long mLastBulkOperationNanos;
+    private volatile boolean mIsPreferredPhyRequested = false;
+    private volatile int mTxPhy = PHY_LE_1M;
+    private volatile int mRxPhy = PHY_LE_1M;
+
+    // Rssi
+    private final RssiSampler mRssiSampler = new RssiSampler(this);
 
     public static BleManager getInstance(Context context) {
         if(mInstance == null)
@@ -60,10 +128,112 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
         return mDeviceAddress;
     }
 
+    public int getMtu() {
+        return mMtu;
+    }
+
+    // Max number of bytes that can be sent in a single write with the negotiated mtu
+    public int getMaxWritePayloadSize() {
+        return mMtu - kAttWriteOverhead;
+    }
+
+    // Max size of each value of a reliable write with several characteristics
+    public int getMaxReliableWritePayloadSize() {
+        return mMtu - kPrepareWriteOverhead;
+    }
+
     public void setBleListener(BleManagerListener listener) {
         mBleListener = listener;
     }
 
+    public void addBleListener(BleManagerListener listener) {
+        mBleListeners.addIfAbsent(listener);
+    }
+
+    public void removeBleListener(BleManagerListener listener) {
+        mBleListeners.remove(listener);
+    }
+
+    // Receive the values of a characteristic (notifications, indications and reads) without having to filter the onDataAvailable events. Several listeners can be subscribed to the same characteristic
+    public void subscribe(String serviceUUID, String characteristicUUID, CharacteristicListener listener) {
+        mCharacteristicRouter.subscribe(GattHandleCache.uuidFromString(serviceUUID), GattHandleCache.uuidFromString(characteristicUUID), listener);
+    }
+
+    public void unsubscribe(String serviceUUID, String characteristicUUID, CharacteristicListener listener) {
+        mCharacteristicRouter.unsubscribe(GattHandleCache.uuidFromString(serviceUUID), GattHandleCache.uuidFromString(characteristicUUID), listener);
+    }
+
+    public void unsubscribeAll(CharacteristicListener listener) {
+        mCharacteristicRouter.unsubscribeAll(listener);
+    }
+
+    public void setOperationErrorListener(BleOperationErrorListener listener) {
+        mOperationErrorListener = listener;
+    }
+
+    // Configuration of the automatic reconnection used by the next connections. Set to null to disable it
+    public void setReconnectPolicy(BleReconnectPolicy policy) {
+        mReconnectPolicy = policy;
+    }
+
+    public void setReconnectListener(ReconnectListener listener) {
+        mReconnectListener = listener;
+    }
+
+    // Connection profile used when there are no bulk operations (balanced by default). It is applied immediately if the connection is idle
+    public void setIdleConnectionProfile(int profile) {
+        mIdleConnectionProfile = profile;
+        if (!mIsHighThroughputActive.get()) {
+            applyConnectionProfile(profile);
+        }
+    }
+
+    // If enabled, the high throughput profile is requested while there are bulk operations (and during kHighThroughputIdleMillis after the last one)
+    public void setAutomaticHighThroughputEnabled(boolean enabled) {
+        mIsAutomaticHighThroughputEnabled = enabled;
+        if (!enabled) {
+            endHighThroughput();
+        }
+    }
+
+    // Requests the high throughput profile for a burst of operations that are not queued as PRIORITY_BULK (for example reading several characteristics)
+    public void requestHighThroughput() {
+        onBulkOperation();
+    }
+
+    // Android 8+ only. The phys are masks (PHY_LE_1M_MASK, PHY_LE_2M_MASK, PHY_LE_CODED_MASK). Returns false if not supported. The result is logged and available with getTxPhy/getRxPhy
+    public boolean setPreferredPhy(int txPhy, int rxPhy) {
+        final GattTransport transport = mGatt;
+        if (transport == null || Build.VERSION.SDK_INT < kApiLevelOreo) {
+            return false;
+        }
+        return transport.setPreferredPhy(txPhy, rxPhy, 0);
+    }
+
+    public int getTxPhy() {
+        return mTxPhy;
+    }
+
+    public int getRxPhy() {
+        return mRxPhy;
+    }
+
+    // Statistics of the gatt operations since the last connection
+    public BleMetrics getMetrics() {
+        return mExecutor.getMetrics();
+    }
+
+    // Max time to wait for the result of a gatt operation and number of times that it is retried before skipping it. Applies to the operations requested from now on
+    // Writes are not retried unless enabled with setWriteRetryEnabled
+    public void setOperationTimeout(long timeoutMillis, int maxRetries) {
+        mExecutor.setActionTimeout(timeoutMillis, maxRetries);
+    }
+
+    // Enable only if writing the same value twice is harmless (the peripheral could have received the write that timed out). Applies to the writes requested from now on
+    public void setWriteRetryEnabled(boolean enabled) {
+        mExecutor.setWriteRetryEnabled(enabled);
+    }
+
     public BleManager(Context context) {
         // Init Adapter
         //mContext = context.getApplicationContext();
@@ -83,14 +253,26 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
      * @return Return true if the connection is initiated successfully. The connection result is reported asynchronously through the {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)} callback.
      */
     public boolean connect(Context context, String address) {
-        if (mAdapter == null || address == null) {
-            Log.w(TAG, "connect: BluetoothAdapter not initialized or unspecified address.");
+        if (address == null) {
+            Log.w(TAG, "connect: unspecified address.");
             return false;
         }
 
+        mExecutor.getMetrics().reset();
+
         // Get preferences
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         final boolean reuseExistingConnection = sharedPreferences.getBoolean("pref_recycleconnection", false);
+        if (!reuseExistingConnection) {
+            final boolean forceCloseBeforeNewConnection = sharedPreferences.getBoolean("pref_forcecloseconnection", true);
+
+            if (forceCloseBeforeNewConnection) {
+                close();
+            }
+        }
+
+        // After close (that marks the connection as closed by the app), so the new connection is not discarded when it connects
+        setReconnectEnabled(sharedPreferences.getBoolean("pref_autoreconnect", false), sharedPreferences.getBoolean("pref_reconnectreplaywrites", false));
 
         if (reuseExistingConnection) {
             // Previously connected device.  Try to reconnect.
@@ -98,25 +280,12 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
                 Log.d(TAG, "Trying to use an existing BluetoothGatt for connection.");
                 if (mGatt.connect()) {
                     mConnectionState = STATE_CONNECTING;
-                    if (mBleListener != null)
-                        mBleListener.onConnecting();
+                    mListenersDispatcher.onConnecting();
                     return true;
                 } else {
                     return false;
                 }
             }
-        } else {
-            final boolean forceCloseBeforeNewConnection = sharedPreferences.getBoolean("pref_forcecloseconnection", true);
-
-            if (forceCloseBeforeNewConnection) {
-                close();
-            }
-        }
-
-        mDevice = mAdapter.getRemoteDevice(address);
-        if (mDevice == null) {
-            Log.w(TAG, "Device not found.  Unable to connect.");
-            return false;
         }
 
 
@@ -132,16 +301,47 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
         Log.d(TAG, "Trying to create a new connection.");
         mDeviceAddress = address;
         mConnectionState = STATE_CONNECTING;
-        if (mBleListener != null) {
-            mBleListener.onConnecting();
-        }
 
         final boolean gattAutoconnect = sharedPreferences.getBoolean("pref_gattautoconnect", false);
-        mGatt = mDevice.connectGatt(context, gattAutoconnect, mExecutor);
+        mGatt = connectGatt(context, address, gattAutoconnect, mExecutor);
+        if (mGatt == null) {
+            mConnectionState = STATE_DISCONNECTED;
+            mDeviceAddress = null;
+            return false;
+        }
+        mListenersDispatcher.onConnecting();
 
         return true;
     }
 
+    // Creates the connection with the device. Returns null if it could not be created. The tests override it to connect to a simulated peripheral
+    @VisibleForTesting
+    GattTransport connectGatt(Context context, String address, boolean autoConnect, BluetoothGattCallback callback) {
+        if (mAdapter == null) {
+            Log.w(TAG, "connect: BluetoothAdapter not initialized.");
+            return null;
+        }
+
+        mDevice = mAdapter.getRemoteDevice(address);
+        if (mDevice == null) {
+            Log.w(TAG, "Device not found.  Unable to connect.");
+            return null;
+        }
+
+        final BluetoothGatt gatt = mDevice.connectGatt(context, autoConnect, callback);
+        return gatt != null ? new BluetoothGattTransport(gatt) : null;
+    }
+
+    // replayWrites: replay the pending writes even if the policy doesn't do it
+    private void setReconnectEnabled(boolean enabled, boolean replayWrites) {
+        cancelReconnection();
+        mSubscriptions.clear();
+        final BleReconnectPolicy policy = mReconnectPolicy;
+        mIsReconnectEnabled = enabled && policy != null;
+        mIsDisconnectRequested = false;
+        mExecutor.setReplayWritesEnabled(mIsReconnectEnabled && (policy.replayWrites || replayWrites));
+    }
+
     public void clearExecutor() {
         if (mExecutor != null) {
             mExecutor.clear();
@@ -154,21 +354,12 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
     * http://stackoverflow.com/questions/22596951/how-to-programmatically-force-bluetooth-low-energy-service-discovery-on-android
     */
     public boolean refreshDeviceCache(){
-        try {
-            BluetoothGatt localBluetoothGatt = mGatt;
-            Method localMethod = localBluetoothGatt.getClass().getMethod("refresh");
-            if (localMethod != null) {
-                boolean result = (Boolean) localMethod.invoke(localBluetoothGatt);
-                if (result) {
-                    Log.d(TAG, "Bluetooth refresh cache");
-                }
-                return result;
-            }
-        }
-        catch (Exception localException) {
-            Log.e(TAG, "An exception occurred while refreshing device");
+        final GattTransport transport = mGatt;
+        final boolean result = transport instanceof BluetoothGattTransport && ((BluetoothGattTransport) transport).refresh();
+        if (result) {
+            Log.d(TAG, "Bluetooth refresh cache");
         }
-        return false;
+        return result;
     }
 
     /**
@@ -177,6 +368,8 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
      */
     public void disconnect() {
         mDevice = null;
+        mIsDisconnectRequested = true;
+        final boolean wasReconnecting = cancelReconnection();
 
         if (mAdapter == null || mGatt == null) {
             Log.w(TAG, "disconnect: BluetoothAdapter not initialized");
@@ -193,15 +386,35 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
 
         // Disconnect
         mGatt.disconnect();
+
+        // The link was already down, so there will be no disconnection callback
+        if (wasReconnecting) {
+            mConnectionState = STATE_DISCONNECTED;
+            mListenersDispatcher.onDisconnected();
+        }
+    }
+
+    /**
+     * Closes the connection and stops the executor. The BleManager can not be used after calling this method
+     */
+    void release() {
+        mBleListeners.clear();
+        close();
+        mExecutor.quit();
     }
 
     /**
      * After using a given BLE device, the app must call this method to ensure resources are  released properly.
      */
     private void close() {
+        mIsDisconnectRequested = true;
+        cancelReconnection();
+        mSubscriptions.clear();
+        resetConnectionProfile();
         if (mGatt != null) {
             mGatt.close();
             mGatt = null;
+            mHandleCache = null;
             mDeviceAddress = null;
             mDevice = null;
         }
@@ -209,57 +422,142 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
 
 
     public boolean readRssi() {
+        return readRssi(PRIORITY_CONTROL);  // if true: Caller should wait for onReadRssi callback
+    }
+
+    // priority: PRIORITY_CONTROL or PRIORITY_BACKGROUND (used by the rssi sampler)
+    boolean readRssi(int priority) {
         if (mGatt != null) {
-            return mGatt.readRemoteRssi();  // if true: Caller should wait for onReadRssi callback
+            mExecutor.readRssi(priority);
+            mExecutor.execute(mGatt);
+            return true;
         }
         else {
             return false;           // Rsii read is not available
         }
     }
 
+    public RssiSampler getRssiSampler() {
+        return mRssiSampler;
+    }
+
     public void readCharacteristic(BluetoothGattService service, String characteristicUUID) {
-        readService(service, characteristicUUID, null);
+        readService(service, characteristicUUID, null, PRIORITY_CONTROL, null);
+    }
+
+    // priority: PRIORITY_CONTROL or PRIORITY_BULK
+    public void readCharacteristic(BluetoothGattService service, String characteristicUUID, int priority) {
+        readService(service, characteristicUUID, null, priority, null);
     }
 
     public void readDescriptor(BluetoothGattService service, String characteristicUUID, String descriptorUUID) {
-        readService(service, characteristicUUID, descriptorUUID);
+        readService(service, characteristicUUID, descriptorUUID, PRIORITY_CONTROL, null);
     }
 
-    private void readService(BluetoothGattService service, String characteristicUUID, String descriptorUUID) {
+    private void readService(BluetoothGattService service, String characteristicUUID, String descriptorUUID, int priority, BleFuture<byte[]> future) {
         if (service != null) {
             if (mAdapter == null || mGatt == null) {
                 Log.w(TAG, "readService: BluetoothAdapter not initialized");
+                failFuture(future);
                 return;
             }
 
-            mExecutor.read(service, characteristicUUID, descriptorUUID);
+            final BluetoothGattCharacteristic characteristic = getCharacteristic(service, characteristicUUID);
+            if (characteristic == null) {
+                Log.w(TAG, "read: characteristic not found: " + characteristicUUID);
+                failFuture(future);
+                return;
+            }
+
+            if (descriptorUUID == null) {
+                mExecutor.read(characteristic, priority, future);
+            } else {
+                final BluetoothGattDescriptor descriptor = characteristic.getDescriptor(GattHandleCache.uuidFromString(descriptorUUID));
+                if (descriptor == null) {
+                    Log.w(TAG, "read: descriptor not found: " + descriptorUUID);
+                    failFuture(future);
+                    return;
+                }
+                mExecutor.read(descriptor, priority, future);
+            }
             mExecutor.execute(mGatt);
+            if (priority == PRIORITY_BULK) {
+                onBulkOperation();
+            }
+        } else {
+            failFuture(future);
         }
     }
 
     public void writeService(BluetoothGattService service, String uuid, byte[] value)
+    {
+        writeService(service, uuid, value, true, false, PRIORITY_CONTROL);
+    }
+
+    // priority: PRIORITY_CONTROL or PRIORITY_BULK
+    public void writeService(BluetoothGattService service, String uuid, byte[] value, int priority)
+    {
+        writeService(service, uuid, value, true, false, priority);
+    }
+
+    // withResponse: false to use write without response (with flow control) if the characteristic supports it. Used for bulk transfers
+    // canBeCoalesced: true to allow merging the value with other pending writes to the same characteristic into bigger packets. Only for characteristics that behave as a stream (like the UART TX)
+    public void writeService(BluetoothGattService service, String uuid, byte[] value, boolean withResponse, boolean canBeCoalesced, int priority)
+    {
+        writeService(service, uuid, value, withResponse, canBeCoalesced, priority, null);
+    }
+
+    private void writeService(BluetoothGattService service, String uuid, byte[] value, boolean withResponse, boolean canBeCoalesced, int priority, BleFuture<Void> future)
     {
         if (service != null) {
             if (mAdapter == null || mGatt == null) {
                 Log.w(TAG, "writeService: BluetoothAdapter not initialized");
+                failFuture(future);
                 return;
             }
 
-            mExecutor.write(service, uuid, value);
+            final BluetoothGattCharacteristic characteristic = getCharacteristic(service, uuid);
+            if (characteristic == null) {
+                Log.w(TAG, "write: characteristic not found: " + uuid);
+                failFuture(future);
+                return;
+            }
+
+            mExecutor.write(characteristic, value, withResponse, canBeCoalesced, priority, future);
             mExecutor.execute(mGatt);
+            if (priority == PRIORITY_BULK) {
+                onBulkOperation();
+            }
+        } else {
+            failFuture(future);
         }
     }
 
     public void enableNotification(BluetoothGattService service, String uuid, boolean enabled) {
+        enableNotification(service, uuid, enabled, null);
+    }
+
+    private void enableNotification(BluetoothGattService service, String uuid, boolean enabled, BleFuture<Void> future) {
         if (service != null) {
 
             if (mAdapter == null || mGatt == null) {
                 Log.w(TAG, "enableNotification: BluetoothAdapter not initialized");
+                failFuture(future);
                 return;
             }
 
-            mExecutor.enableNotification(service, uuid, enabled);
+            final BluetoothGattCharacteristic characteristic = getCharacteristic(service, uuid);
+            if (characteristic == null) {
+                Log.w(TAG, "Characteristic with UUID " + uuid + " not found");
+                failFuture(future);
+                return;
+            }
+
+            mExecutor.enableNotification(characteristic, enabled, future);
             mExecutor.execute(mGatt);
+            updateSubscription(service, characteristic, enabled, false);
+        } else {
+            failFuture(future);
         }
     }
 
@@ -271,16 +569,113 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
                 return;
             }
 
-            mExecutor.enableIndication(service, uuid, enabled);
+            final BluetoothGattCharacteristic characteristic = getCharacteristic(service, uuid);
+            if (characteristic == null) {
+                Log.w(TAG, "Characteristic with UUID " + uuid + " not found");
+                return;
+            }
+
+            mExecutor.enableIndication(characteristic, enabled, null);
             mExecutor.execute(mGatt);
+            updateSubscription(service, characteristic, enabled, true);
+        }
+    }
+
+    // region Async operations
+    // Same operations as above, but they return a future that is completed with the result of the operation (or fails with the gatt status). Several futures can be awaited together with BleFuture.allOf
+    // Note: values longer than a packet are read completely (the stack continues the read with read blob requests)
+    public BleFuture<byte[]> readCharacteristicAsync(BluetoothGattService service, String characteristicUUID) {
+        BleFuture<byte[]> future = new BleFuture<>();
+        readService(service, characteristicUUID, null, PRIORITY_CONTROL, future);
+        return future;
+    }
+
+    public BleFuture<byte[]> readDescriptorAsync(BluetoothGattService service, String characteristicUUID, String descriptorUUID) {
+        BleFuture<byte[]> future = new BleFuture<>();
+        readService(service, characteristicUUID, descriptorUUID, PRIORITY_CONTROL, future);
+        return future;
+    }
+
+    // Writes with a future are never coalesced with other writes
+    public BleFuture<Void> writeServiceAsync(BluetoothGattService service, String uuid, byte[] value, boolean withResponse, int priority) {
+        BleFuture<Void> future = new BleFuture<>();
+        writeService(service, uuid, value, withResponse, false, priority, future);
+        return future;
+    }
+
+    // Writes a value of up to 512 bytes (a configuration blob, for example) in a single transaction. If it doesn't fit in a packet, it is sent with prepared writes that the peripheral applies when all of them have been received
+    public BleFuture<Void> writeLongAsync(BluetoothGattService service, String uuid, byte[] value, int priority) {
+        return reliableWriteAsync(service, new String[]{uuid}, new byte[][]{value}, priority);
+    }
+
+    // Writes several characteristics of the service atomically: the peripheral applies all the values or none of them. Each value must fit in a prepared write (getMaxReliableWritePayloadSize) unless there is only one
+    public BleFuture<Void> reliableWriteAsync(BluetoothGattService service, String[] uuids, byte[][] values, int priority) {
+        BleFuture<Void> future = new BleFuture<>();
+        if (service == null || uuids.length == 0 || uuids.length != values.length) {
+            failFuture(future);
+            return future;
+        }
+
+        if (mAdapter == null || mGatt == null) {
+            Log.w(TAG, "reliableWrite: BluetoothAdapter not initialized");
+            failFuture(future);
+            return future;
+        }
+
+        final int maxValueLength = uuids.length == 1 ? kMaxAttributeLength : getMaxReliableWritePayloadSize();
+        BluetoothGattCharacteristic[] characteristics = new BluetoothGattCharacteristic[uuids.length];
+        for (int i = 0; i < uuids.length; i++) {
+            characteristics[i] = getCharacteristic(service, uuids[i]);
+            if (characteristics[i] == null) {
+                Log.w(TAG, "reliableWrite: characteristic not found: " + uuids[i]);
+                failFuture(future);
+                return future;
+            }
+            if (values[i].length > maxValueLength) {
+                Log.w(TAG, "reliableWrite: value too long for " + uuids[i] + ": " + values[i].length + " bytes (max: " + maxValueLength + ")");
+                future.fail(BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH);
+                return future;
+            }
         }
+
+        mExecutor.reliableWrite(characteristics, values, priority, future);
+        mExecutor.execute(mGatt);
+        if (priority == PRIORITY_BULK) {
+            onBulkOperation();
+        }
+        return future;
+    }
+
+    public BleFuture<Void> enableNotificationAsync(BluetoothGattService service, String uuid, boolean enabled) {
+        BleFuture<Void> future = new BleFuture<>();
+        enableNotification(service, uuid, enabled, future);
+        return future;
     }
 
+    private static void failFuture(BleFuture<?> future) {
+        if (future != null) {
+            future.fail(BluetoothGatt.GATT_FAILURE);
+        }
+    }
+    // endregion
+
+
+    private BluetoothGattCharacteristic getCharacteristic(BluetoothGattService service, String characteristicUUIDString) {
+        if (characteristicUUIDString == null) {
+            return null;
+        }
+
+        final GattHandleCache handleCache = mHandleCache;
+        if (handleCache != null) {
+            return handleCache.getCharacteristic(service, characteristicUUIDString);
+        } else {
+            return service.getCharacteristic(GattHandleCache.uuidFromString(characteristicUUIDString));
+        }
+    }
 
     // Properties
     private int getCharacteristicProperties(BluetoothGattService service, String characteristicUUIDString) {
-        final UUID characteristicUuid = UUID.fromString(characteristicUUIDString);
-        BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUuid);
+        BluetoothGattCharacteristic characteristic = getCharacteristic(service, characteristicUUIDString);
         int properties = 0;
         if (characteristic != null) {
             properties = characteristic.getProperties();
@@ -303,13 +698,11 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
 
     // Permissions
     private int getDescriptorPermissions(BluetoothGattService service, String characteristicUUIDString, String descriptorUUIDString) {
-        final UUID characteristicUuid = UUID.fromString(characteristicUUIDString);
-        BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUuid);
+        BluetoothGattCharacteristic characteristic = getCharacteristic(service, characteristicUUIDString);
 
         int permissions = 0;
         if (characteristic != null) {
-            final UUID descriptorUuid = UUID.fromString(descriptorUUIDString);
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(descriptorUuid);
+            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(GattHandleCache.uuidFromString(descriptorUUIDString));
             if (descriptor != null) {
                 permissions = descriptor.getPermissions();
             }
@@ -341,8 +734,12 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
 
     public BluetoothGattService getGattService(String uuid) {
         if (mGatt != null) {
-            final UUID serviceUuid = UUID.fromString(uuid);
-            return mGatt.getService(serviceUuid);
+            final GattHandleCache handleCache = mHandleCache;
+            if (handleCache != null) {
+                return handleCache.getService(uuid);
+            } else {
+                return mGatt.getService(GattHandleCache.uuidFromString(uuid));
+            }
         } else {
             return null;
         }
@@ -350,26 +747,19 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
 
     public BluetoothGattService getGattService(String uuid, int instanceId) {
         if (mGatt != null) {
-            List<BluetoothGattService> services = getSupportedGattServices();
-            boolean found = false;
-            int i=0;
-            while (i<services.size() && !found) {
-                BluetoothGattService service = services.get(i);
-                if (service.getUuid().toString().equalsIgnoreCase(uuid) && service.getInstanceId() == instanceId)
-                {
-                    found = true;
-                }
-                else {
-                    i++;
-                }
+            final GattHandleCache handleCache = mHandleCache;
+            if (handleCache != null) {
+                return handleCache.getService(uuid, instanceId);
             }
 
-            if (found) {
-                return services.get(i);
-            }
-            else {
-                return null;
+            List<BluetoothGattService> services = getSupportedGattServices();
+            final UUID serviceUuid = GattHandleCache.uuidFromString(uuid);
+            for (BluetoothGattService service : services) {
+                if (service.getUuid().equals(serviceUuid) && service.getInstanceId() == instanceId) {
+                    return service;
+                }
             }
+            return null;
         } else {
             return null;
         }
@@ -381,37 +771,354 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
         // Log.d(TAG, "onConnectionStateChange status: "+status+ " newState: "+newState);
 
         if (newState == BluetoothProfile.STATE_CONNECTED) {
+            if (mIsDisconnectRequested) {
+                // A connection attempt that was in progress when the app called disconnect (or close). Don't revive the session
+                Log.w(TAG, "Connected after a disconnection request. Disconnect");
+                final GattTransport transport = mGatt;
+                if (transport != null) {
+                    transport.disconnect();
+                }
+                return;
+            }
+
             mConnectionState = STATE_CONNECTED;
+            mListenersDispatcher.onConnected();
 
-            if (mBleListener != null) {
-                mBleListener.onConnected();
+            // Attempts to discover services after successful connection
+            final GattTransport transport = mGatt;
+            if (transport != null) {
+                discoverServices(transport, false);
             }
 
-            // Attempts to discover services after successful connection.
-            gatt.discoverServices();
-
         } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+            final boolean wasDisconnected = mConnectionState == STATE_DISCONNECTED;        // onDisconnected already sent (cancelled or failed reconnection)
             mConnectionState = STATE_DISCONNECTED;
-
-            if (mBleListener != null) {
-                mBleListener.onDisconnected();
+            mHandleCache = null;
+            mMtu = kDefaultMtu;
+            mExecutor.setMaxWritePayloadSize(getMaxWritePayloadSize());
+            resetConnectionProfile();
+            mRssiSampler.reset();
+
+            // Unexpected disconnection: keep the listeners in the connecting state while reconnecting
+            if (!wasDisconnected && mIsReconnectEnabled && !mIsDisconnectRequested && mGatt != null) {
+                onConnectionLost(status);
+            } else {
+                cancelReconnection();
+                mExecutor.cancelReplayWrites();
+                mSubscriptions.clear();
+                if (!wasDisconnected) {
+                    mListenersDispatcher.onDisconnected();
+                }
             }
         } else if (newState == BluetoothProfile.STATE_CONNECTING) {
             mConnectionState = STATE_CONNECTING;
 
-            if (mBleListener != null) {
-                mBleListener.onConnecting();
+            mListenersDispatcher.onConnecting();
+        }
+    }
+
+    // region Connection profile
+    private void onBulkOperation() {
+        mLastBulkOperationNanos = System.nanoTime();
+        if (mIsAutomaticHighThroughputEnabled && mIsHighThroughputActive.compareAndSet(false, true)) {
+            applyConnectionProfile(CONNECTION_PROFILE_HIGH_THROUGHPUT);
+
+            // The 2M phy doubles the data rate (and reduces the radio on time) when both sides support it
+            if (!mIsPreferredPhyRequested && Build.VERSION.SDK_INT >= kApiLevelOreo) {
+                mIsPreferredPhyRequested = setPreferredPhy(PHY_LE_2M_MASK, PHY_LE_2M_MASK);
             }
+            mConnectionProfileHandler.postDelayed(mHighThroughputIdleRunnable, kHighThroughputIdleMillis);
         }
     }
 
+    private final Runnable mHighThroughputIdleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mIsHighThroughputActive.get()) {
+                return;
+            }
+
+            // Wait until the bulk queue is empty and there have been no bulk operations for a while
+            final long idleMillis = (System.nanoTime() - mLastBulkOperationNanos) / 1000000;
+            if (mExecutor.getMetrics().getQueueDepth(PRIORITY_BULK) > 0 || idleMillis < kHighThroughputIdleMillis) {
+                mConnectionProfileHandler.postDelayed(this, Math.max(kHighThroughputIdleMillis - idleMillis, 100));
+            } else {
+                endHighThroughput();
+            }
+        }
+    };
+
+    private void endHighThroughput() {
+        mConnectionProfileHandler.removeCallbacks(mHighThroughputIdleRunnable);
+        if (mIsHighThroughputActive.compareAndSet(true, false)) {
+            applyConnectionProfile(mIdleConnectionProfile);
+        }
+    }
+
+    private void resetConnectionProfile() {
+        mConnectionProfileHandler.removeCallbacks(mHighThroughputIdleRunnable);
+        mIsHighThroughputActive.set(false);
+        mIsPreferredPhyRequested = false;
+        mTxPhy = PHY_LE_1M;
+        mRxPhy = PHY_LE_1M;
+    }
+
+    private void applyConnectionProfile(int profile) {
+        final GattTransport transport = mGatt;
+        if (transport == null || mConnectionState != STATE_CONNECTED || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+
+        final boolean isRequested = transport.requestConnectionPriority(profile);
+        Log.d(TAG, "Connection profile " + profile + (isRequested ? " requested" : " could not be requested"));
+    }
+    // endregion
+
+    // region Reconnection
+    private boolean isReconnecting() {
+        synchronized (mReconnectLock) {
+            return mIsReconnecting;
+        }
+    }
+
+    private void onConnectionLost(int status) {
+        synchronized (mReconnectLock) {
+            mReconnectHandler.removeCallbacks(mReconnectTimeoutRunnable);
+            if (!mIsReconnecting) {
+                Log.w(TAG, "Connection lost with status " + status + ". Reconnecting");
+                mIsReconnecting = true;
+                mReconnectAttempt = 0;
+                mDisconnectionTimeNanos = System.nanoTime();
+            }
+
+            if (!mIsReconnectScheduled) {           // The attempt timeout may have already scheduled the next one
+                scheduleReconnectAttempt();
+            }
+        }
+    }
+
+    // Must be called with mReconnectLock held
+    private void scheduleReconnectAttempt() {
+        final BleReconnectPolicy policy = mReconnectPolicy;
+        final int attempt = mReconnectAttempt + 1;
+        if (policy == null || (policy.maxAttempts > 0 && attempt > policy.maxAttempts)) {
+            onReconnectFailed();
+            return;
+        }
+
+        final long delayMillis = policy.getDelayMillis(attempt, mReconnectRandom);
+        final long downtimeMillis = (System.nanoTime() - mDisconnectionTimeNanos) / 1000000;
+        if (policy.maxDowntimeMillis > 0 && downtimeMillis + delayMillis > policy.maxDowntimeMillis) {
+            onReconnectFailed();
+            return;
+        }
+
+        mReconnectAttempt = attempt;
+        mIsReconnectScheduled = true;
+        Log.d(TAG, "Reconnection attempt " + attempt + " in " + delayMillis + "ms");
+        mReconnectHandler.postDelayed(mReconnectRunnable, delayMillis);
+
+        mConnectionState = STATE_CONNECTING;
+        mListenersDispatcher.onConnecting();
+        final ReconnectListener listener = mReconnectListener;
+        if (listener != null) {
+            listener.onReconnecting(attempt, delayMillis);
+        }
+    }
+
+    private final Runnable mReconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mReconnectLock) {
+                mIsReconnectScheduled = false;
+                final GattTransport transport = mGatt;
+                final BleReconnectPolicy policy = mReconnectPolicy;
+                if (!mIsReconnecting || transport == null || policy == null) {
+                    return;
+                }
+
+                if (transport.connect()) {
+                    mReconnectHandler.postDelayed(mReconnectTimeoutRunnable, policy.attemptTimeoutMillis);      // Removed when the services are discovered (onReconnected)
+                } else {
+                    Log.w(TAG, "Reconnection attempt " + mReconnectAttempt + " could not be started");
+                    scheduleReconnectAttempt();
+                }
+            }
+        }
+    };
+
+    private final Runnable mReconnectTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mReconnectLock) {
+                if (!mIsReconnecting || mIsReconnectScheduled) {
+                    return;
+                }
+
+                Log.w(TAG, "Reconnection attempt " + mReconnectAttempt + " timed out");
+                final GattTransport transport = mGatt;
+                if (transport != null) {
+                    transport.disconnect();         // Cancel the pending connection (or the connection that has not discovered the services yet)
+                }
+                scheduleReconnectAttempt();
+            }
+        }
+    };
+
+    // Restores the subscriptions and sends the writes that were pending when the connection was lost
+    private void onReconnected(GattTransport transport) {
+        final int attempts;
+        final long downtimeMillis;
+        synchronized (mReconnectLock) {
+            if (!mIsReconnecting) {
+                return;
+            }
+            mReconnectHandler.removeCallbacks(mReconnectTimeoutRunnable);
+            mIsReconnecting = false;
+            attempts = mReconnectAttempt;
+            downtimeMillis = (System.nanoTime() - mDisconnectionTimeNanos) / 1000000;
+        }
+
+        for (Subscription subscription : mSubscriptions) {
+            final BluetoothGattService service = getGattService(subscription.serviceUuid.toString(), subscription.serviceInstanceId);
+            final BluetoothGattCharacteristic characteristic = service != null ? getCharacteristic(service, subscription.characteristicUuid.toString()) : null;
+            if (characteristic == null) {
+                Log.w(TAG, "Reconnection: characteristic " + subscription.characteristicUuid + " not found. Notifications not restored");
+                mSubscriptions.remove(subscription);
+                continue;
+            }
+
+            if (subscription.isIndication) {
+                mExecutor.enableIndication(characteristic, true, null);
+            } else {
+                mExecutor.enableNotification(characteristic, true, null);
+            }
+        }
+        final int replayedWrites = mExecutor.replayWrites();
+        mExecutor.execute(transport);
+        if (replayedWrites > 0) {
+            onBulkOperation();
+        }
+
+        Log.d(TAG, "Reconnected after " + attempts + " attempts. Downtime: " + downtimeMillis + "ms. Subscriptions restored: " + mSubscriptions.size() + " Writes replayed: " + replayedWrites);
+        mExecutor.getMetrics().onReconnectionFinished(true, downtimeMillis);
+        final ReconnectListener listener = mReconnectListener;
+        if (listener != null) {
+            listener.onReconnected(attempts, downtimeMillis);
+        }
+    }
+
+    // Must be called with mReconnectLock held
+    private void onReconnectFailed() {
+        mIsReconnecting = false;
+        mIsDisconnectRequested = true;          // Like a disconnection requested by the app: a late connection of the last attempt should not revive the session
+        final long downtimeMillis = (System.nanoTime() - mDisconnectionTimeNanos) / 1000000;
+        Log.w(TAG, "Reconnection failed after " + mReconnectAttempt + " attempts");
+
+        mExecutor.cancelReplayWrites();
+        mSubscriptions.clear();
+        mExecutor.getMetrics().onReconnectionFinished(false, downtimeMillis);
+        final ReconnectListener listener = mReconnectListener;
+        if (listener != null) {
+            listener.onReconnectFailed(mReconnectAttempt, downtimeMillis);
+        }
+
+        mConnectionState = STATE_DISCONNECTED;
+        mListenersDispatcher.onDisconnected();
+    }
+
+    // Stops the reconnection in progress (if any). Returns true if there was one
+    private boolean cancelReconnection() {
+        synchronized (mReconnectLock) {
+            mReconnectHandler.removeCallbacks(mReconnectRunnable);
+            mReconnectHandler.removeCallbacks(mReconnectTimeoutRunnable);
+            mIsReconnectScheduled = false;
+            final boolean wasReconnecting = mIsReconnecting;
+            mIsReconnecting = false;
+            if (wasReconnecting) {
+                mExecutor.cancelReplayWrites();
+            }
+            return wasReconnecting;
+        }
+    }
+
+    private void updateSubscription(BluetoothGattService service, BluetoothGattCharacteristic characteristic, boolean enabled, boolean isIndication) {
+        final Subscription subscription = new Subscription(service.getUuid(), service.getInstanceId(), characteristic.getUuid(), isIndication);
+        mSubscriptions.remove(subscription);
+        if (enabled) {
+            mSubscriptions.add(subscription);
+        }
+    }
+
+    // Characteristic with notifications or indications enabled. Identified by the service instance and the characteristic uuid
+    private static class Subscription {
+        final UUID serviceUuid;
+        final int serviceInstanceId;
+        final UUID characteristicUuid;
+        final boolean isIndication;
+
+        Subscription(UUID serviceUuid, int serviceInstanceId, UUID characteristicUuid, boolean isIndication) {
+            this.serviceUuid = serviceUuid;
+            this.serviceInstanceId = serviceInstanceId;
+            this.characteristicUuid = characteristicUuid;
+            this.isIndication = isIndication;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Subscription)) {
+                return false;
+            }
+            final Subscription other = (Subscription) o;
+            return serviceInstanceId == other.serviceInstanceId && serviceUuid.equals(other.serviceUuid) && characteristicUuid.equals(other.characteristicUuid);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * serviceUuid.hashCode() + serviceInstanceId) + characteristicUuid.hashCode();
+        }
+    }
+    // endregion
+
     // region BleExecutorListener
     @Override
     public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+        final GattTransport transport = mGatt;
+        if (transport == null) {
+            return;
+        }
+
+        // Build the table used to find services and characteristics
+        mHandleCache = status == BluetoothGatt.GATT_SUCCESS ? new GattHandleCache(transport.getServices()) : null;
+
+        // Negotiate a bigger mtu. It is queued in the executor, so operations requested by the listener are executed after the negotiation finishes
+        if (status == BluetoothGatt.GATT_SUCCESS && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            mExecutor.requestMtu(kPreferredMtu);
+            mExecutor.execute(transport);
+        }
+
+        // The connection parameters are not kept between connections
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            final int profile = mIsHighThroughputActive.get() ? CONNECTION_PROFILE_HIGH_THROUGHPUT : mIdleConnectionProfile;
+            if (profile != CONNECTION_PROFILE_BALANCED) {
+                applyConnectionProfile(profile);
+            }
+        }
+
+        // Finish the reconnection (if any) before the listeners start using the connection
+        if (isReconnecting()) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                onReconnected(transport);
+            } else {
+                Log.w(TAG, "Reconnection: service discovery failed with status " + status + ". Disconnect and try again");
+                transport.disconnect();
+                return;
+            }
+        }
+
        // if (status == BluetoothGatt.GATT_SUCCESS) {
             // Call listener
-            if (mBleListener != null)
-                mBleListener.onServicesDiscovered();
+            mListenersDispatcher.onServicesDiscovered();
        // }
 
         if (status != BluetoothGatt.GATT_SUCCESS) {
@@ -422,9 +1129,7 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
     @Override
     public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
        // if (status == BluetoothGatt.GATT_SUCCESS) {
-            if (mBleListener != null) {
-                mBleListener.onDataAvailable(characteristic);
-            }
+            onDataReceived(characteristic);
        // }
 
         if (status != BluetoothGatt.GATT_SUCCESS) {
@@ -434,17 +1139,55 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
 
     @Override
     public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-        if (mBleListener != null) {
-            mBleListener.onDataAvailable(characteristic);
+        if (kServiceChangedCharacteristicUUID.equals(characteristic.getUuid())) {
+            onServiceChanged();
+        }
+
+        onDataReceived(characteristic);
+    }
+
+    // The device has changed its attribute table: discover it again. The current services are kept until the new ones are discovered
+    // Only received if the indication has been enabled (MainActivity enables it when the peripheral has the characteristic). Some versions of the Android stack handle it internally and don't forward it
+    private void onServiceChanged() {
+        Log.d(TAG, "Service Changed received. Discover services");
+        final GattTransport transport = mGatt;
+        if (transport != null) {
+            discoverServices(transport, true);
+        }
+    }
+
+    // The discovery is queued in the executor, so it doesn't start while other operation is in flight. If it doesn't finish, the connection is dropped (as it can't be used)
+    private void discoverServices(final GattTransport transport, boolean refreshCache) {
+        BleFuture<Void> future = new BleFuture<>();
+        future.addListener(new BleFuture.Listener<Void>() {
+            @Override
+            public void onComplete(BleFuture<Void> future) {
+                if (future.getStatus() == BleFuture.STATUS_TIMEOUT && transport == mGatt) {
+                    Log.w(TAG, "Service discovery timed out. Disconnect");
+                    transport.disconnect();
+                }
+            }
+        });
+        mExecutor.discoverServices(refreshCache, future);
+        mExecutor.execute(transport);
+    }
+
+    // Captures the value once and shares it with the subscribed listeners and the BleManagerListeners
+    private void onDataReceived(BluetoothGattCharacteristic characteristic) {
+        final CharacteristicValue value = CharacteristicValue.obtain(characteristic);
+        try {
+            mExecutor.getMetrics().onBytesReceived(value.getLength());
+            mCharacteristicRouter.dispatch(value);
+            mListenersDispatcher.onDataAvailable(value);
+        } finally {
+            value.release();
         }
     }
 
     @Override
     public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
      //   if (status == BluetoothGatt.GATT_SUCCESS) {
-            if (mBleListener != null) {
-                mBleListener.onDataAvailable(descriptor);
-            }
+            mListenersDispatcher.onDataAvailable(descriptor);
      //   }
 
         if (status != BluetoothGatt.GATT_SUCCESS) {
@@ -454,17 +1197,145 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
 
     @Override
     public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
-        if (mBleListener != null) {
-            mBleListener.onReadRemoteRssi(rssi);
-        }
+        mRssiSampler.onRssiRead(rssi, status == BluetoothGatt.GATT_SUCCESS);
+        mListenersDispatcher.onReadRemoteRssi(rssi);
 
         if (status != BluetoothGatt.GATT_SUCCESS) {
             Log.d(TAG, "onReadRemoteRssi status: "+status);
         }
 
     }
+
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            Log.d(TAG, "onMtuChanged: " + mtu);
+            mMtu = mtu;
+            mExecutor.setMaxWritePayloadSize(getMaxWritePayloadSize());
+        } else {
+            Log.d(TAG, "onMtuChanged status: " + status);
+        }
+    }
+
+    @Override
+    public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            Log.d(TAG, "onPhyUpdate tx: " + txPhy + " rx: " + rxPhy);
+            mTxPhy = txPhy;
+            mRxPhy = rxPhy;
+        } else {
+            Log.d(TAG, "onPhyUpdate status: " + status);
+        }
+    }
+
+    @Override
+    public void onActionTimeout(String actionDescription, long elapsedMillis, boolean willRetry) {
+        Log.w(TAG, "Operation timeout after " + elapsedMillis + "ms: " + actionDescription);
+        if (mOperationErrorListener != null) {
+            mOperationErrorListener.onOperationTimeout(actionDescription, elapsedMillis, willRetry);
+        }
+    }
     //endregion
 
+    // Called from a background thread when a gatt operation didn't receive its result in time. If willRetry is false, the operation has been skipped
+    public interface BleOperationErrorListener {
+        void onOperationTimeout(String operationDescription, long elapsedMillis, boolean willRetry);
+    }
+
+    // Progress of the automatic reconnection. While reconnecting, the BleManagerListeners receive onConnecting instead of onDisconnected (and onDisconnected if it fails)
+    public interface ReconnectListener {
+        void onReconnecting(int attempt, long delayMillis);
+
+        void onReconnected(int attempts, long downtimeMillis);
+
+        void onReconnectFailed(int attempts, long downtimeMillis);
+    }
+
+    // Called with the values of a subscribed characteristic. Call value.retain() to keep using it after the callback returns (and value.release() when finished)
+    public interface CharacteristicListener {
+        void onCharacteristicValue(CharacteristicValue value);
+    }
+
+    // Forwards the events to the listener set with setBleListener and to the listeners added with addBleListener
+    private final BleManagerListener mListenersDispatcher = new BleManagerListener() {
+        @Override
+        public void onConnected() {
+            final BleManagerListener bleListener = mBleListener;
+            if (bleListener != null) {
+                bleListener.onConnected();
+            }
+            for (BleManagerListener listener : mBleListeners) {
+                listener.onConnected();
+            }
+        }
+
+        @Override
+        public void onConnecting() {
+            final BleManagerListener bleListener = mBleListener;
+            if (bleListener != null) {
+                bleListener.onConnecting();
+            }
+            for (BleManagerListener listener : mBleListeners) {
+                listener.onConnecting();
+            }
+        }
+
+        @Override
+        public void onDisconnected() {
+            final BleManagerListener bleListener = mBleListener;
+            if (bleListener != null) {
+                bleListener.onDisconnected();
+            }
+            for (BleManagerListener listener : mBleListeners) {
+                listener.onDisconnected();
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered() {
+            final BleManagerListener bleListener = mBleListener;
+            if (bleListener != null) {
+                bleListener.onServicesDiscovered();
+            }
+            for (BleManagerListener listener : mBleListeners) {
+                listener.onServicesDiscovered();
+            }
+        }
+
+        @Override
+        public void onDataAvailable(CharacteristicValue value) {
+            final BleManagerListener bleListener = mBleListener;
+            if (bleListener != null) {
+                bleListener.onDataAvailable(value);
+            }
+            for (BleManagerListener listener : mBleListeners) {
+                listener.onDataAvailable(value);
+            }
+        }
+
+        @Override
+        public void onDataAvailable(BluetoothGattDescriptor descriptor) {
+            final BleManagerListener bleListener = mBleListener;
+            if (bleListener != null) {
+                bleListener.onDataAvailable(descriptor);
+            }
+            for (BleManagerListener listener : mBleListeners) {
+                listener.onDataAvailable(descriptor);
+            }
+        }
+
+        @Override
+        public void onReadRemoteRssi(int rssi) {
+            final BleManagerListener bleListener = mBleListener;
+            if (bleListener != null) {
+                bleListener.onReadRemoteRssi(rssi);
+            }
+            for (BleManagerListener listener : mBleListeners) {
+                listener.onReadRemoteRssi(rssi);
+            }
+        }
+    };
+
     public interface BleManagerListener {
 
         void onConnected();
@@ -472,7 +1343,8 @@ public class BleManager implements BleGattExecutor.BleExecutorListener {
         void onDisconnected();
         void onServicesDiscovered();
 
-        void onDataAvailable(BluetoothGattCharacteristic characteristic);
+        // The value is only valid during the call. Retain it to use it later (see CharacteristicValue)
+        void onDataAvailable(CharacteristicValue value);
         void onDataAvailable(BluetoothGattDescriptor descriptor);
 
         void onReadRemoteRssi(int rssi);
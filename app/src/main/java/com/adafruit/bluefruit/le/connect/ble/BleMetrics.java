@@ -0,0 +1,267 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.bluetooth.BluetoothGatt;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counters for a connection: queue depth, operation latencies, transferred bytes, gatt errors and reconnections
+// Updated from the executor dispatch thread and the gatt callbacks, and read from any thread (usually the ui). All the counters are lock-free
+public class BleMetrics {
+    // Data
+    private final AtomicInteger[] mQueueDepth = new AtomicInteger[]{new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};        // Current number of queued actions for each priority
+    private final AtomicInteger[] mMaxQueueDepth = new AtomicInteger[]{new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+    private final LatencyHistogram mQueueLatency = new LatencyHistogram();          // Time from enqueue to dispatch
+    private final LatencyHistogram mOperationLatency = new LatencyHistogram();      // Time from dispatch to the gatt callback
+    private final AtomicLong mTxBytes = new AtomicLong();
+    private final AtomicLong mRxBytes = new AtomicLong();
+    private final AtomicLong mTimeouts = new AtomicLong();
+    private final ConcurrentHashMap<Integer, AtomicLong> mErrorsByStatus = new ConcurrentHashMap<>();
+    private final AtomicLong mReconnections = new AtomicLong();
+    private final AtomicLong mFailedReconnections = new AtomicLong();
+    private final AtomicLong mTotalDowntimeMillis = new AtomicLong();
+    private final AtomicLong mMaxDowntimeMillis = new AtomicLong();
+    private volatile long mLastDowntimeMillis;
+    private volatile long mStartTimeMillis = System.currentTimeMillis();
+
+    // region Recording
+    void onActionQueued(int priority) {
+        final int depth = mQueueDepth[priority].incrementAndGet();
+        final AtomicInteger maxDepth = mMaxQueueDepth[priority];
+        int currentMax;
+        while (depth > (currentMax = maxDepth.get()) && !maxDepth.compareAndSet(currentMax, depth)) {
+        }
+    }
+
+    void onActionDequeued(int priority, long queuedNanos) {
+        mQueueDepth[priority].decrementAndGet();
+        mQueueLatency.add(queuedNanos);
+    }
+
+    void onQueueCleared(int priority, int count) {
+        mQueueDepth[priority].addAndGet(-count);
+    }
+
+    void onOperationCompleted(long elapsedNanos) {
+        mOperationLatency.add(elapsedNanos);
+    }
+
+    void onOperationTimeout() {
+        mTimeouts.incrementAndGet();
+    }
+
+    void onBytesSent(int count) {
+        mTxBytes.addAndGet(count);
+    }
+
+    void onBytesReceived(int count) {
+        mRxBytes.addAndGet(count);
+    }
+
+    void onGattStatus(int status) {
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            AtomicLong counter = mErrorsByStatus.get(status);
+            if (counter == null) {
+                final AtomicLong newCounter = new AtomicLong();
+                counter = mErrorsByStatus.putIfAbsent(status, newCounter);
+                if (counter == null) {
+                    counter = newCounter;
+                }
+            }
+            counter.incrementAndGet();
+        }
+    }
+
+    // Time from the connection loss to the services being available again (or to giving up)
+    void onReconnectionFinished(boolean isSuccess, long downtimeMillis) {
+        if (isSuccess) {
+            mReconnections.incrementAndGet();
+        } else {
+            mFailedReconnections.incrementAndGet();
+        }
+        mLastDowntimeMillis = downtimeMillis;
+        mTotalDowntimeMillis.addAndGet(downtimeMillis);
+
+        long currentMax;
+        while (downtimeMillis > (currentMax = mMaxDowntimeMillis.get()) && !mMaxDowntimeMillis.compareAndSet(currentMax, downtimeMillis)) {
+        }
+    }
+    // endregion
+
+    // region Getters
+    public int getQueueDepth(int priority) {
+        return Math.max(0, mQueueDepth[priority].get());
+    }
+
+    public int getMaxQueueDepth(int priority) {
+        return mMaxQueueDepth[priority].get();
+    }
+
+    public LatencyHistogram getQueueLatency() {
+        return mQueueLatency;
+    }
+
+    public LatencyHistogram getOperationLatency() {
+        return mOperationLatency;
+    }
+
+    public long getTxBytes() {
+        return mTxBytes.get();
+    }
+
+    public long getRxBytes() {
+        return mRxBytes.get();
+    }
+
+    public long getTimeouts() {
+        return mTimeouts.get();
+    }
+
+    // Number of gatt callbacks received for each error status (sorted by status)
+    public Map<Integer, Long> getErrorsByStatus() {
+        TreeMap<Integer, Long> errors = new TreeMap<>();
+        for (Map.Entry<Integer, AtomicLong> entry : mErrorsByStatus.entrySet()) {
+            errors.put(entry.getKey(), entry.getValue().get());
+        }
+        return errors;
+    }
+
+    public long getReconnections() {
+        return mReconnections.get();
+    }
+
+    public long getFailedReconnections() {
+        return mFailedReconnections.get();
+    }
+
+    public long getLastDowntimeMillis() {
+        return mLastDowntimeMillis;
+    }
+
+    public long getMaxDowntimeMillis() {
+        return mMaxDowntimeMillis.get();
+    }
+
+    public long getTotalDowntimeMillis() {
+        return mTotalDowntimeMillis.get();
+    }
+
+    public long getStartTimeMillis() {
+        return mStartTimeMillis;
+    }
+
+    // Average bytes/s since the metrics were reset
+    public float getTxBytesPerSecond() {
+        return bytesPerSecond(mTxBytes.get());
+    }
+
+    public float getRxBytesPerSecond() {
+        return bytesPerSecond(mRxBytes.get());
+    }
+
+    private float bytesPerSecond(long bytes) {
+        final long elapsedMillis = System.currentTimeMillis() - mStartTimeMillis;
+        return elapsedMillis > 0 ? bytes * 1000f / elapsedMillis : 0;
+    }
+    // endregion
+
+    // Resets the counters (but not the current queue depths)
+    public void reset() {
+        for (AtomicInteger maxDepth : mMaxQueueDepth) {
+            maxDepth.set(0);
+        }
+        mQueueLatency.reset();
+        mOperationLatency.reset();
+        mTxBytes.set(0);
+        mRxBytes.set(0);
+        mTimeouts.set(0);
+        mErrorsByStatus.clear();
+        mReconnections.set(0);
+        mFailedReconnections.set(0);
+        mTotalDowntimeMillis.set(0);
+        mMaxDowntimeMillis.set(0);
+        mLastDowntimeMillis = 0;
+        mStartTimeMillis = System.currentTimeMillis();
+    }
+
+    // Histogram with power of 2 buckets. Bucket i contains the values lower than kFirstBucketMicros << i. The last bucket contains all the values bigger than that
+    public static class LatencyHistogram {
+        // Constants
+        private static final long kFirstBucketMicros = 64;
+        public static final int kNumBuckets = 18;        // From <64us to >=8.4s
+
+        // Data
+        private final AtomicLongArray mBuckets = new AtomicLongArray(kNumBuckets);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalMicros = new AtomicLong();
+        private final AtomicLong mMaxMicros = new AtomicLong();
+
+        void add(long nanos) {
+            final long micros = Math.max(0, nanos / 1000);
+            int bucket = 0;
+            while (bucket < kNumBuckets - 1 && micros >= (kFirstBucketMicros << bucket)) {
+                bucket++;
+            }
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mTotalMicros.addAndGet(micros);
+
+            long currentMax;
+            while (micros > (currentMax = mMaxMicros.get()) && !mMaxMicros.compareAndSet(currentMax, micros)) {
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < kNumBuckets; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mTotalMicros.set(0);
+            mMaxMicros.set(0);
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getBucketCount(int bucket) {
+            return mBuckets.get(bucket);
+        }
+
+        // Upper bound of the bucket (exclusive) or Long.MAX_VALUE for the last one
+        public static long getBucketUpperBoundMicros(int bucket) {
+            return bucket < kNumBuckets - 1 ? kFirstBucketMicros << bucket : Long.MAX_VALUE;
+        }
+
+        public float getAverageMillis() {
+            final long count = mCount.get();
+            return count > 0 ? mTotalMicros.get() / 1000f / count : 0;
+        }
+
+        public float getMaxMillis() {
+            return mMaxMicros.get() / 1000f;
+        }
+
+        // Estimation of the percentile (0-100): upper bound of the bucket that contains it
+        public float getPercentileMillis(float percentile) {
+            final long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+
+            final long target = (long) Math.ceil(count * percentile / 100f);
+            long accumulated = 0;
+            for (int i = 0; i < kNumBuckets - 1; i++) {
+                accumulated += mBuckets.get(i);
+                if (accumulated >= target) {
+                    return getBucketUpperBoundMicros(i) / 1000f;
+                }
+            }
+            return getMaxMillis();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import java.util.Random;
+
+// Configuration of the automatic reconnection (see BleManager.setReconnectPolicy)
+// Attempts are spaced with exponential backoff and jitter, so several devices (or several phones) that lose the connection at the same time don't retry in sync
+public class BleReconnectPolicy {
+    public long initialDelayMillis = 500;           // Delay before the first attempt
+    public long maxDelayMillis = 30000;             // Max delay between attempts
+    public long attemptTimeoutMillis = 15000;       // Max time for an attempt to connect and discover the services before trying again
+    public int maxAttempts = 8;                     // Attempts before giving up (0: unlimited)
+    public long maxDowntimeMillis = 60000;          // Max time since the connection was lost to start a new attempt (0: unlimited). When the reconnection gives up, the listeners receive onDisconnected
+    public boolean replayWrites = false;            // Send again the writes that were queued (or in flight) when the connection was lost. The write in flight may be received twice by the peripheral
+
+    // Random delay between 50% and 100% of min(maxDelayMillis, initialDelayMillis * 2^(attempt-1)). Attempt starts at 1
+    long getDelayMillis(int attempt, Random random) {
+        final int exponent = Math.min(Math.max(attempt - 1, 0), 30);
+        final long delay = Math.min(maxDelayMillis, initialDelayMillis << exponent);
+        final long halfDelay = delay / 2;
+        return halfDelay + (halfDelay > 0 ? (long) (random.nextDouble() * (delay - halfDelay)) : 0);
+    }
+}
@@ -10,6 +10,8 @@ import android.content.pm.PackageManager;
 import android.net.wifi.WifiManager;
 import android.util.Log;
 
+import com.adafruit.bluefruit.le.connect.core.HexUtils;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.UUID;
@@ -174,15 +176,7 @@ public class BleUtils {
     private final static char[] hexArray = "0123456789ABCDEF".toCharArray();
 
     public static String bytesToHex(byte[] bytes) {
-        if (bytes != null) {
-            char[] hexChars = new char[bytes.length * 2];
-            for (int j = 0; j < bytes.length; j++) {
-                int v = bytes[j] & 0xFF;
-                hexChars[j * 2] = hexArray[v >>> 4];
-                hexChars[j * 2 + 1] = hexArray[v & 0x0F];
-            }
-            return new String(hexChars);
-        } else return null;
+        return HexUtils.bytesToHex(bytes);
     }
 
     public static String byteToHex(byte value) {
@@ -201,13 +195,7 @@ public class BleUtils {
     }
 
     public static String bytesToHexWithSpaces(byte[] bytes) {
-        StringBuilder newString = new StringBuilder();
-        for (byte aByte : bytes) {
-            String byteHex = String.format("%02X", (byte) aByte);
-            newString.append(byteHex).append(" ");
-
-        }
-        return newString.toString().trim();
+        return HexUtils.bytesToHexWithSpaces(bytes);
     }
 
     public static String getUuidStringFromByteArray(byte[] bytes) {
@@ -0,0 +1,136 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.os.Build;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.UUID;
+
+// GattTransport that uses the Android bluetooth stack
+class BluetoothGattTransport implements GattTransport {
+    // Data
+    private final BluetoothGatt mGatt;
+
+    BluetoothGattTransport(BluetoothGatt gatt) {
+        mGatt = gatt;
+    }
+
+    BluetoothGatt getBluetoothGatt() {
+        return mGatt;
+    }
+
+    @Override
+    public boolean connect() {
+        return mGatt.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        mGatt.disconnect();
+    }
+
+    @Override
+    public void close() {
+        mGatt.close();
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return mGatt.discoverServices();
+    }
+
+    // Clears the attribute table cached by the stack for the device (hidden method BluetoothGatt.refresh, called with reflection)
+    // http://stackoverflow.com/questions/22596951/how-to-programmatically-force-bluetooth-low-energy-service-discovery-on-android
+    boolean refresh() {
+        try {
+            Method method = mGatt.getClass().getMethod("refresh");
+            return (Boolean) method.invoke(mGatt);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Override
+    public List<BluetoothGattService> getServices() {
+        return mGatt.getServices();
+    }
+
+    @Override
+    public BluetoothGattService getService(UUID uuid) {
+        return mGatt.getService(uuid);
+    }
+
+    @Override
+    public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return mGatt.readCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return mGatt.writeCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean readDescriptor(BluetoothGattDescriptor descriptor) {
+        return mGatt.readDescriptor(descriptor);
+    }
+
+    @Override
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+        return mGatt.writeDescriptor(descriptor);
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        return mGatt.setCharacteristicNotification(characteristic, enable);
+    }
+
+    @Override
+    public boolean readRemoteRssi() {
+        return mGatt.readRemoteRssi();
+    }
+
+    @Override
+    public boolean beginReliableWrite() {
+        return mGatt.beginReliableWrite();
+    }
+
+    @Override
+    public boolean executeReliableWrite() {
+        return mGatt.executeReliableWrite();
+    }
+
+    @Override
+    public void abortReliableWrite() {
+        mGatt.abortReliableWrite();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    @Override
+    public boolean requestMtu(int mtu) {
+        return mGatt.requestMtu(mtu);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    @Override
+    public boolean requestConnectionPriority(int connectionPriority) {
+        return mGatt.requestConnectionPriority(connectionPriority);
+    }
+
+    // BluetoothGatt.setPreferredPhy was added in API 26 (newer than the sdk used to compile the app), so it is called using reflection. The result is received on onPhyUpdate
+    @Override
+    public boolean setPreferredPhy(int txPhy, int rxPhy, int phyOptions) {
+        try {
+            Method method = mGatt.getClass().getMethod("setPreferredPhy", int.class, int.class, int.class);
+            method.invoke(mGatt, txPhy, rxPhy, phyOptions);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
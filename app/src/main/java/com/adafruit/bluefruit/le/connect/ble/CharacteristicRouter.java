@@ -0,0 +1,72 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.bluetooth.BluetoothGattService;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Routes the characteristic values (notifications, indications and reads) to the listeners subscribed to that characteristic
+// The value is captured in an immutable CharacteristicValue when it is received, so listeners can use it from other threads
+// Subscriptions are keyed by service uuid and characteristic uuid, so a value is dispatched with two map lookups using the UUID objects provided by the gatt (no string conversion)
+class CharacteristicRouter {
+    // Data
+    private final ConcurrentHashMap<UUID, ConcurrentHashMap<UUID, CopyOnWriteArrayList<BleManager.CharacteristicListener>>> mSubscriptions = new ConcurrentHashMap<>();     // Key: service uuid -> characteristic uuid
+
+    void subscribe(UUID serviceUuid, UUID characteristicUuid, BleManager.CharacteristicListener listener) {
+        ConcurrentHashMap<UUID, CopyOnWriteArrayList<BleManager.CharacteristicListener>> characteristics = mSubscriptions.get(serviceUuid);
+        if (characteristics == null) {
+            final ConcurrentHashMap<UUID, CopyOnWriteArrayList<BleManager.CharacteristicListener>> newCharacteristics = new ConcurrentHashMap<>();
+            characteristics = mSubscriptions.putIfAbsent(serviceUuid, newCharacteristics);
+            if (characteristics == null) {
+                characteristics = newCharacteristics;
+            }
+        }
+
+        CopyOnWriteArrayList<BleManager.CharacteristicListener> listeners = characteristics.get(characteristicUuid);
+        if (listeners == null) {
+            final CopyOnWriteArrayList<BleManager.CharacteristicListener> newListeners = new CopyOnWriteArrayList<>();
+            listeners = characteristics.putIfAbsent(characteristicUuid, newListeners);
+            if (listeners == null) {
+                listeners = newListeners;
+            }
+        }
+        listeners.addIfAbsent(listener);
+    }
+
+    void unsubscribe(UUID serviceUuid, UUID characteristicUuid, BleManager.CharacteristicListener listener) {
+        final ConcurrentHashMap<UUID, CopyOnWriteArrayList<BleManager.CharacteristicListener>> characteristics = mSubscriptions.get(serviceUuid);
+        if (characteristics != null) {
+            final CopyOnWriteArrayList<BleManager.CharacteristicListener> listeners = characteristics.get(characteristicUuid);
+            if (listeners != null) {
+                listeners.remove(listener);     // Empty lists are kept. The number of subscribed characteristics is small and they are usually subscribed again later
+            }
+        }
+    }
+
+    void unsubscribeAll(BleManager.CharacteristicListener listener) {
+        for (ConcurrentHashMap<UUID, CopyOnWriteArrayList<BleManager.CharacteristicListener>> characteristics : mSubscriptions.values()) {
+            for (CopyOnWriteArrayList<BleManager.CharacteristicListener> listeners : characteristics.values()) {
+                listeners.remove(listener);
+            }
+        }
+    }
+
+    // The value is captured by the caller and shared with the other consumers of the notification
+    void dispatch(CharacteristicValue value) {
+        final BluetoothGattService service = value.getCharacteristic().getService();
+        if (service == null) {
+            return;
+        }
+
+        final ConcurrentHashMap<UUID, CopyOnWriteArrayList<BleManager.CharacteristicListener>> characteristics = mSubscriptions.get(service.getUuid());
+        if (characteristics != null) {
+            final CopyOnWriteArrayList<BleManager.CharacteristicListener> listeners = characteristics.get(value.getCharacteristic().getUuid());
+            if (listeners != null) {
+                for (BleManager.CharacteristicListener listener : listeners) {
+                    listener.onCharacteristicValue(value);
+                }
+            }
+        }
+    }
+}
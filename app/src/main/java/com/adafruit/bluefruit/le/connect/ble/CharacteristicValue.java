@@ -0,0 +1,128 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Immutable copy of a characteristic value taken when it was received. The BluetoothGattCharacteristic value is overwritten by the next notification, so it is not safe to read it later from other threads
+// The value is captured once and shared by all the listeners without copying. Buffers are pooled and reference counted:
+// - A value is valid during the listener callback
+// - Listeners that use it after the callback returns (for example in runOnUiThread) should call retain() and then release() when they have finished with it
+public class CharacteristicValue {
+    // Constants
+    private static final int kMaxAttributeValueLength = 512;        // Max length of a gatt attribute value (Bluetooth Core Spec)
+    private static final int kMaxPoolSize = 32;
+
+    // Pool
+    private static final ConcurrentLinkedQueue<CharacteristicValue> sPool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger sPoolSize = new AtomicInteger();
+
+    // Data
+    private final byte[] mBuffer;
+    private final boolean mIsPooled;
+    private final AtomicInteger mReferenceCount = new AtomicInteger();
+    private BluetoothGattCharacteristic mCharacteristic;
+    private int mLength;
+    private long mTimestamp;
+
+    private CharacteristicValue(int capacity, boolean isPooled) {
+        mBuffer = new byte[capacity];
+        mIsPooled = isPooled;
+    }
+
+    // Captures the current value of the characteristic. The returned value has a reference count of 1
+    static CharacteristicValue obtain(BluetoothGattCharacteristic characteristic) {
+        final byte[] value = characteristic.getValue();
+        final int length = value != null ? value.length : 0;
+
+        CharacteristicValue characteristicValue;
+        if (length <= kMaxAttributeValueLength) {
+            characteristicValue = sPool.poll();
+            if (characteristicValue != null) {
+                sPoolSize.decrementAndGet();
+            } else {
+                characteristicValue = new CharacteristicValue(kMaxAttributeValueLength, true);
+            }
+        } else {
+            characteristicValue = new CharacteristicValue(length, false);       // Should not happen. Not pooled
+        }
+
+        if (length > 0) {
+            System.arraycopy(value, 0, characteristicValue.mBuffer, 0, length);
+        }
+        characteristicValue.mLength = length;
+        characteristicValue.mCharacteristic = characteristic;
+        characteristicValue.mTimestamp = System.currentTimeMillis();
+        characteristicValue.mReferenceCount.set(1);
+        return characteristicValue;
+    }
+
+    // region Reference counting
+    public CharacteristicValue retain() {
+        if (mReferenceCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("retain: value already released");
+        }
+        return this;
+    }
+
+    public void release() {
+        final int referenceCount = mReferenceCount.decrementAndGet();
+        if (referenceCount == 0) {
+            mCharacteristic = null;
+            if (mIsPooled && sPoolSize.incrementAndGet() <= kMaxPoolSize) {
+                sPool.add(this);
+            } else if (mIsPooled) {
+                sPoolSize.decrementAndGet();
+            }
+        } else if (referenceCount < 0) {
+            throw new IllegalStateException("release: value already released");
+        }
+    }
+    // endregion
+
+    // region Getters
+    // Characteristic that received the value. Use it to identify the characteristic but not to read its value (use the getters of this class)
+    public BluetoothGattCharacteristic getCharacteristic() {
+        return mCharacteristic;
+    }
+
+    // Time when the value was received (System.currentTimeMillis)
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public byte getByte(int index) {
+        if (index < 0 || index >= mLength) {
+            throw new IndexOutOfBoundsException("index: " + index + " length: " + mLength);
+        }
+        return mBuffer[index];
+    }
+
+    // Read-only view of the value (no copy). Only valid while the value is retained
+    public ByteBuffer asReadOnlyBuffer() {
+        return ByteBuffer.wrap(mBuffer, 0, mLength).asReadOnlyBuffer();
+    }
+
+    public void copyTo(byte[] destination, int destinationOffset) {
+        System.arraycopy(mBuffer, 0, destination, destinationOffset, mLength);
+    }
+
+    // Copy of the value that can be kept after releasing it
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[mLength];
+        System.arraycopy(mBuffer, 0, bytes, 0, mLength);
+        return bytes;
+    }
+
+    public String toString(Charset charset) {
+        return new String(mBuffer, 0, mLength, charset);
+    }
+    // endregion
+}
@@ -0,0 +1,83 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Table with the services and characteristics of a connection. It is built once when the services are discovered, so operations don't need to parse uuid strings or iterate the gatt services each time
+// The table is immutable after creation and can be used from any thread
+class GattHandleCache {
+    // Parsed uuid strings (shared by all connections). The app uses a small set of uuid strings, mostly constants
+    private static final ConcurrentHashMap<String, UUID> sUuids = new ConcurrentHashMap<>();
+
+    // Data
+    private final HashMap<UUID, List<BluetoothGattService>> mServices = new HashMap<>();       // There can be several instances of the same service
+    private final IdentityHashMap<BluetoothGattService, HashMap<UUID, BluetoothGattCharacteristic>> mCharacteristics = new IdentityHashMap<>();
+
+    GattHandleCache(List<BluetoothGattService> services) {
+        if (services == null) {
+            return;
+        }
+
+        for (BluetoothGattService service : services) {
+            List<BluetoothGattService> instances = mServices.get(service.getUuid());
+            if (instances == null) {
+                instances = new ArrayList<>(1);
+                mServices.put(service.getUuid(), instances);
+            }
+            instances.add(service);
+
+            final List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+            HashMap<UUID, BluetoothGattCharacteristic> characteristicsMap = new HashMap<>(characteristics.size() * 2);
+            for (BluetoothGattCharacteristic characteristic : characteristics) {
+                if (!characteristicsMap.containsKey(characteristic.getUuid())) {       // Keep the first instance (same behaviour as BluetoothGattService.getCharacteristic)
+                    characteristicsMap.put(characteristic.getUuid(), characteristic);
+                }
+            }
+            mCharacteristics.put(service, characteristicsMap);
+        }
+    }
+
+    static UUID uuidFromString(String uuidString) {
+        UUID uuid = sUuids.get(uuidString);
+        if (uuid == null) {
+            uuid = UUID.fromString(uuidString);
+            sUuids.put(uuidString, uuid);
+        }
+        return uuid;
+    }
+
+    BluetoothGattService getService(String uuidString) {
+        final List<BluetoothGattService> instances = mServices.get(uuidFromString(uuidString));
+        return instances != null ? instances.get(0) : null;
+    }
+
+    BluetoothGattService getService(String uuidString, int instanceId) {
+        final List<BluetoothGattService> instances = mServices.get(uuidFromString(uuidString));
+        if (instances != null) {
+            for (int i = 0; i < instances.size(); i++) {
+                final BluetoothGattService service = instances.get(i);
+                if (service.getInstanceId() == instanceId) {
+                    return service;
+                }
+            }
+        }
+        return null;
+    }
+
+    BluetoothGattCharacteristic getCharacteristic(BluetoothGattService service, String uuidString) {
+        final UUID uuid = uuidFromString(uuidString);
+        final HashMap<UUID, BluetoothGattCharacteristic> characteristicsMap = mCharacteristics.get(service);
+        if (characteristicsMap != null) {
+            return characteristicsMap.get(uuid);
+        } else {
+            return service.getCharacteristic(uuid);      // Service not in the table (obtained before the last discovery)
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.List;
+import java.util.UUID;
+
+// Connection used by BleManager and BleGattExecutor to talk with a peripheral. It has the same semantics as BluetoothGatt: operations return false if they could not be started and their results are received on the BluetoothGattCallback used to create the connection
+// Implementations: BluetoothGattTransport (the Android bluetooth stack) and SimulatedPeripheral (in-process peripheral used by the unit tests and benchmarks, in the test source set)
+// Note: implementations don't need a BluetoothGatt, so the callbacks are called with a null gatt parameter. Use the transport instead
+public interface GattTransport {
+    // Connection
+    boolean connect();
+
+    void disconnect();
+
+    void close();
+
+    // Services
+    boolean discoverServices();
+
+    List<BluetoothGattService> getServices();
+
+    BluetoothGattService getService(UUID uuid);
+
+    // Operations
+    boolean readCharacteristic(BluetoothGattCharacteristic characteristic);
+
+    boolean writeCharacteristic(BluetoothGattCharacteristic characteristic);
+
+    boolean readDescriptor(BluetoothGattDescriptor descriptor);
+
+    boolean writeDescriptor(BluetoothGattDescriptor descriptor);
+
+    boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable);
+
+    boolean readRemoteRssi();
+
+    boolean requestMtu(int mtu);
+
+    // Reliable writes. The result of executeReliableWrite and abortReliableWrite is received on onReliableWriteCompleted
+    boolean beginReliableWrite();
+
+    boolean executeReliableWrite();
+
+    void abortReliableWrite();
+
+    // Connection parameters
+    boolean requestConnectionPriority(int connectionPriority);
+
+    boolean setPreferredPhy(int txPhy, int rxPhy, int phyOptions);
+}
@@ -0,0 +1,196 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+// Reads the rssi of the connection periodically (on the background lane of the executor, so it never delays other operations) and keeps a smoothed estimate
+// The sampling interval adapts to the signal: it is shortened while the rssi is changing (the device is moving) and lengthened while it is stable. It is also lengthened while the link is busy transferring data
+// The smoothed rssi is classified in proximity zones (with hysteresis, to avoid alerts when the signal is on the boundary of two zones)
+public class RssiSampler {
+    // Log
+    private final static String TAG = RssiSampler.class.getSimpleName();
+
+    // Proximity zones
+    public static final int PROXIMITY_UNKNOWN = 0;
+    public static final int PROXIMITY_IMMEDIATE = 1;
+    public static final int PROXIMITY_NEAR = 2;
+    public static final int PROXIMITY_FAR = 3;
+
+    // Constants
+    private static final long kMinIntervalMillis = 250;
+    private static final long kMaxIntervalMillis = 5000;
+    private static final long kInitialIntervalMillis = 1000;
+    private static final long kBusyIntervalMillis = 2000;          // Min interval while there are queued operations
+    private static final long kPendingReadTimeoutMillis = 10000;   // A read without result after this time is considered lost (failed to start or timed out in the executor)
+    private static final float kSmoothingFactor = 0.25f;           // Weight of a new sample in the moving estimate
+    private static final float kUnstableDeviation = 4;             // Standard deviation (dB) above which the interval is shortened
+    private static final float kStableDeviation = 1.5f;            // Standard deviation (dB) below which the interval is lengthened
+    private static final int kImmediateThreshold = -55;            // Min smoothed rssi (dBm) for the immediate zone
+    private static final int kNearThreshold = -75;                 // Min smoothed rssi (dBm) for the near zone
+    private static final float kHysteresis = 3;                    // dB that the rssi has to cross a threshold before changing zone
+
+    public interface Listener {
+        // Called from a background thread for each sample
+        void onRssiSampled(int rssi, float smoothedRssi);
+
+        void onProximityChanged(int proximity, float smoothedRssi);
+    }
+
+    // Data
+    private final BleManager mBleManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private volatile Listener mListener;
+    private volatile boolean mIsRunning = false;
+    private boolean mIsReadPending = false;                 // Guarded by this
+    private long mReadRequestTimeMillis;                    // Guarded by this
+    private long mIntervalMillis = kInitialIntervalMillis;  // Guarded by this
+    private int mSampleCount;                               // Guarded by this
+    private float mSmoothedRssi;                            // Guarded by this
+    private float mVariance;                                // Guarded by this
+    private int mProximity = PROXIMITY_UNKNOWN;             // Guarded by this
+    private long mLastTransferredBytes;                     // Guarded by this
+
+    RssiSampler(BleManager bleManager) {
+        mBleManager = bleManager;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public void start() {
+        if (mIsRunning) {
+            return;
+        }
+        mIsRunning = true;
+        mHandler.post(mSampleRunnable);
+    }
+
+    public void stop() {
+        mIsRunning = false;
+        mHandler.removeCallbacks(mSampleRunnable);
+        reset();
+    }
+
+    public boolean isRunning() {
+        return mIsRunning;
+    }
+
+    public synchronized float getSmoothedRssi() {
+        return mSmoothedRssi;
+    }
+
+    public synchronized boolean hasEstimate() {
+        return mSampleCount > 0;
+    }
+
+    public synchronized int getProximity() {
+        return mProximity;
+    }
+
+    public synchronized long getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    // Discards the estimate (called when the connection changes, because the samples of the previous connection are not valid for the new one)
+    synchronized void reset() {
+        mIsReadPending = false;
+        mIntervalMillis = kInitialIntervalMillis;
+        mSampleCount = 0;
+        mSmoothedRssi = 0;
+        mVariance = 0;
+        mProximity = PROXIMITY_UNKNOWN;
+    }
+
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mIsRunning) {
+                return;
+            }
+
+            final long delayMillis;
+            synchronized (RssiSampler.this) {
+                // Only one read queued at a time. If the previous one has not finished (the link is busy), wait for it
+                final long currentTimeMillis = SystemClock.elapsedRealtime();
+                if ((!mIsReadPending || currentTimeMillis - mReadRequestTimeMillis > kPendingReadTimeoutMillis) && mBleManager.getState() == BleManager.STATE_CONNECTED) {
+                    mIsReadPending = mBleManager.readRssi(BleManager.PRIORITY_BACKGROUND);
+                    mReadRequestTimeMillis = currentTimeMillis;
+                }
+                delayMillis = getNextIntervalMillis();
+            }
+            mHandler.postDelayed(this, delayMillis);
+        }
+    };
+
+    // Must be called with the lock held
+    private long getNextIntervalMillis() {
+        final BleMetrics metrics = mBleManager.getMetrics();
+        final long transferredBytes = metrics.getTxBytes() + metrics.getRxBytes();
+        final boolean isLinkBusy = transferredBytes != mLastTransferredBytes || metrics.getQueueDepth(BleManager.PRIORITY_CONTROL) > 0 || metrics.getQueueDepth(BleManager.PRIORITY_BULK) > 0;
+        mLastTransferredBytes = transferredBytes;
+        return isLinkBusy ? Math.max(mIntervalMillis, kBusyIntervalMillis) : mIntervalMillis;
+    }
+
+    // Called by BleManager with the result of each rssi read (from any origin)
+    void onRssiRead(int rssi, boolean isSuccess) {
+        float smoothedRssi;
+        int proximity;
+        boolean isProximityChanged;
+        synchronized (this) {
+            mIsReadPending = false;
+            if (!isSuccess) {
+                return;
+            }
+
+            // Exponential moving average and variance
+            if (mSampleCount == 0) {
+                mSmoothedRssi = rssi;
+                mVariance = 0;
+            } else {
+                final float difference = rssi - mSmoothedRssi;
+                mSmoothedRssi += kSmoothingFactor * difference;
+                mVariance = (1 - kSmoothingFactor) * (mVariance + kSmoothingFactor * difference * difference);
+            }
+            mSampleCount++;
+
+            // Adapt the interval
+            final float deviation = (float) Math.sqrt(mVariance);
+            if (deviation > kUnstableDeviation) {
+                mIntervalMillis = Math.max(kMinIntervalMillis, mIntervalMillis / 2);
+            } else if (deviation < kStableDeviation) {
+                mIntervalMillis = Math.min(kMaxIntervalMillis, mIntervalMillis * 3 / 2);
+            }
+
+            smoothedRssi = mSmoothedRssi;
+            proximity = getProximity(smoothedRssi, mProximity);
+            isProximityChanged = proximity != mProximity;
+            mProximity = proximity;
+        }
+
+        final Listener listener = mListener;
+        if (listener != null) {
+            listener.onRssiSampled(rssi, smoothedRssi);
+            if (isProximityChanged) {
+                Log.d(TAG, "Proximity changed: " + proximity + " rssi: " + smoothedRssi);
+                listener.onProximityChanged(proximity, smoothedRssi);
+            }
+        }
+    }
+
+    // The current zone is kept until the rssi crosses its boundaries by more than kHysteresis
+    private static int getProximity(float rssi, int currentProximity) {
+        final float immediateThreshold = kImmediateThreshold + (currentProximity == PROXIMITY_IMMEDIATE ? -kHysteresis : currentProximity != PROXIMITY_UNKNOWN ? kHysteresis : 0);
+        final float nearThreshold = kNearThreshold + (currentProximity == PROXIMITY_FAR ? kHysteresis : currentProximity != PROXIMITY_UNKNOWN ? -kHysteresis : 0);
+
+        if (rssi >= immediateThreshold) {
+            return PROXIMITY_IMMEDIATE;
+        } else if (rssi >= nearThreshold) {
+            return PROXIMITY_NEAR;
+        } else {
+            return PROXIMITY_FAR;
+        }
+    }
+}
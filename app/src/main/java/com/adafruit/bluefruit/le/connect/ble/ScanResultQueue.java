@@ -0,0 +1,107 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import com.adafruit.bluefruit.le.connect.core.DeviceTable;
+
+import java.util.ArrayList;
+
+// Scan results waiting to be delivered to the main thread, coalesced by address
+// If a device advertises several times before the queue is drained, only its latest result is kept (in the position of its first result). The number of devices pending is bounded: results of new devices are dropped when the queue is full
+class ScanResultQueue {
+    private static class Entry {
+        BluetoothDevice device;
+        int rssi;
+        byte[] scanRecord;
+    }
+
+    // Data
+    private final int mCapacity;
+    private DeviceTable<Entry> mPending = new DeviceTable<>();           // Guarded by this
+    private DeviceTable<Entry> mSpare = new DeviceTable<>();             // Table to use when mPending is being drained (guarded by this)
+    private final ArrayList<Entry> mEntryPool = new ArrayList<>();       // Guarded by this
+
+    // Counters (guarded by this)
+    private long mReceivedCount;
+    private long mCoalescedCount;            // Results replaced by a newer result of the same device before being delivered
+    private long mDroppedCount;              // Results discarded because the queue was full
+    private long mDeliveredCount;
+
+    ScanResultQueue(int capacity) {
+        mCapacity = capacity;
+    }
+
+    // Returns true if the queue was empty (so the caller has to schedule a drain)
+    synchronized boolean offer(BluetoothDevice device, int rssi, byte[] scanRecord) {
+        mReceivedCount++;
+        final boolean wasEmpty = mPending.isEmpty();
+
+        final long address = DeviceTable.addressToLong(device.getAddress());
+        Entry entry = mPending.find(address);
+        if (entry != null) {
+            mCoalescedCount++;
+        } else if (mPending.size() >= mCapacity) {
+            mDroppedCount++;
+            return false;
+        } else {
+            entry = mEntryPool.isEmpty() ? new Entry() : mEntryPool.remove(mEntryPool.size() - 1);
+            mPending.put(address, entry);
+        }
+
+        entry.device = device;
+        entry.rssi = rssi;
+        entry.scanRecord = scanRecord;
+        return wasEmpty;
+    }
+
+    // Delivers the pending results (in the order their devices were queued). Results queued while draining are kept for the next drain. Returns the number of results delivered
+    // Must be called always from the same thread
+    int drain(BluetoothAdapter.LeScanCallback callback) {
+        final DeviceTable<Entry> batch;
+        synchronized (this) {
+            batch = mPending;
+            mPending = mSpare;
+            mSpare = null;
+        }
+
+        final int count = batch.size();
+        for (int i = 0; i < count; i++) {
+            final Entry entry = batch.get(i);
+            callback.onLeScan(entry.device, entry.rssi, entry.scanRecord);
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < count; i++) {
+                final Entry entry = batch.get(i);
+                entry.device = null;
+                entry.scanRecord = null;
+                mEntryPool.add(entry);
+            }
+            batch.clear();
+            mSpare = batch;
+            mDeliveredCount += count;
+        }
+        return count;
+    }
+
+    synchronized int size() {
+        return mPending.size();
+    }
+
+    synchronized long getReceivedCount() {
+        return mReceivedCount;
+    }
+
+    synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    synchronized long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+}
@@ -0,0 +1,176 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothProfile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Actions queued from many threads at the same time against a simulated peripheral: all of them should be executed (or cancelled), one at a time
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class BleGattExecutorStressTest {
+    // Constants
+    private static final UUID kUartServiceUUID = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID kUartTxCharacteristicUUID = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID kDisServiceUUID = UUID.fromString("0000180A-0000-1000-8000-00805F9B34FB");
+    private static final UUID kManufacturerNameCharacteristicUUID = UUID.fromString("00002A29-0000-1000-8000-00805F9B34FB");
+
+    private static final int kProducerThreads = 16;
+    private static final int kActionsPerThread = 500;
+    private static final long kTimeoutSeconds = 60;
+
+    // Data
+    private BleGattExecutor mExecutor;
+    private InFlightCheckingTransport mTransport;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        final CountDownLatch connectedLatch = new CountDownLatch(1);
+        mExecutor = new BleGattExecutor() {
+            @Override
+            public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+                super.onConnectionStateChange(gatt, status, newState);
+                if (newState == BluetoothProfile.STATE_CONNECTED) {
+                    connectedLatch.countDown();
+                }
+            }
+        };
+
+        SimulatedPeripheral.Config config = new SimulatedPeripheral.Config();
+        config.latencyMillis = 0;
+        mTransport = new InFlightCheckingTransport(new SimulatedPeripheral(config));
+        mTransport.connectGatt(mExecutor);
+        assertTrue("Simulated peripheral not connected", connectedLatch.await(kTimeoutSeconds, TimeUnit.SECONDS));
+        mExecutor.execute(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.quit();
+        mTransport.close();
+    }
+
+    @Test
+    public void enqueueFromManyThreads() throws InterruptedException {
+        final BluetoothGattCharacteristic txCharacteristic = mTransport.getService(kUartServiceUUID).getCharacteristic(kUartTxCharacteristicUUID);
+        final BluetoothGattCharacteristic manufacturerCharacteristic = mTransport.getService(kDisServiceUUID).getCharacteristic(kManufacturerNameCharacteristicUUID);
+
+        // Producers: writes (with and without response, in both lanes) and reads, started at the same time
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<BleFuture<?>> futures = Collections.synchronizedList(new ArrayList<BleFuture<?>>());
+        final AtomicInteger failedProducers = new AtomicInteger();
+        Thread[] producers = new Thread[kProducerThreads];
+        for (int i = 0; i < kProducerThreads; i++) {
+            final int producerIndex = i;
+            producers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int j = 0; j < kActionsPerThread; j++) {
+                            if (j % 5 == 4) {
+                                final BleFuture<byte[]> future = new BleFuture<>();
+                                futures.add(future);
+                                mExecutor.read(manufacturerCharacteristic, BleManager.PRIORITY_CONTROL, future);
+                            } else {
+                                final BleFuture<Void> future = new BleFuture<>();
+                                futures.add(future);
+                                final byte[] value = {(byte) producerIndex, (byte) j};
+                                mExecutor.write(txCharacteristic, value, j % 2 == 0, false, j % 3 == 0 ? BleManager.PRIORITY_CONTROL : BleManager.PRIORITY_BULK, future);
+                            }
+                            mExecutor.execute(mTransport);
+                        }
+                    } catch (InterruptedException e) {
+                        failedProducers.incrementAndGet();
+                    }
+                }
+            });
+            producers[i].start();
+        }
+        startLatch.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(0, failedProducers.get());
+
+        // Check that every action has finished successfully
+        final int actionsCount = kProducerThreads * kActionsPerThread;
+        assertEquals(actionsCount, futures.size());
+        final long deadlineMillis = System.currentTimeMillis() + kTimeoutSeconds * 1000;
+        int completedCount = 0;
+        for (BleFuture<?> future : futures) {
+            try {
+                future.get(Math.max(0, deadlineMillis - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                break;
+            }
+            assertTrue("Action failed with status: " + future.getStatus(), future.isSuccess());
+            completedCount++;
+        }
+        assertEquals("Actions not completed", actionsCount, completedCount);
+        assertEquals(actionsCount, mTransport.getOperationsCount());
+
+        // Check that the transport has never had more than one operation in flight
+        assertEquals(1, mTransport.getMaxInFlight());
+        assertEquals(0, mExecutor.getMetrics().getTimeouts());
+    }
+
+    @Test
+    public void clearWhileWritesAreCoalesced() throws InterruptedException {
+        final BluetoothGattCharacteristic txCharacteristic = mTransport.getService(kUartServiceUUID).getCharacteristic(kUartTxCharacteristicUUID);
+        final BluetoothGattCharacteristic manufacturerCharacteristic = mTransport.getService(kDisServiceUUID).getCharacteristic(kManufacturerNameCharacteristicUUID);
+        mExecutor.setMaxWritePayloadSize(244);
+
+        // Coalesced writes followed by reads with futures, while other thread clears the queues (like a disconnection does)
+        final List<BleFuture<byte[]>> futures = new ArrayList<>();
+        Thread clearThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 200; i++) {
+                    mExecutor.clear();
+                    Thread.yield();
+                }
+            }
+        });
+        clearThread.start();
+        for (int i = 0; i < kActionsPerThread * 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                mExecutor.write(txCharacteristic, new byte[]{(byte) i, (byte) j}, false, true, BleManager.PRIORITY_BULK, null);
+            }
+            final BleFuture<byte[]> future = new BleFuture<>();
+            futures.add(future);
+            mExecutor.read(manufacturerCharacteristic, BleManager.PRIORITY_BULK, future);
+            mExecutor.execute(mTransport);
+        }
+        clearThread.join();
+
+        // Every read has been executed or cancelled
+        for (BleFuture<byte[]> future : futures) {
+            try {
+                future.get(kTimeoutSeconds, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                fail("Read neither executed nor cancelled");
+            }
+            assertTrue("Read failed with status: " + future.getStatus(), future.isSuccess() || future.getStatus() == BleFuture.STATUS_CANCELLED);
+        }
+    }
+}
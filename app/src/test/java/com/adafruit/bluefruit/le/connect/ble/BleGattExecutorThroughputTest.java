@@ -0,0 +1,166 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Uart throughput against a simulated peripheral that echoes the data written to TX as RX notifications
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class BleGattExecutorThroughputTest {
+    // Constants
+    private static final UUID kUartServiceUUID = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID kUartTxCharacteristicUUID = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID kUartRxCharacteristicUUID = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+
+    private static final int kMtu = 247;
+    private static final int kMaxWritePayloadSize = kMtu - 3;
+    private static final long kLatencyMillis = 1;
+    private static final long kTimeoutSeconds = 60;
+
+    // Data
+    private BleGattExecutor mExecutor;
+    private InFlightCheckingTransport mTransport;
+    private BluetoothGattCharacteristic mTxCharacteristic;
+    private final ByteArrayOutputStream mReceivedData = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() throws Exception {
+        final CountDownLatch connectedLatch = new CountDownLatch(1);
+        mExecutor = new BleGattExecutor() {
+            @Override
+            public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+                super.onConnectionStateChange(gatt, status, newState);
+                if (newState == BluetoothProfile.STATE_CONNECTED) {
+                    connectedLatch.countDown();
+                }
+            }
+
+            @Override
+            public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                super.onCharacteristicChanged(gatt, characteristic);
+                synchronized (mReceivedData) {
+                    final byte[] value = characteristic.getValue();
+                    mReceivedData.write(value, 0, value.length);
+                    mReceivedData.notifyAll();
+                }
+            }
+        };
+
+        SimulatedPeripheral.Config config = new SimulatedPeripheral.Config();
+        config.latencyMillis = kLatencyMillis;
+        config.maxMtu = kMtu;
+        mTransport = new InFlightCheckingTransport(new SimulatedPeripheral(config));
+        mTransport.connectGatt(mExecutor);
+        assertTrue("Simulated peripheral not connected", connectedLatch.await(kTimeoutSeconds, TimeUnit.SECONDS));
+        mExecutor.execute(mTransport);
+
+        // Enable the rx notifications and negotiate the mtu
+        final BluetoothGattService uartService = mTransport.getService(kUartServiceUUID);
+        mTxCharacteristic = uartService.getCharacteristic(kUartTxCharacteristicUUID);
+        BleFuture<Void> notificationFuture = new BleFuture<>();
+        mExecutor.enableNotification(uartService.getCharacteristic(kUartRxCharacteristicUUID), true, notificationFuture);
+        mExecutor.requestMtu(kMtu);
+        mExecutor.setMaxWritePayloadSize(kMaxWritePayloadSize);
+        mExecutor.execute(mTransport);
+        notificationFuture.get(kTimeoutSeconds, TimeUnit.SECONDS);
+        assertTrue(notificationFuture.isSuccess());
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.quit();
+        mTransport.close();
+    }
+
+    @Test
+    public void writesWithResponse() throws Exception {
+        final byte[] data = createData(64 * 1024);
+        final int operationsCount = mTransport.getOperationsCount();
+
+        final long startNanos = System.nanoTime();
+        final List<BleFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < data.length; i += kMaxWritePayloadSize) {
+            BleFuture<Void> future = new BleFuture<>();
+            futures.add(future);
+            mExecutor.write(mTxCharacteristic, Arrays.copyOfRange(data, i, Math.min(i + kMaxWritePayloadSize, data.length)), true, false, BleManager.PRIORITY_BULK, future);
+        }
+        mExecutor.execute(mTransport);
+        for (BleFuture<Void> future : futures) {
+            future.get(kTimeoutSeconds, TimeUnit.SECONDS);
+            assertTrue("Write failed with status: " + future.getStatus(), future.isSuccess());
+        }
+        assertArrayEquals(data, waitForReceivedData(data.length));
+        printThroughput("writesWithResponse", data.length, startNanos);
+
+        assertEquals(futures.size(), mTransport.getOperationsCount() - operationsCount);
+        assertEquals(1, mTransport.getMaxInFlight());
+        assertEquals(0, mExecutor.getMetrics().getTimeouts());
+    }
+
+    @Test
+    public void coalescedWrites() throws Exception {
+        final byte[] data = createData(64 * 1024);
+        final int chunkSize = 16;
+        final int operationsCount = mTransport.getOperationsCount();
+
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < data.length; i += chunkSize) {
+            mExecutor.write(mTxCharacteristic, Arrays.copyOfRange(data, i, Math.min(i + chunkSize, data.length)), false, true, BleManager.PRIORITY_BULK, null);
+            mExecutor.execute(mTransport);
+        }
+        assertArrayEquals(data, waitForReceivedData(data.length));
+        printThroughput("coalescedWrites", data.length, startNanos);
+
+        // The small writes are merged in bigger packets, and sent in the same order
+        final int writesCount = (data.length + chunkSize - 1) / chunkSize;
+        assertTrue("Writes not coalesced", mTransport.getOperationsCount() - operationsCount < writesCount);
+        assertEquals(1, mTransport.getMaxInFlight());
+        assertEquals(0, mExecutor.getMetrics().getTimeouts());
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + i / 256);
+        }
+        return data;
+    }
+
+    private byte[] waitForReceivedData(int length) throws InterruptedException {
+        final long deadlineMillis = System.currentTimeMillis() + kTimeoutSeconds * 1000;
+        synchronized (mReceivedData) {
+            long remainingMillis;
+            while (mReceivedData.size() < length && (remainingMillis = deadlineMillis - System.currentTimeMillis()) > 0) {
+                mReceivedData.wait(remainingMillis);
+            }
+            return mReceivedData.toByteArray();
+        }
+    }
+
+    private static void printThroughput(String name, int length, long startNanos) {
+        final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.println(String.format(Locale.US, "%s: %d bytes in %.2fs (%.1f KB/s)", name, length, elapsedSeconds, length / 1024.0 / elapsedSeconds));
+    }
+}
@@ -0,0 +1,361 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Timeouts and retries of the actions: late callbacks, writes, reliable writes and operations rejected by the transport
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class BleGattExecutorTimeoutTest {
+    // Constants
+    private static final long kActionTimeoutMillis = 100;
+    private static final long kFutureTimeoutSeconds = 5;
+    private static final long kLost = -1;              // Delay used to lose a callback
+
+    // Data
+    private BleGattExecutor mExecutor;
+    private ScriptedTransport mTransport;
+    private BluetoothGattCharacteristic mCharacteristic;
+
+    @Before
+    public void setUp() {
+        mExecutor = new BleGattExecutor();
+        mExecutor.setActionTimeout(kActionTimeoutMillis, 1);
+        mTransport = new ScriptedTransport(mExecutor);
+        mCharacteristic = new BluetoothGattCharacteristic(UUID.randomUUID(), BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_WRITE, BluetoothGattCharacteristic.PERMISSION_READ | BluetoothGattCharacteristic.PERMISSION_WRITE);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.quit();
+        mTransport.close();
+    }
+
+    @Test
+    public void lateCallbackIsNotTakenAsTheResultOfTheRetry() throws Exception {
+        // The first read answers after its timeout. The retry and the next read answer in time
+        mTransport.enqueueCallbackDelays(kActionTimeoutMillis * 3 / 2, 10, 10);
+
+        BleFuture<byte[]> firstRead = new BleFuture<>();
+        BleFuture<byte[]> secondRead = new BleFuture<>();
+        mExecutor.read(mCharacteristic, BleManager.PRIORITY_CONTROL, firstRead);
+        mExecutor.read(mCharacteristic, BleManager.PRIORITY_CONTROL, secondRead);
+        mExecutor.execute(mTransport);
+
+        // Each read callback returns the number of the operation that produced it
+        assertEquals(2, firstRead.get(kFutureTimeoutSeconds, TimeUnit.SECONDS)[0]);
+        assertEquals(3, secondRead.get(kFutureTimeoutSeconds, TimeUnit.SECONDS)[0]);
+        assertEquals(1, mTransport.getMaxInFlight());
+        assertEquals(1, mExecutor.getMetrics().getTimeouts());
+    }
+
+    @Test
+    public void writesAreNotRetriedByDefault() throws Exception {
+        mTransport.enqueueCallbackDelays(kLost);
+
+        BleFuture<Void> write = new BleFuture<>();
+        mExecutor.write(mCharacteristic, new byte[]{1}, true, false, BleManager.PRIORITY_BULK, write);
+        mExecutor.execute(mTransport);
+
+        write.get(kFutureTimeoutSeconds, TimeUnit.SECONDS);
+        assertEquals(BleFuture.STATUS_TIMEOUT, write.getStatus());
+        assertEquals(1, mTransport.getOperationsCount());
+    }
+
+    @Test
+    public void writesAreRetriedIfEnabled() throws Exception {
+        mTransport.enqueueCallbackDelays(kLost, 10);
+        mExecutor.setWriteRetryEnabled(true);
+
+        BleFuture<Void> write = new BleFuture<>();
+        mExecutor.write(mCharacteristic, new byte[]{1}, true, false, BleManager.PRIORITY_BULK, write);
+        mExecutor.execute(mTransport);
+
+        write.get(kFutureTimeoutSeconds, TimeUnit.SECONDS);
+        assertTrue(write.isSuccess());
+        assertEquals(2, mTransport.getOperationsCount());
+    }
+
+    @Test
+    public void operationRejectedByTheTransportFailsImmediately() throws Exception {
+        mTransport.setRejectingOperations(true);
+
+        BleFuture<Void> write = new BleFuture<>();
+        final long startMillis = System.currentTimeMillis();
+        mExecutor.write(mCharacteristic, new byte[]{1}, true, false, BleManager.PRIORITY_BULK, write);
+        mExecutor.execute(mTransport);
+
+        write.get(kFutureTimeoutSeconds, TimeUnit.SECONDS);
+        assertEquals(BluetoothGatt.GATT_FAILURE, write.getStatus());
+        assertTrue("Waited for the timeout", System.currentTimeMillis() - startMillis < kActionTimeoutMillis);
+        assertEquals(0, mExecutor.getMetrics().getTimeouts());
+    }
+
+    @Test
+    public void reliableWriteRetryWaitsForTheAbortOfThePreviousAttempt() throws Exception {
+        // The first prepared write is lost. The retry has to abort the transaction and wait for the abort callback before starting a new one
+        mTransport.enqueueCallbackDelays(kLost);
+        mExecutor.setWriteRetryEnabled(true);
+
+        BluetoothGattCharacteristic secondCharacteristic = new BluetoothGattCharacteristic(UUID.randomUUID(), BluetoothGattCharacteristic.PROPERTY_WRITE, BluetoothGattCharacteristic.PERMISSION_WRITE);
+        BleFuture<Void> write = new BleFuture<>();
+        mExecutor.reliableWrite(new BluetoothGattCharacteristic[]{mCharacteristic, secondCharacteristic}, new byte[][]{{1}, {2}}, BleManager.PRIORITY_BULK, write);
+        mExecutor.execute(mTransport);
+
+        write.get(kFutureTimeoutSeconds, TimeUnit.SECONDS);
+        assertTrue("Reliable write failed with status: " + write.getStatus(), write.isSuccess());
+        assertEquals(Arrays.asList("begin", "write", "abort", "begin", "write", "write", "execute"), mTransport.getOperations());
+        assertEquals(1, mTransport.getMaxInFlight());
+    }
+
+    @Test
+    public void failedWriteDoesNotRefillTheWriteWithoutResponseCredits() throws Exception {
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(UUID.randomUUID(), BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE, BluetoothGattCharacteristic.PERMISSION_WRITE);
+        final int creditsCount = 8;
+
+        // The credits are spent, so the next write is sent with response. It fails, so the write after it is also sent with response
+        for (int i = 0; i < creditsCount; i++) {
+            mTransport.enqueueWriteStatuses(BluetoothGatt.GATT_SUCCESS);
+        }
+        mTransport.enqueueWriteStatuses(BluetoothGatt.GATT_FAILURE, BluetoothGatt.GATT_SUCCESS);
+        final List<BleFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < creditsCount + 3; i++) {
+            BleFuture<Void> write = new BleFuture<>();
+            writes.add(write);
+            mExecutor.write(characteristic, new byte[]{(byte) i}, false, false, BleManager.PRIORITY_BULK, write);
+        }
+        mExecutor.execute(mTransport);
+        for (BleFuture<Void> write : writes) {
+            write.get(kFutureTimeoutSeconds, TimeUnit.SECONDS);
+        }
+
+        final List<String> expectedOperations = new ArrayList<>(Collections.nCopies(creditsCount, "writeNoResponse"));
+        expectedOperations.addAll(Arrays.asList("write", "write", "writeNoResponse"));     // The acknowledged write that succeeds refills the credits
+        assertEquals(expectedOperations, mTransport.getOperations());
+        assertEquals(BluetoothGatt.GATT_FAILURE, writes.get(creditsCount).getStatus());
+    }
+
+    @Test
+    public void stepStartedIsNotAStatus() {
+        for (int status : new int[]{BluetoothGatt.GATT_SUCCESS, BluetoothGatt.GATT_FAILURE, BleFuture.STATUS_TIMEOUT, BleFuture.STATUS_CANCELLED}) {
+            assertTrue(status != BleGattExecutor.MultiStepAction.STEP_STARTED);
+        }
+    }
+
+    // Transport that answers each operation after the next delay of a script (10ms when the script is empty). Read callbacks return the number of the operation
+    private static class ScriptedTransport implements GattTransport {
+        private final BleGattExecutor mExecutor;
+        private final ScheduledExecutorService mCallbackExecutor = Executors.newSingleThreadScheduledExecutor();
+        private final ConcurrentLinkedQueue<Long> mCallbackDelays = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger mOperationsCount = new AtomicInteger();
+        private final AtomicInteger mInFlight = new AtomicInteger();
+        private final AtomicInteger mMaxInFlight = new AtomicInteger();
+        private final List<String> mOperations = Collections.synchronizedList(new ArrayList<String>());
+        private final ConcurrentLinkedQueue<Integer> mWriteStatuses = new ConcurrentLinkedQueue<>();
+        private volatile boolean mIsRejectingOperations;
+        private volatile boolean mIsReliableWriteInProgress;
+
+        ScriptedTransport(BleGattExecutor executor) {
+            mExecutor = executor;
+        }
+
+        void enqueueCallbackDelays(long... delaysMillis) {
+            for (long delay : delaysMillis) {
+                mCallbackDelays.add(delay);
+            }
+        }
+
+        // Statuses of the next write callbacks (GATT_SUCCESS when the script is empty)
+        void enqueueWriteStatuses(int... statuses) {
+            for (int status : statuses) {
+                mWriteStatuses.add(status);
+            }
+        }
+
+        void setRejectingOperations(boolean rejecting) {
+            mIsRejectingOperations = rejecting;
+        }
+
+        int getOperationsCount() {
+            return mOperationsCount.get();
+        }
+
+        // Operations started and not answered (lost callbacks are not counted)
+        int getMaxInFlight() {
+            return mMaxInFlight.get();
+        }
+
+        // Names of the operations in the order that they were requested (only the writes and the ones used by reliable writes are recorded)
+        List<String> getOperations() {
+            synchronized (mOperations) {
+                return new ArrayList<>(mOperations);
+            }
+        }
+
+        private boolean schedule(final Runnable callback) {
+            if (mIsRejectingOperations) {
+                return false;
+            }
+
+            mOperationsCount.incrementAndGet();
+            final Long delay = mCallbackDelays.poll();
+            if (delay == null || delay != kLost) {
+                mMaxInFlight.set(Math.max(mMaxInFlight.get(), mInFlight.incrementAndGet()));
+                mCallbackExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        mInFlight.decrementAndGet();
+                        callback.run();
+                    }
+                }, delay == null ? 10 : delay, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean readCharacteristic(final BluetoothGattCharacteristic characteristic) {
+            final byte operation = (byte) (mOperationsCount.get() + 1);
+            return schedule(new Runnable() {
+                @Override
+                public void run() {
+                    characteristic.setValue(new byte[]{operation});
+                    mExecutor.onCharacteristicRead(null, characteristic, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public boolean writeCharacteristic(final BluetoothGattCharacteristic characteristic) {
+            mOperations.add(characteristic.getWriteType() == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE ? "writeNoResponse" : "write");
+            final Integer status = mWriteStatuses.poll();
+            return schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mExecutor.onCharacteristicWrite(null, characteristic, status != null ? status : BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public boolean beginReliableWrite() {
+            mOperations.add("begin");
+            mIsReliableWriteInProgress = true;
+            return true;
+        }
+
+        @Override
+        public boolean executeReliableWrite() {
+            mOperations.add("execute");
+            return finishReliableWrite();
+        }
+
+        // Like the Android stack, the abort is confirmed with onReliableWriteCompleted
+        @Override
+        public void abortReliableWrite() {
+            mOperations.add("abort");
+            finishReliableWrite();
+        }
+
+        private boolean finishReliableWrite() {
+            if (!mIsReliableWriteInProgress) {
+                return false;
+            }
+            mIsReliableWriteInProgress = false;
+            return schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mExecutor.onReliableWriteCompleted(null, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            mCallbackExecutor.shutdownNow();
+        }
+
+        // region Not used
+        @Override
+        public boolean connect() {
+            return false;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean discoverServices() {
+            return false;
+        }
+
+        @Override
+        public List<BluetoothGattService> getServices() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public BluetoothGattService getService(UUID uuid) {
+            return null;
+        }
+
+        @Override
+        public boolean readDescriptor(BluetoothGattDescriptor descriptor) {
+            return false;
+        }
+
+        @Override
+        public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+            return false;
+        }
+
+        @Override
+        public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+            return false;
+        }
+
+        @Override
+        public boolean readRemoteRssi() {
+            return false;
+        }
+
+        @Override
+        public boolean requestMtu(int mtu) {
+            return false;
+        }
+
+        @Override
+        public boolean requestConnectionPriority(int connectionPriority) {
+            return false;
+        }
+
+        @Override
+        public boolean setPreferredPhy(int txPhy, int rxPhy, int phyOptions) {
+            return false;
+        }
+        // endregion
+    }
+}
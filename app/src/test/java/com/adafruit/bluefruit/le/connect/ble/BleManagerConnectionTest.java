@@ -0,0 +1,116 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.content.Context;
+import android.preference.PreferenceManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Connections started with BleManager.connect(Context, String) and the default preferences, against a simulated peripheral
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class BleManagerConnectionTest {
+    // Constants
+    private static final long kLatencyMillis = 50;
+    private static final long kTimeoutSeconds = 10;
+
+    // Data
+    private Context mContext;
+    private SimulatedPeripheral mPeripheral;
+    private BleManager mBleManager;
+    private final CountDownLatch mServicesDiscoveredLatch = new CountDownLatch(1);
+    private final CountDownLatch mDisconnectedLatch = new CountDownLatch(1);
+    private final AtomicInteger mConnectedCount = new AtomicInteger();
+    private final AtomicInteger mDisconnectedCount = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit().clear().commit();
+
+        SimulatedPeripheral.Config config = new SimulatedPeripheral.Config();
+        config.latencyMillis = kLatencyMillis;
+        mPeripheral = new SimulatedPeripheral(config);
+        mBleManager = new BleManager(mContext) {
+            @Override
+            GattTransport connectGatt(Context context, String address, boolean autoConnect, BluetoothGattCallback callback) {
+                return mPeripheral.connectGatt(callback);
+            }
+        };
+        mBleManager.addBleListener(new BleManager.BleManagerListener() {
+            @Override
+            public void onConnected() {
+                mConnectedCount.incrementAndGet();
+            }
+
+            @Override
+            public void onConnecting() {
+            }
+
+            @Override
+            public void onDisconnected() {
+                mDisconnectedCount.incrementAndGet();
+                mDisconnectedLatch.countDown();
+            }
+
+            @Override
+            public void onServicesDiscovered() {
+                mServicesDiscoveredLatch.countDown();
+            }
+
+            @Override
+            public void onDataAvailable(CharacteristicValue value) {
+            }
+
+            @Override
+            public void onDataAvailable(BluetoothGattDescriptor descriptor) {
+            }
+
+            @Override
+            public void onReadRemoteRssi(int rssi) {
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mBleManager.release();
+    }
+
+    @Test
+    public void connectsWithTheDefaultPreferences() throws InterruptedException {
+        assertTrue(mBleManager.connect(mContext, mPeripheral.getAddress()));
+        assertTrue("Services not discovered", mServicesDiscoveredLatch.await(kTimeoutSeconds, TimeUnit.SECONDS));
+
+        // The connection is kept (it is not taken as a stale connection after the close done by connect)
+        Thread.sleep(kLatencyMillis * 4);
+        assertEquals(BleManager.STATE_CONNECTED, mBleManager.getState());
+        assertEquals(1, mConnectedCount.get());
+        assertEquals(0, mDisconnectedCount.get());
+    }
+
+    @Test
+    public void connectionFinishedAfterDisconnectIsDiscarded() throws InterruptedException {
+        assertTrue(mBleManager.connect(mContext, mPeripheral.getAddress()));
+        mBleManager.disconnect();       // Before the peripheral has answered the connection
+
+        assertTrue("Disconnection not reported", mDisconnectedLatch.await(kTimeoutSeconds, TimeUnit.SECONDS));
+        Thread.sleep(kLatencyMillis * 4);
+        assertEquals(BleManager.STATE_DISCONNECTED, mBleManager.getState());
+        assertEquals(0, mConnectedCount.get());
+    }
+}
@@ -0,0 +1,209 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// GattTransport that wraps a SimulatedPeripheral and records how many operations are waiting for their callback at the same time
+// The Android stack only allows one gatt operation in flight, so getMaxInFlight() should always be 1 (or 0 if nothing was sent)
+class InFlightCheckingTransport implements GattTransport {
+    // Data
+    private final SimulatedPeripheral mPeripheral;
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicInteger mMaxInFlight = new AtomicInteger();
+    private final AtomicInteger mOperationsCount = new AtomicInteger();
+    private volatile boolean mIsReliableWriteInProgress;
+
+    InFlightCheckingTransport(SimulatedPeripheral peripheral) {
+        mPeripheral = peripheral;
+    }
+
+    // Equivalent to SimulatedPeripheral.connectGatt. The callbacks are forwarded to callback after updating the operations in flight
+    GattTransport connectGatt(final BluetoothGattCallback callback) {
+        mPeripheral.connectGatt(new BluetoothGattCallback() {
+            @Override
+            public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+                callback.onConnectionStateChange(gatt, status, newState);
+            }
+
+            @Override
+            public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+                callback.onServicesDiscovered(gatt, status);
+            }
+
+            @Override
+            public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                onOperationFinished();
+                callback.onCharacteristicRead(gatt, characteristic, status);
+            }
+
+            @Override
+            public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                onOperationFinished();
+                callback.onCharacteristicWrite(gatt, characteristic, status);
+            }
+
+            @Override
+            public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                callback.onCharacteristicChanged(gatt, characteristic);
+            }
+
+            @Override
+            public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+                onOperationFinished();
+                callback.onDescriptorRead(gatt, descriptor, status);
+            }
+
+            @Override
+            public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+                onOperationFinished();
+                callback.onDescriptorWrite(gatt, descriptor, status);
+            }
+
+            @Override
+            public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
+                onOperationFinished();
+                callback.onReliableWriteCompleted(gatt, status);
+            }
+
+            @Override
+            public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+                onOperationFinished();
+                callback.onReadRemoteRssi(gatt, rssi, status);
+            }
+
+            @Override
+            public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+                onOperationFinished();
+                callback.onMtuChanged(gatt, mtu, status);
+            }
+        });
+        return this;
+    }
+
+    int getMaxInFlight() {
+        return mMaxInFlight.get();
+    }
+
+    int getOperationsCount() {
+        return mOperationsCount.get();
+    }
+
+    private boolean onOperationStarted(boolean isStarted) {
+        if (isStarted) {
+            mOperationsCount.incrementAndGet();
+            final int inFlight = mInFlight.incrementAndGet();
+            int maxInFlight;
+            while (inFlight > (maxInFlight = mMaxInFlight.get()) && !mMaxInFlight.compareAndSet(maxInFlight, inFlight)) {
+            }
+        }
+        return isStarted;
+    }
+
+    private void onOperationFinished() {
+        mInFlight.decrementAndGet();
+    }
+
+    // region GattTransport
+    @Override
+    public boolean connect() {
+        return mPeripheral.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        mPeripheral.disconnect();
+    }
+
+    @Override
+    public void close() {
+        mPeripheral.close();
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return mPeripheral.discoverServices();
+    }
+
+    @Override
+    public List<BluetoothGattService> getServices() {
+        return mPeripheral.getServices();
+    }
+
+    @Override
+    public BluetoothGattService getService(UUID uuid) {
+        return mPeripheral.getService(uuid);
+    }
+
+    @Override
+    public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return onOperationStarted(mPeripheral.readCharacteristic(characteristic));
+    }
+
+    @Override
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return onOperationStarted(mPeripheral.writeCharacteristic(characteristic));
+    }
+
+    @Override
+    public boolean readDescriptor(BluetoothGattDescriptor descriptor) {
+        return onOperationStarted(mPeripheral.readDescriptor(descriptor));
+    }
+
+    @Override
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+        return onOperationStarted(mPeripheral.writeDescriptor(descriptor));
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        return mPeripheral.setCharacteristicNotification(characteristic, enable);
+    }
+
+    @Override
+    public boolean readRemoteRssi() {
+        return onOperationStarted(mPeripheral.readRemoteRssi());
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        return onOperationStarted(mPeripheral.requestMtu(mtu));
+    }
+
+    @Override
+    public boolean beginReliableWrite() {
+        mIsReliableWriteInProgress = mPeripheral.beginReliableWrite();
+        return mIsReliableWriteInProgress;
+    }
+
+    @Override
+    public boolean executeReliableWrite() {
+        mIsReliableWriteInProgress = false;
+        return onOperationStarted(mPeripheral.executeReliableWrite());
+    }
+
+    // Only produces a callback if there was a reliable write in progress
+    @Override
+    public void abortReliableWrite() {
+        onOperationStarted(mIsReliableWriteInProgress);
+        mIsReliableWriteInProgress = false;
+        mPeripheral.abortReliableWrite();
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int connectionPriority) {
+        return mPeripheral.requestConnectionPriority(connectionPriority);
+    }
+
+    @Override
+    public boolean setPreferredPhy(int txPhy, int rxPhy, int phyOptions) {
+        return mPeripheral.setPreferredPhy(txPhy, rxPhy, phyOptions);
+    }
+    // endregion
+}
@@ -0,0 +1,489 @@
+package com.adafruit.bluefruit.le.connect.ble;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// In-process peripheral used to test and benchmark the gatt queue without a radio. It implements:
+// - Nordic UART service: data written to TX is echoed back as notifications on RX (split using the negotiated mtu)
+// - Device Information service: manufacturer, model, firmware and software revisions
+// - Firmata (optional): capability, analog mapping and pin state queries received on the UART are answered like a Bluefruit running the Firmata sketch. Other Firmata messages are echoed
+// - Long and reliable writes: values written during a reliable write are only applied when it is executed
+// Callbacks are called from a single background thread (like the binder thread of the Android stack) after the configured latency. The gatt parameter of the callbacks is always null
+// The attribute table uses the Android BluetoothGatt* classes, so on a plain JVM it runs as a Robolectric unit test (see BleGattExecutorThroughputTest)
+// It is only in the test source set. Connect BleManager to it by overriding BleManager.connectGatt (see BleManagerConnectionTest)
+public class SimulatedPeripheral implements GattTransport {
+    // Log
+    private final static String TAG = SimulatedPeripheral.class.getSimpleName();
+
+    // Constants
+    private static final UUID kUartServiceUUID = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID kUartRxCharacteristicUUID = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID kUartTxCharacteristicUUID = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID kDisServiceUUID = UUID.fromString("0000180A-0000-1000-8000-00805F9B34FB");
+    private static final UUID kModelNumberCharacteristicUUID = UUID.fromString("00002A24-0000-1000-8000-00805F9B34FB");
+    private static final UUID kManufacturerNameCharacteristicUUID = UUID.fromString("00002A29-0000-1000-8000-00805F9B34FB");
+    private static final UUID kSoftwareRevisionCharacteristicUUID = UUID.fromString("00002A28-0000-1000-8000-00805F9B34FB");
+    private static final UUID kFirmwareRevisionCharacteristicUUID = UUID.fromString("00002A26-0000-1000-8000-00805F9B34FB");
+    private static final UUID kClientCharacteristicConfigUUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private static final int kDefaultMtu = 23;
+    private static final int kAttWriteOverhead = 3;
+    private static final int kPrepareWriteOverhead = 5;
+    private static final int kMaxAttributeLength = 512;
+    private static final int kStatusConnectionTimeout = 8;         // Status reported by Android when the link is lost (supervision timeout)
+    private static final int kStatusGattError = 133;               // Status reported by Android when a connection attempt fails
+
+    private static final byte kSysexStart = (byte) 0xF0;
+    private static final byte kSysexEnd = (byte) 0xF7;
+    private static final byte kSysexCapabilityQuery = 0x6B;
+    private static final byte kSysexCapabilityResponse = 0x6C;
+    private static final byte kSysexAnalogMappingQuery = 0x69;
+    private static final byte kSysexAnalogMappingResponse = 0x6A;
+    private static final byte kSysexPinStateQuery = 0x6D;
+    private static final byte kSysexPinStateResponse = 0x6E;
+    private static final int kFirmataDigitalPins = 6;      // Pins 0-5: digital input/output + pwm
+    private static final int kFirmataAnalogPins = 2;       // Pins 6-7: digital input/output + analog
+
+    // Simulation parameters
+    public static class Config {
+        public String address = "00:11:22:33:44:55";
+        public long latencyMillis = 7;             // Time from an operation to its callback (and from a write on TX to its echo)
+        public int maxMtu = 247;                   // Max mtu accepted by the peripheral
+        public float lossProbability = 0;          // Probability (0-1) that the callback for an operation is lost. Notifications are never lost (the link layer retransmits them)
+        public int rssi = -60;
+        public float rssiNoise = 0;                // Standard deviation (dB) of the gaussian noise added to each rssi read
+        public boolean isFirmataEnabled = false;
+        public String manufacturer = "Adafruit Industries";
+        public String modelNumber = "BLEFRIEND32";
+        public String firmwareRevision = "S110 8.0.0, 0.2";
+        public String softwareRevision = "0.7.0";
+        public long randomSeed = 0;
+    }
+
+    // Data
+    private final Config mConfig;
+    private final Random mRandom;
+    private final ScheduledExecutorService mCallbackExecutor;
+    private final List<BluetoothGattService> mServices = new ArrayList<>();
+    private final IdentityHashMap<BluetoothGattCharacteristic, byte[]> mValues = new IdentityHashMap<>();        // Values stored on the peripheral (only accessed from the callback thread)
+    private final BluetoothGattCharacteristic mUartRxCharacteristic;
+    private final BluetoothGattCharacteristic mUartTxCharacteristic;
+    private BluetoothGattCallback mCallback;
+    private volatile boolean mIsClosed;
+    private volatile int mMtu = kDefaultMtu;
+    private volatile int mFailedConnectionsLeft;                                // Connection attempts that will fail (to simulate a peripheral out of range)
+    private boolean mIsRxNotifyEnabled;                                         // Only accessed from the callback thread
+    private volatile boolean mIsReliableWriteInProgress;
+    private final List<BluetoothGattCharacteristic> mPreparedCharacteristics = new ArrayList<>();      // Writes of the reliable write in progress (only accessed from the callback thread)
+    private final List<byte[]> mPreparedValues = new ArrayList<>();
+    private final ByteArrayOutputStream mSysexBuffer = new ByteArrayOutputStream();
+    private boolean mIsReceivingSysex;
+
+    public SimulatedPeripheral(Config config) {
+        mConfig = config;
+        mRandom = new Random(config.randomSeed);
+        mCallbackExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // Uart
+        BluetoothGattService uartService = new BluetoothGattService(kUartServiceUUID, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        mUartTxCharacteristic = new BluetoothGattCharacteristic(kUartTxCharacteristicUUID, BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE, BluetoothGattCharacteristic.PERMISSION_WRITE);
+        mUartRxCharacteristic = new BluetoothGattCharacteristic(kUartRxCharacteristicUUID, BluetoothGattCharacteristic.PROPERTY_NOTIFY, BluetoothGattCharacteristic.PERMISSION_READ);
+        mUartRxCharacteristic.addDescriptor(new BluetoothGattDescriptor(kClientCharacteristicConfigUUID, BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE));
+        uartService.addCharacteristic(mUartTxCharacteristic);
+        uartService.addCharacteristic(mUartRxCharacteristic);
+        mServices.add(uartService);
+
+        // Device Information
+        BluetoothGattService disService = new BluetoothGattService(kDisServiceUUID, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        addReadOnlyCharacteristic(disService, kManufacturerNameCharacteristicUUID, config.manufacturer);
+        addReadOnlyCharacteristic(disService, kModelNumberCharacteristicUUID, config.modelNumber);
+        addReadOnlyCharacteristic(disService, kFirmwareRevisionCharacteristicUUID, config.firmwareRevision);
+        addReadOnlyCharacteristic(disService, kSoftwareRevisionCharacteristicUUID, config.softwareRevision);
+        mServices.add(disService);
+    }
+
+    private void addReadOnlyCharacteristic(BluetoothGattService service, UUID uuid, String value) {
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(uuid, BluetoothGattCharacteristic.PROPERTY_READ, BluetoothGattCharacteristic.PERMISSION_READ);
+        service.addCharacteristic(characteristic);
+        mValues.put(characteristic, value.getBytes());
+    }
+
+    public String getAddress() {
+        return mConfig.address;
+    }
+
+    // Equivalent to BluetoothDevice.connectGatt. The connection is reported on the callback
+    public GattTransport connectGatt(BluetoothGattCallback callback) {
+        mCallback = callback;
+        connect();
+        return this;
+    }
+
+    // Drops the connection (as if the peripheral went out of range). The next failedConnectionAttempts connection attempts will fail
+    public void simulateLinkLoss(int failedConnectionAttempts) {
+        mFailedConnectionsLeft = failedConnectionAttempts;
+        onDisconnected(kStatusConnectionTimeout);
+    }
+
+    // region GattTransport
+    @Override
+    public boolean connect() {
+        return schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mFailedConnectionsLeft > 0) {
+                    mFailedConnectionsLeft--;
+                    mCallback.onConnectionStateChange(null, kStatusGattError, BluetoothProfile.STATE_DISCONNECTED);
+                } else {
+                    mCallback.onConnectionStateChange(null, BluetoothGatt.GATT_SUCCESS, BluetoothProfile.STATE_CONNECTED);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void disconnect() {
+        onDisconnected(BluetoothGatt.GATT_SUCCESS);
+    }
+
+    private void onDisconnected(final int status) {
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                mIsRxNotifyEnabled = false;
+                mMtu = kDefaultMtu;
+                mCallback.onConnectionStateChange(null, status, BluetoothProfile.STATE_DISCONNECTED);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        mIsClosed = true;
+        mCallbackExecutor.shutdownNow();
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return schedule(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onServicesDiscovered(null, BluetoothGatt.GATT_SUCCESS);
+            }
+        });
+    }
+
+    @Override
+    public List<BluetoothGattService> getServices() {
+        return mServices;
+    }
+
+    @Override
+    public BluetoothGattService getService(UUID uuid) {
+        for (BluetoothGattService service : mServices) {
+            if (service.getUuid().equals(uuid)) {
+                return service;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean readCharacteristic(final BluetoothGattCharacteristic characteristic) {
+        if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_READ) == 0) {
+            return false;
+        }
+
+        return scheduleOperation(new Runnable() {
+            @Override
+            public void run() {
+                characteristic.setValue(mValues.get(characteristic));
+                mCallback.onCharacteristicRead(null, characteristic, BluetoothGatt.GATT_SUCCESS);
+            }
+        });
+    }
+
+    @Override
+    public boolean writeCharacteristic(final BluetoothGattCharacteristic characteristic) {
+        final byte[] value = characteristic.getValue();
+        if (value == null || (characteristic.getProperties() & (BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE)) == 0) {
+            return false;
+        }
+
+        final byte[] data = Arrays.copyOf(value, value.length);     // The stack copies the value when the write is requested
+        final boolean isWithoutResponse = characteristic.getWriteType() == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+        final boolean isPrepared = mIsReliableWriteInProgress;
+        return scheduleOperation(new Runnable() {
+            @Override
+            public void run() {
+                if ((isWithoutResponse && data.length > mMtu - kAttWriteOverhead) || (isPrepared && data.length > mMtu - kPrepareWriteOverhead) || data.length > kMaxAttributeLength) {
+                    mCallback.onCharacteristicWrite(null, characteristic, BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH);     // Writes without response and prepared writes can not be split
+                    return;
+                }
+
+                if (isPrepared) {
+                    mPreparedCharacteristics.add(characteristic);
+                    mPreparedValues.add(data);
+                    mCallback.onCharacteristicWrite(null, characteristic, BluetoothGatt.GATT_SUCCESS);
+                } else {
+                    mCallback.onCharacteristicWrite(null, characteristic, BluetoothGatt.GATT_SUCCESS);
+                    applyWrite(characteristic, data);
+                }
+            }
+        });
+    }
+
+    private void applyWrite(BluetoothGattCharacteristic characteristic, byte[] data) {
+        mValues.put(characteristic, data);
+        if (characteristic == mUartTxCharacteristic) {
+            onUartDataReceived(data);
+        }
+    }
+
+    @Override
+    public boolean beginReliableWrite() {
+        if (mIsClosed) {
+            return false;
+        }
+        mIsReliableWriteInProgress = true;
+        return true;
+    }
+
+    @Override
+    public boolean executeReliableWrite() {
+        return finishReliableWrite(true);
+    }
+
+    @Override
+    public void abortReliableWrite() {
+        finishReliableWrite(false);
+    }
+
+    private boolean finishReliableWrite(final boolean isExecute) {
+        if (!mIsReliableWriteInProgress) {
+            return false;
+        }
+        mIsReliableWriteInProgress = false;
+
+        return scheduleOperation(new Runnable() {
+            @Override
+            public void run() {
+                if (isExecute) {
+                    for (int i = 0; i < mPreparedCharacteristics.size(); i++) {
+                        applyWrite(mPreparedCharacteristics.get(i), mPreparedValues.get(i));
+                    }
+                }
+                mPreparedCharacteristics.clear();
+                mPreparedValues.clear();
+                mCallback.onReliableWriteCompleted(null, BluetoothGatt.GATT_SUCCESS);
+            }
+        });
+    }
+
+    @Override
+    public boolean readDescriptor(final BluetoothGattDescriptor descriptor) {
+        return scheduleOperation(new Runnable() {
+            @Override
+            public void run() {
+                if (descriptor.getUuid().equals(kClientCharacteristicConfigUUID)) {
+                    descriptor.setValue(mIsRxNotifyEnabled ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+                }
+                mCallback.onDescriptorRead(null, descriptor, BluetoothGatt.GATT_SUCCESS);
+            }
+        });
+    }
+
+    @Override
+    public boolean writeDescriptor(final BluetoothGattDescriptor descriptor) {
+        final byte[] value = descriptor.getValue();
+        return scheduleOperation(new Runnable() {
+            @Override
+            public void run() {
+                if (descriptor.getUuid().equals(kClientCharacteristicConfigUUID) && descriptor.getCharacteristic() == mUartRxCharacteristic) {
+                    mIsRxNotifyEnabled = value != null && value.length > 0 && (value[0] & 0x01) != 0;
+                }
+                mCallback.onDescriptorWrite(null, descriptor, BluetoothGatt.GATT_SUCCESS);
+            }
+        });
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        return !mIsClosed;
+    }
+
+    @Override
+    public boolean readRemoteRssi() {
+        return scheduleOperation(new Runnable() {
+            @Override
+            public void run() {
+                final int rssi = mConfig.rssi + Math.round((float) mRandom.nextGaussian() * mConfig.rssiNoise);
+                mCallback.onReadRemoteRssi(null, rssi, BluetoothGatt.GATT_SUCCESS);
+            }
+        });
+    }
+
+    @Override
+    public boolean requestMtu(final int mtu) {
+        return scheduleOperation(new Runnable() {
+            @Override
+            public void run() {
+                mMtu = Math.max(kDefaultMtu, Math.min(mtu, mConfig.maxMtu));
+                mCallback.onMtuChanged(null, mMtu, BluetoothGatt.GATT_SUCCESS);
+            }
+        });
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int connectionPriority) {
+        return !mIsClosed;          // Accepted, but the simulated latency doesn't depend on the connection interval
+    }
+
+    @Override
+    public boolean setPreferredPhy(int txPhy, int rxPhy, int phyOptions) {
+        return false;               // Only the 1M phy is simulated
+    }
+    // endregion
+
+    // region Scheduling
+    private boolean schedule(Runnable runnable) {
+        if (mIsClosed) {
+            return false;
+        }
+        mCallbackExecutor.schedule(runnable, mConfig.latencyMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    // Operations can lose their callback (to simulate lost responses)
+    private boolean scheduleOperation(final Runnable runnable) {
+        return schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mConfig.lossProbability > 0 && mRandom.nextFloat() < mConfig.lossProbability) {
+                    return;
+                }
+                runnable.run();
+            }
+        });
+    }
+    // endregion
+
+    // region Uart
+    private void onUartDataReceived(byte[] data) {
+        if (!mConfig.isFirmataEnabled) {
+            sendUartData(data);
+            return;
+        }
+
+        ByteArrayOutputStream echo = new ByteArrayOutputStream();
+        for (byte dataByte : data) {
+            if (mIsReceivingSysex) {
+                mSysexBuffer.write(dataByte);
+                if (dataByte == kSysexEnd) {
+                    mIsReceivingSysex = false;
+                    onFirmataSysexReceived(mSysexBuffer.toByteArray());
+                    mSysexBuffer.reset();
+                }
+            } else if (dataByte == kSysexStart) {
+                mIsReceivingSysex = true;
+                mSysexBuffer.write(dataByte);
+            } else {
+                echo.write(dataByte);
+            }
+        }
+
+        if (echo.size() > 0) {
+            sendUartData(echo.toByteArray());
+        }
+    }
+
+    private void onFirmataSysexReceived(byte[] sysex) {
+        final byte command = sysex.length > 2 ? sysex[1] : 0;
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        response.write(kSysexStart);
+
+        switch (command) {
+            case kSysexCapabilityQuery:
+                response.write(kSysexCapabilityResponse);
+                for (int i = 0; i < kFirmataDigitalPins + kFirmataAnalogPins; i++) {
+                    response.write(0x00);       // Input
+                    response.write(1);
+                    response.write(0x01);       // Output
+                    response.write(1);
+                    if (i < kFirmataDigitalPins) {
+                        response.write(0x03);   // PWM
+                        response.write(8);
+                    } else {
+                        response.write(0x02);   // Analog
+                        response.write(10);
+                    }
+                    response.write(0x7F);
+                }
+                break;
+
+            case kSysexAnalogMappingQuery:
+                response.write(kSysexAnalogMappingResponse);
+                for (int i = 0; i < kFirmataDigitalPins + kFirmataAnalogPins; i++) {
+                    response.write(i < kFirmataDigitalPins ? 0x7F : i - kFirmataDigitalPins);
+                }
+                break;
+
+            case kSysexPinStateQuery:
+                response.write(kSysexPinStateResponse);
+                response.write(sysex.length > 3 ? sysex[2] : 0);        // Pin
+                response.write(0x00);                                   // Mode: input
+                response.write(0x00);                                   // State
+                break;
+
+            default:
+                sendUartData(sysex);        // Unknown sysex: echo
+                return;
+        }
+
+        response.write(kSysexEnd);
+        sendUartData(response.toByteArray());
+    }
+
+    // Sends data through the RX characteristic, split into packets of the negotiated mtu size. Called from the callback thread
+    private void sendUartData(byte[] data) {
+        if (!mIsRxNotifyEnabled) {
+            return;
+        }
+
+        final int maxPacketSize = mMtu - kAttWriteOverhead;
+        for (int i = 0; i < data.length; i += maxPacketSize) {
+            final byte[] packet = Arrays.copyOfRange(data, i, Math.min(i + maxPacketSize, data.length));
+            mCallbackExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mUartRxCharacteristic.setValue(packet);
+                    mCallback.onCharacteristicChanged(null, mUartRxCharacteristic);
+                }
+            }, mConfig.latencyMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    // endregion
+}
@@ -0,0 +1,67 @@
+package com.adafruit.bluefruit.le.connect.benchmarks;
+
+import com.adafruit.bluefruit.le.connect.core.AdvertisementData;
+import com.adafruit.bluefruit.le.connect.core.AdvertisementParser;
+import com.adafruit.bluefruit.le.connect.core.AdvertisementReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Parsing is done for every advertisement received while scanning (tens to hundreds per second in crowded places)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdvertisementParserBenchmark {
+    private static final UUID kUartServiceUUID = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+
+    private final AdvertisementReader mReader = new AdvertisementReader();
+    private final AdvertisementData mUartData = AdvertisementParser.parse(BenchmarkData.kUartScanRecord);
+    private final AdvertisementData mHeartRateData = AdvertisementParser.parse(BenchmarkData.kHeartRateScanRecord);
+
+    @Benchmark
+    public AdvertisementData parseUart() {
+        return AdvertisementParser.parse(BenchmarkData.kUartScanRecord);
+    }
+
+    @Benchmark
+    public AdvertisementData parseBeacon() {
+        return AdvertisementParser.parse(BenchmarkData.kBeaconScanRecord);
+    }
+
+    @Benchmark
+    public AdvertisementData parseHeartRate() {
+        return AdvertisementParser.parse(BenchmarkData.kHeartRateScanRecord);
+    }
+
+    // Decoding a new advertisement of a known device (the common case while scanning). Should not allocate
+    @Benchmark
+    public AdvertisementData parseUartReused() {
+        AdvertisementParser.parse(mReader.reset(BenchmarkData.kUartScanRecord), mUartData);
+        return mUartData;
+    }
+
+    @Benchmark
+    public AdvertisementData parseHeartRateReused() {
+        AdvertisementParser.parse(mReader.reset(BenchmarkData.kHeartRateScanRecord), mHeartRateData);
+        return mHeartRateData;
+    }
+
+    // Used by the scanner to filter by service
+    @Benchmark
+    public boolean containsUartService() {
+        return mReader.reset(BenchmarkData.kUartScanRecord).containsServiceUuid(kUartServiceUUID);
+    }
+}
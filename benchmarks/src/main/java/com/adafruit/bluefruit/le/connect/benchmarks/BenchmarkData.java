@@ -0,0 +1,88 @@
+package com.adafruit.bluefruit.le.connect.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Realistic inputs shared by the benchmarks
+class BenchmarkData {
+    // Constants
+    private static final int kScanRecordLength = 62;        // Scan records received with the legacy scan api are padded with zeros to 62 bytes
+
+    // Bluefruit advertising the uart service: flags, 128-bit uuid list, complete local name
+    static final byte[] kUartScanRecord = scanRecord("020106"
+            + "11079ecadc240ee5a9e093f3a3b50100406e"
+            + "0e09416461667275697420424c4546");
+
+    // iBeacon: flags, manufacturer data (Apple, proximity uuid, major, minor, tx power)
+    static final byte[] kBeaconScanRecord = scanRecord("0201061aff4c000215"
+            + "e2c56db5dffb48d2b060d0f5a71096e0"
+            + "00010002c5");
+
+    // Heart rate monitor: flags, 16-bit uuid list (heart rate, battery, device information), complete local name, tx power
+    static final byte[] kHeartRateScanRecord = scanRecord("020106"
+            + "07030d180f180a18"
+            + "0b094852204d6f6e69746f72"
+            + "020af4");
+
+    // Packets sent by the Firmata sketch while reporting pins: digital port reports, analog reports and pin state responses (split in packets of 20 bytes)
+    static final byte[][] kFirmataPackets = split(hexToBytes(""
+            + "900100" + "910000" + "e07f03" + "e11002" + "e20000" + "e37f07"
+            + "f06e030101f7" + "f06e0e027f03f7" + "f06e0f02107ff7"
+            + "900000" + "910100" + "e07e03" + "e11102" + "e20100" + "e37e07"
+            + "900100" + "910000" + "e07f03" + "e11002" + "e20000" + "e37f07"), 20);
+
+    // Typical uart packet (the max payload size with the default mtu) and a packet with the max payload size with a 247 bytes mtu
+    static final byte[] kSmallPacket = hexToBytes("48656c6c6f20426c75656672756974204c45210d");
+    static final byte[] kLargePacket = sequence(244);
+
+    static String releasesXml() {
+        try {
+            InputStream inputStream = BenchmarkData.class.getResourceAsStream("/releases.xml");
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+            inputStream.close();
+            return outputStream.toString("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException("releases.xml not found", e);
+        }
+    }
+
+    private static byte[] scanRecord(String hex) {
+        final byte[] data = hexToBytes(hex);
+        byte[] scanRecord = new byte[kScanRecordLength];
+        System.arraycopy(data, 0, scanRecord, 0, data.length);
+        return scanRecord;
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static byte[] sequence(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static byte[][] split(byte[] data, int packetSize) {
+        final int count = (data.length + packetSize - 1) / packetSize;
+        byte[][] packets = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            final int start = i * packetSize;
+            packets[i] = new byte[Math.min(packetSize, data.length - start)];
+            System.arraycopy(data, start, packets[i], 0, packets[i].length);
+        }
+        return packets;
+    }
+}
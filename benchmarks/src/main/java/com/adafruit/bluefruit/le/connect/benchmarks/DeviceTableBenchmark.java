@@ -0,0 +1,69 @@
+package com.adafruit.bluefruit.le.connect.benchmarks;
+
+import com.adafruit.bluefruit.le.connect.core.DeviceTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Lookup done for every advertisement received while scanning, and eviction of stale devices, with 300 devices around
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceTableBenchmark {
+    private static final int kDeviceCount = 300;
+    private static final int kStaleDeviceCount = 30;
+
+    private final DeviceTable<Integer> mTable = new DeviceTable<>();
+    private final String[] mAddresses = new String[kDeviceCount];
+    private final Integer[] mValues = new Integer[kDeviceCount];
+    private int mNextAddress;
+    private int mFirstStaleDevice;
+
+    private final DeviceTable.Condition<Integer> mIsStaleCondition = new DeviceTable.Condition<Integer>() {
+        @Override
+        public boolean test(Integer value) {
+            return value >= mFirstStaleDevice && value < mFirstStaleDevice + kStaleDeviceCount;
+        }
+    };
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < kDeviceCount; i++) {
+            mAddresses[i] = String.format("C0:%02X:%02X:1A:2B:%02X", (i * 37) & 0xFF, i >> 8, i & 0xFF);
+            mValues[i] = i;
+            mTable.put(DeviceTable.addressToLong(mAddresses[i]), mValues[i]);
+        }
+    }
+
+    // Address parsing and lookup of an already found device
+    @Benchmark
+    public Object findKnownDevice() {
+        final String address = mAddresses[mNextAddress];
+        mNextAddress = (mNextAddress + 1) % kDeviceCount;
+        return mTable.find(DeviceTable.addressToLong(address));
+    }
+
+    // Removal of 10% of the devices (and reinsertion, so the table keeps its size)
+    @Benchmark
+    public int evictStaleDevices() {
+        final int removedCount = mTable.removeIf(mIsStaleCondition);
+        for (int i = mFirstStaleDevice; i < mFirstStaleDevice + kStaleDeviceCount; i++) {
+            mTable.put(DeviceTable.addressToLong(mAddresses[i]), mValues[i]);
+        }
+        mFirstStaleDevice = (mFirstStaleDevice + kStaleDeviceCount) % kDeviceCount;
+        return removedCount;
+    }
+}
@@ -0,0 +1,51 @@
+package com.adafruit.bluefruit.le.connect.benchmarks;
+
+import com.adafruit.bluefruit.le.connect.core.FirmataParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FirmataParserBenchmark {
+    private int mMessagesCount;
+
+    private final FirmataParser mParser = new FirmataParser(new FirmataParser.Listener() {
+        @Override
+        public void onPinStateReceived(int digitalPinId, int mode, int state) {
+            mMessagesCount += state;
+        }
+
+        @Override
+        public void onDigitalPortReceived(int port, int pinStates) {
+            mMessagesCount += pinStates;
+        }
+
+        @Override
+        public void onAnalogValueReceived(int analogPinId, int value) {
+            mMessagesCount += value;
+        }
+    });
+
+    // Parses the packets received while the PinIO module is reporting pin values
+    @Benchmark
+    public int parseReportStream() {
+        for (byte[] packet : BenchmarkData.kFirmataPackets) {
+            mParser.parse(packet);
+        }
+        return mMessagesCount;
+    }
+}
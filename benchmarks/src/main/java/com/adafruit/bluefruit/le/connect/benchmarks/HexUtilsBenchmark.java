@@ -0,0 +1,48 @@
+package com.adafruit.bluefruit.le.connect.benchmarks;
+
+import com.adafruit.bluefruit.le.connect.core.HexUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexUtilsBenchmark {
+    private final StringBuilder mBuilder = new StringBuilder();
+
+    @Benchmark
+    public String bytesToHexSmallPacket() {
+        return HexUtils.bytesToHex(BenchmarkData.kSmallPacket);
+    }
+
+    @Benchmark
+    public String bytesToHexWithSpacesSmallPacket() {
+        return HexUtils.bytesToHexWithSpaces(BenchmarkData.kSmallPacket);
+    }
+
+    @Benchmark
+    public String bytesToHexWithSpacesLargePacket() {
+        return HexUtils.bytesToHexWithSpaces(BenchmarkData.kLargePacket);
+    }
+
+    // Uart console in hex mode: each received packet is appended to the buffer
+    @Benchmark
+    public int appendHexWithSpacesLargePacket() {
+        mBuilder.setLength(0);
+        HexUtils.appendHexWithSpaces(mBuilder, BenchmarkData.kLargePacket);
+        return mBuilder.length();
+    }
+}
@@ -0,0 +1,43 @@
+package com.adafruit.bluefruit.le.connect.benchmarks;
+
+import com.adafruit.bluefruit.le.connect.core.ReleasesParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReleasesParserBenchmark {
+    private String mReleasesXml;
+
+    @Setup
+    public void setup() {
+        mReleasesXml = BenchmarkData.releasesXml();
+    }
+
+    // Parsed each time the firmware updates are checked on connection
+    @Benchmark
+    public Map<String, ReleasesParser.BoardInfo> parseReleasesXml() {
+        return ReleasesParser.parseReleasesXml(mReleasesXml);
+    }
+
+    @Benchmark
+    public int versionCompare() {
+        return ReleasesParser.versionCompare("0.7.0", "0.6.7 (beta)") + ReleasesParser.versionCompare("0.6.10", "0.6.7");
+    }
+}
@@ -0,0 +1,18 @@
+package com.adafruit.bluefruit.le.connect.core;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+// Data decoded from an advertisement packet (scan record)
+public class AdvertisementData {
+    // Device types (update R.array.scan_devicetypes if this list is modified)
+    public static final int kType_Unknown = 0;
+    public static final int kType_Uart = 1;
+    public static final int kType_Beacon = 2;
+    public static final int kType_UriBeacon = 3;
+
+    public int type = kType_Unknown;
+    public ArrayList<UUID> uuids = new ArrayList<>();
+    public String advertisedName;
+    public int txPower;
+}
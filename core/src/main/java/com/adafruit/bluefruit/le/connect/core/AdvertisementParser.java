@@ -0,0 +1,83 @@
+package com.adafruit.bluefruit.le.connect.core;
+
+import java.util.UUID;
+
+// Decodes advertisement packets (scan records)
+// The packet is walked once by an AdvertisementReader. Decoding into an existing AdvertisementData only allocates when the uuids or the name change, so it can be done for every advertisement received
+public class AdvertisementParser {
+    // Constants
+    private static final UUID kUartServiceUUID = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID kUriBeaconServiceUUID = UUID.fromString("0000fed8-0000-1000-8000-00805f9b34fb");
+    private static final int kBeaconType = 0x02;                 // iBeacon layout of the manufacturer data: type (0x02), length (0x15), proximity uuid (16 bytes), major, minor, tx power
+    private static final int kBeaconLength = 0x15;
+
+    public static AdvertisementData parse(byte[] scanRecord) {
+        AdvertisementData result = new AdvertisementData();
+        parse(new AdvertisementReader().reset(scanRecord), result);
+        return result;
+    }
+
+    // Decodes the packet of the reader into result. advertisedName is kept if the packet doesn't include a name
+    public static void parse(AdvertisementReader reader, AdvertisementData result) {
+        final byte[] data = reader.getData();
+
+        // Check if is an iBeacon (manufacturer data with the iBeacon layout, for any manufacturer)
+        final int manufacturerDataOffset = reader.getManufacturerDataOffset();
+        final boolean isBeacon = reader.getManufacturerDataLength() >= 2 + kBeaconLength && (data[manufacturerDataOffset] & 0xFF) == kBeaconType && (data[manufacturerDataOffset + 1] & 0xFF) == kBeaconLength;
+
+        // Check if is an URIBeacon
+        final int uriBeaconIndex = isBeacon ? -1 : reader.findServiceData(kUriBeaconServiceUUID);
+        final boolean isUriBeacon = uriBeaconIndex >= 0 && reader.getServiceDataLength(uriBeaconIndex) >= 2 && reader.containsServiceUuid(kUriBeaconServiceUUID);
+
+        if (isBeacon) {
+            result.type = AdvertisementData.kType_Beacon;
+
+            // Read uuid (big endian)
+            int offset = manufacturerDataOffset + 2;
+            final long mostSignificantBits = readLongBigEndian(data, offset);
+            final long leastSignificantBits = readLongBigEndian(data, offset + 8);
+            if (result.uuids.size() != 1 || result.uuids.get(0).getMostSignificantBits() != mostSignificantBits || result.uuids.get(0).getLeastSignificantBits() != leastSignificantBits) {
+                result.uuids.clear();
+                result.uuids.add(new UUID(mostSignificantBits, leastSignificantBits));
+            }
+            offset += 16;
+
+            // Skip major minor
+            offset += 2 * 2;
+
+            // Read txpower
+            result.txPower = data[offset];
+        } else if (isUriBeacon) {
+            result.type = AdvertisementData.kType_UriBeacon;
+            result.uuids.clear();
+
+            // Read txpower (after the flags byte)
+            result.txPower = data[reader.getServiceDataOffset(uriBeaconIndex) + 1];
+        } else {
+            // Read standard advertising packet
+            if (!reader.isServiceUuidListEqual(result.uuids)) {
+                result.uuids.clear();
+                final int count = reader.getServiceUuidCount();
+                for (int i = 0; i < count; i++) {
+                    result.uuids.add(reader.getServiceUuid(i));
+                }
+            }
+            result.txPower = reader.getTxPower();
+
+            // Check if Uart is contained in the uuids
+            result.type = reader.containsServiceUuid(kUartServiceUUID) ? AdvertisementData.kType_Uart : AdvertisementData.kType_Unknown;
+        }
+
+        if (reader.hasLocalName() && !reader.isLocalNameEqual(result.advertisedName)) {
+            result.advertisedName = reader.getLocalName();
+        }
+    }
+
+    private static long readLongBigEndian(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,383 @@
+package com.adafruit.bluefruit.le.connect.core;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.UUID;
+
+// Reusable view over the AD structures of an advertisement packet (scan record)
+// reset() walks the packet once and records where each structure is. The accessors read the values directly from the packet, so parsing doesn't copy data or allocate objects (only getLocalName and getServiceUuid allocate, and only when called)
+// Not thread safe: use an instance per thread
+public class AdvertisementReader {
+    // Constants
+    private static final long kBluetoothBaseUuidMsb = 0x0000000000001000L;        // 00000000-0000-1000-8000-00805F9B34FB
+    private static final long kBluetoothBaseUuidLsb = 0x800000805F9B34FBL;
+    private static final Charset kUtf8Charset = Charset.forName("UTF-8");
+    private static final int kInitialStructures = 16;       // Enough for a legacy advertisement + scan response (the table grows for longer packets)
+
+    // Advertising data types
+    public static final int kType_Flags = 0x01;
+    public static final int kType_PartialUuids16 = 0x02;
+    public static final int kType_CompleteUuids16 = 0x03;
+    public static final int kType_PartialUuids32 = 0x04;
+    public static final int kType_CompleteUuids32 = 0x05;
+    public static final int kType_PartialUuids128 = 0x06;
+    public static final int kType_CompleteUuids128 = 0x07;
+    public static final int kType_ShortenedLocalName = 0x08;
+    public static final int kType_CompleteLocalName = 0x09;
+    public static final int kType_TxPowerLevel = 0x0A;
+    public static final int kType_ServiceData16 = 0x16;
+    public static final int kType_ServiceData32 = 0x20;
+    public static final int kType_ServiceData128 = 0x21;
+    public static final int kType_ManufacturerData = 0xFF;
+
+    // Data
+    private byte[] mData;
+    private int mStructureCount;
+    private int[] mTypes = new int[kInitialStructures];
+    private int[] mOffsets = new int[kInitialStructures];       // Offset of the value (after the type byte)
+    private int[] mLengths = new int[kInitialStructures];       // Length of the value
+    private boolean mIsMalformed;
+    private int mFoundStructureIndex;                           // Set by findServiceUuid
+
+    // Indexes of the structures that are read often (-1 if not present)
+    private int mFlagsIndex;
+    private int mTxPowerIndex;
+    private int mLocalNameIndex;
+    private int mManufacturerDataIndex;
+
+    // Walks the AD structures of the packet. Parsing stops at the first empty structure (the padding of legacy scan records) or at a malformed one
+    public AdvertisementReader reset(byte[] data) {
+        mData = data;
+        mStructureCount = 0;
+        mIsMalformed = false;
+        mFlagsIndex = -1;
+        mTxPowerIndex = -1;
+        mLocalNameIndex = -1;
+        mManufacturerDataIndex = -1;
+
+        final int length = data == null ? 0 : data.length;
+        int offset = 0;
+        while (offset < length) {
+            final int structureLength = data[offset] & 0xFF;
+            if (structureLength == 0) {
+                break;
+            }
+
+            final int end = offset + 1 + structureLength;
+            if (end > length) {
+                mIsMalformed = true;
+                break;
+            }
+
+            final int type = data[offset + 1] & 0xFF;
+            addStructure(type, offset + 2, structureLength - 1);
+            offset = end;
+        }
+
+        return this;
+    }
+
+    private void addStructure(int type, int offset, int length) {
+        if (mStructureCount == mTypes.length) {
+            final int capacity = mTypes.length * 2;
+            mTypes = copyOf(mTypes, capacity);
+            mOffsets = copyOf(mOffsets, capacity);
+            mLengths = copyOf(mLengths, capacity);
+        }
+
+        final int index = mStructureCount++;
+        mTypes[index] = type;
+        mOffsets[index] = offset;
+        mLengths[index] = length;
+
+        switch (type) {
+            case kType_Flags:
+                if (mFlagsIndex < 0 && length >= 1) {
+                    mFlagsIndex = index;
+                }
+                break;
+            case kType_TxPowerLevel:
+                if (mTxPowerIndex < 0 && length >= 1) {
+                    mTxPowerIndex = index;
+                }
+                break;
+            case kType_ShortenedLocalName:
+                if (mLocalNameIndex < 0) {
+                    mLocalNameIndex = index;
+                }
+                break;
+            case kType_CompleteLocalName:          // The complete name has preference over the shortened one
+                if (mLocalNameIndex < 0 || mTypes[mLocalNameIndex] != kType_CompleteLocalName) {
+                    mLocalNameIndex = index;
+                }
+                break;
+            case kType_ManufacturerData:
+                if (mManufacturerDataIndex < 0 && length >= 2) {
+                    mManufacturerDataIndex = index;
+                }
+                break;
+        }
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] result = new int[length];
+        System.arraycopy(array, 0, result, 0, Math.min(array.length, length));
+        return result;
+    }
+
+    // region Structures
+    public byte[] getData() {
+        return mData;
+    }
+
+    // True if the last structure exceeded the packet length (the structures before it are still valid)
+    public boolean isMalformed() {
+        return mIsMalformed;
+    }
+
+    public int getStructureCount() {
+        return mStructureCount;
+    }
+
+    public int getStructureType(int index) {
+        return mTypes[index];
+    }
+
+    public int getStructureOffset(int index) {
+        return mOffsets[index];
+    }
+
+    public int getStructureLength(int index) {
+        return mLengths[index];
+    }
+    // endregion
+
+    // region Flags and tx power
+    // Returns -1 if not present
+    public int getFlags() {
+        return mFlagsIndex < 0 ? -1 : mData[mOffsets[mFlagsIndex]] & 0xFF;
+    }
+
+    public boolean hasTxPower() {
+        return mTxPowerIndex >= 0;
+    }
+
+    // Signed value in dBm
+    public int getTxPower() {
+        return mTxPowerIndex < 0 ? 0 : mData[mOffsets[mTxPowerIndex]];
+    }
+    // endregion
+
+    // region Local name
+    public boolean hasLocalName() {
+        return mLocalNameIndex >= 0;
+    }
+
+    public boolean isLocalNameComplete() {
+        return mLocalNameIndex >= 0 && mTypes[mLocalNameIndex] == kType_CompleteLocalName;
+    }
+
+    public String getLocalName() {
+        return mLocalNameIndex < 0 ? null : new String(mData, mOffsets[mLocalNameIndex], mLengths[mLocalNameIndex], kUtf8Charset);
+    }
+
+    // Compares the name without decoding it (so a name that has not changed can be kept without allocating a new String)
+    public boolean isLocalNameEqual(String name) {
+        if (mLocalNameIndex < 0) {
+            return name == null;
+        }
+        if (name == null) {
+            return false;
+        }
+
+        final int offset = mOffsets[mLocalNameIndex];
+        final int length = mLengths[mLocalNameIndex];
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            final int value = mData[offset + i];
+            if (value < 0 || value != name.charAt(i)) {      // Non ascii bytes are not compared (the caller will decode the name)
+                return false;
+            }
+        }
+        return true;
+    }
+    // endregion
+
+    // region Service uuids
+    // Number of uuids in all the uuid lists (16, 32 and 128 bits, partial or complete)
+    public int getServiceUuidCount() {
+        int count = 0;
+        for (int i = 0; i < mStructureCount; i++) {
+            final int uuidSize = getUuidListEntrySize(mTypes[i]);
+            if (uuidSize > 0) {
+                count += mLengths[i] / uuidSize;
+            }
+        }
+        return count;
+    }
+
+    // The uuid is returned as its two halves, so it can be compared without creating a UUID
+    public long getServiceUuidMostSignificantBits(int index) {
+        final int offset = findServiceUuid(index);
+        return readUuidMostSignificantBits(offset, getUuidListEntrySize(mTypes[mFoundStructureIndex]));
+    }
+
+    public long getServiceUuidLeastSignificantBits(int index) {
+        final int offset = findServiceUuid(index);
+        return readUuidLeastSignificantBits(offset, getUuidListEntrySize(mTypes[mFoundStructureIndex]));
+    }
+
+    public UUID getServiceUuid(int index) {
+        return new UUID(getServiceUuidMostSignificantBits(index), getServiceUuidLeastSignificantBits(index));
+    }
+
+    public boolean containsServiceUuid(UUID uuid) {
+        final long mostSignificantBits = uuid.getMostSignificantBits();
+        final long leastSignificantBits = uuid.getLeastSignificantBits();
+        for (int i = 0; i < mStructureCount; i++) {
+            final int uuidSize = getUuidListEntrySize(mTypes[i]);
+            if (uuidSize > 0) {
+                final int end = mOffsets[i] + mLengths[i] - uuidSize;
+                for (int offset = mOffsets[i]; offset <= end; offset += uuidSize) {
+                    if (readUuidLeastSignificantBits(offset, uuidSize) == leastSignificantBits && readUuidMostSignificantBits(offset, uuidSize) == mostSignificantBits) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // Returns true if the list has the same uuids (in the same order) as the packet
+    public boolean isServiceUuidListEqual(List<UUID> uuids) {
+        int index = 0;
+        final int count = uuids.size();
+        for (int i = 0; i < mStructureCount; i++) {
+            final int uuidSize = getUuidListEntrySize(mTypes[i]);
+            if (uuidSize > 0) {
+                final int end = mOffsets[i] + mLengths[i] - uuidSize;
+                for (int offset = mOffsets[i]; offset <= end; offset += uuidSize) {
+                    if (index >= count) {
+                        return false;
+                    }
+                    final UUID uuid = uuids.get(index++);
+                    if (uuid.getLeastSignificantBits() != readUuidLeastSignificantBits(offset, uuidSize) || uuid.getMostSignificantBits() != readUuidMostSignificantBits(offset, uuidSize)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return index == count;
+    }
+
+    // Returns the offset of the uuid and sets mFoundStructureIndex to the structure that contains it
+    private int findServiceUuid(int index) {
+        int remaining = index;
+        for (int i = 0; i < mStructureCount; i++) {
+            final int uuidSize = getUuidListEntrySize(mTypes[i]);
+            if (uuidSize > 0) {
+                final int count = mLengths[i] / uuidSize;
+                if (remaining < count) {
+                    mFoundStructureIndex = i;
+                    return mOffsets[i] + remaining * uuidSize;
+                }
+                remaining -= count;
+            }
+        }
+        throw new IndexOutOfBoundsException("Service uuid index: " + index);
+    }
+
+    private static int getUuidListEntrySize(int type) {
+        switch (type) {
+            case kType_PartialUuids16:
+            case kType_CompleteUuids16:
+                return 2;
+            case kType_PartialUuids32:
+            case kType_CompleteUuids32:
+                return 4;
+            case kType_PartialUuids128:
+            case kType_CompleteUuids128:
+                return 16;
+            default:
+                return 0;
+        }
+    }
+    // endregion
+
+    // region Manufacturer data
+    // Company identifier of the first manufacturer data structure (-1 if not present)
+    public int getManufacturerId() {
+        return mManufacturerDataIndex < 0 ? -1 : (int) readUIntLittleEndian(mData, mOffsets[mManufacturerDataIndex], 2);
+    }
+
+    // Offset in getData() of the manufacturer data (after the company identifier)
+    public int getManufacturerDataOffset() {
+        return mManufacturerDataIndex < 0 ? -1 : mOffsets[mManufacturerDataIndex] + 2;
+    }
+
+    public int getManufacturerDataLength() {
+        return mManufacturerDataIndex < 0 ? 0 : mLengths[mManufacturerDataIndex] - 2;
+    }
+    // endregion
+
+    // region Service data
+    // Returns the index of the service data structure for the uuid (-1 if not present)
+    public int findServiceData(UUID uuid) {
+        final long mostSignificantBits = uuid.getMostSignificantBits();
+        final long leastSignificantBits = uuid.getLeastSignificantBits();
+        for (int i = 0; i < mStructureCount; i++) {
+            final int uuidSize = getServiceDataUuidSize(mTypes[i]);
+            if (uuidSize > 0 && mLengths[i] >= uuidSize) {
+                final int offset = mOffsets[i];
+                if (readUuidLeastSignificantBits(offset, uuidSize) == leastSignificantBits && readUuidMostSignificantBits(offset, uuidSize) == mostSignificantBits) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Offset in getData() of the service data of the structure (after the uuid)
+    public int getServiceDataOffset(int structureIndex) {
+        return mOffsets[structureIndex] + getServiceDataUuidSize(mTypes[structureIndex]);
+    }
+
+    public int getServiceDataLength(int structureIndex) {
+        return mLengths[structureIndex] - getServiceDataUuidSize(mTypes[structureIndex]);
+    }
+
+    private static int getServiceDataUuidSize(int type) {
+        switch (type) {
+            case kType_ServiceData16:
+                return 2;
+            case kType_ServiceData32:
+                return 4;
+            case kType_ServiceData128:
+                return 16;
+            default:
+                return 0;
+        }
+    }
+    // endregion
+
+    // region Utils
+    // Uuids are little endian. 16 and 32-bit uuids are expanded using the Bluetooth base uuid (without allocating a String to format them)
+    private long readUuidMostSignificantBits(int offset, int uuidSize) {
+        return uuidSize == 16 ? readUIntLittleEndian(mData, offset + 8, 8) : kBluetoothBaseUuidMsb | (readUIntLittleEndian(mData, offset, uuidSize) << 32);
+    }
+
+    private long readUuidLeastSignificantBits(int offset, int uuidSize) {
+        return uuidSize == 16 ? readUIntLittleEndian(mData, offset, 8) : kBluetoothBaseUuidLsb;
+    }
+
+    private static long readUIntLittleEndian(byte[] data, int offset, int length) {
+        long value = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+    // endregion
+}
@@ -0,0 +1,223 @@
+package com.adafruit.bluefruit.le.connect.core;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Devices found while scanning, indexed by their 48-bit address
+// Lookups and inserts are O(1) (open addressing hash table of primitive longs, so looking up an address doesn't allocate). Values keep the insertion order, so the UI can show them in the order they were found
+// Removals are O(n) (the remaining values are compacted and the hash table rebuilt), so several values should be removed at once with removeIf
+// Not thread safe
+public class DeviceTable<T> {
+    // Constants
+    private static final int kInitialCapacity = 64;            // Must be a power of 2
+    private static final long kUsedSlot = 1L << 63;             // Marks the used slots (so the address 00:00:00:00:00:00 is valid)
+    private static final long kHashMultiplier = 0x9E3779B97F4A7C15L;
+
+    // Used by removeIf
+    public interface Condition<T> {
+        boolean test(T value);
+    }
+
+    // Data
+    private final ArrayList<T> mValues = new ArrayList<>();
+    private long[] mAddresses = new long[kInitialCapacity];      // Address of each value (in insertion order)
+    private final List<T> mReadOnlyValues = new ReadOnlyList();
+    private long[] mSlotKeys = new long[kInitialCapacity];       // address | kUsedSlot (0 for empty slots)
+    private int[] mSlotIndexes = new int[kInitialCapacity];      // Index in mValues
+
+    // Returns the address "01:23:45:67:89:AB" as 0x0123456789AB (or -1 if the address is not valid). Doesn't allocate
+    public static long addressToLong(String address) {
+        if (address == null || address.length() != 17) {
+            return -1;
+        }
+
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            final char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    return -1;
+                }
+            } else {
+                final int digit = Character.digit(c, 16);
+                if (digit < 0) {
+                    return -1;
+                }
+                value = (value << 4) | digit;
+            }
+        }
+        return value;
+    }
+
+    public int size() {
+        return mValues.size();
+    }
+
+    public boolean isEmpty() {
+        return mValues.isEmpty();
+    }
+
+    public T get(int index) {
+        return mValues.get(index);
+    }
+
+    // Read only view of the values in insertion order
+    public List<T> values() {
+        return mReadOnlyValues;
+    }
+
+    public long getAddress(int index) {
+        if (index >= mValues.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mValues.size());
+        }
+        return mAddresses[index];
+    }
+
+    public T find(long address) {
+        final int index = indexOf(address);
+        return index < 0 ? null : mValues.get(index);
+    }
+
+    // Returns the insertion index of the address or -1 if not found
+    public int indexOf(long address) {
+        final long key = address | kUsedSlot;
+        final int mask = mSlotKeys.length - 1;
+        for (int slot = hash(address, mask); ; slot = (slot + 1) & mask) {
+            final long slotKey = mSlotKeys[slot];
+            if (slotKey == key) {
+                return mSlotIndexes[slot];
+            } else if (slotKey == 0) {
+                return -1;
+            }
+        }
+    }
+
+    // Adds the value or replaces the value stored for the address (keeping its position). Returns the index of the value
+    public int put(long address, T value) {
+        final int index = indexOf(address);
+        if (index >= 0) {
+            mValues.set(index, value);
+            return index;
+        }
+
+        if ((mValues.size() + 1) * 4 > mSlotKeys.length * 3) {       // Max load factor: 0.75
+            resize(mSlotKeys.length * 2);
+        }
+
+        final int newIndex = mValues.size();
+        if (newIndex == mAddresses.length) {
+            mAddresses = Arrays.copyOf(mAddresses, newIndex * 2);
+        }
+        mAddresses[newIndex] = address;
+        mValues.add(value);
+        insertSlot(address, newIndex);
+        return newIndex;
+    }
+
+    // Removes the value stored for the address (the next values move one position back). Returns the value removed or null if not found
+    public T remove(long address) {
+        final int index = indexOf(address);
+        if (index < 0) {
+            return null;
+        }
+
+        final T value = mValues.remove(index);
+        System.arraycopy(mAddresses, index + 1, mAddresses, index, mValues.size() - index);
+        rebuildSlots();
+        return value;
+    }
+
+    // Removes the values that meet the condition (keeping the order of the rest). Returns the number of values removed
+    public int removeIf(Condition<T> condition) {
+        final int size = mValues.size();
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            final T value = mValues.get(i);
+            if (!condition.test(value)) {
+                mValues.set(count, value);
+                mAddresses[count] = mAddresses[i];
+                count++;
+            }
+        }
+
+        final int removedCount = size - count;
+        if (removedCount > 0) {
+            mValues.subList(count, size).clear();
+            rebuildSlots();
+        }
+        return removedCount;
+    }
+
+    public void clear() {
+        mValues.clear();
+        if (mSlotKeys.length > kInitialCapacity) {
+            mSlotKeys = new long[kInitialCapacity];
+            mSlotIndexes = new int[kInitialCapacity];
+            mAddresses = new long[kInitialCapacity];
+        } else {
+            Arrays.fill(mSlotKeys, 0);
+        }
+    }
+
+    private void insertSlot(long address, int index) {
+        final int mask = mSlotKeys.length - 1;
+        int slot = hash(address, mask);
+        while (mSlotKeys[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        mSlotKeys[slot] = address | kUsedSlot;
+        mSlotIndexes[slot] = index;
+    }
+
+    // Reinserts all the values (shrinking the table if most of its slots are empty)
+    private void rebuildSlots() {
+        final int size = mValues.size();
+        int capacity = mSlotKeys.length;
+        while (capacity > kInitialCapacity && size * 4 < capacity) {         // Min load factor: 0.25
+            capacity /= 2;
+        }
+
+        if (capacity != mSlotKeys.length) {
+            mSlotKeys = new long[capacity];
+            mSlotIndexes = new int[capacity];
+            mAddresses = Arrays.copyOf(mAddresses, Math.max(capacity, size));
+        } else {
+            Arrays.fill(mSlotKeys, 0);
+        }
+
+        for (int i = 0; i < size; i++) {
+            insertSlot(mAddresses[i], i);
+        }
+    }
+
+    private void resize(int capacity) {
+        final long[] slotKeys = mSlotKeys;
+        final int[] slotIndexes = mSlotIndexes;
+        mSlotKeys = new long[capacity];
+        mSlotIndexes = new int[capacity];
+        for (int i = 0; i < slotKeys.length; i++) {
+            if (slotKeys[i] != 0) {
+                insertSlot(slotKeys[i] & ~kUsedSlot, slotIndexes[i]);
+            }
+        }
+    }
+
+    // Mixes the address bits (devices from the same manufacturer share the upper bits of the address)
+    private static int hash(long address, int mask) {
+        return (int) ((address * kHashMultiplier) >>> 40) & mask;
+    }
+
+    private class ReadOnlyList extends AbstractList<T> {
+        @Override
+        public T get(int index) {
+            return mValues.get(index);
+        }
+
+        @Override
+        public int size() {
+            return mValues.size();
+        }
+    }
+}
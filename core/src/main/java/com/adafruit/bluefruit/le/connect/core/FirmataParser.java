@@ -0,0 +1,129 @@
+package com.adafruit.bluefruit.le.connect.core;
+
+// Decodes the pin state messages sent by a board running the Firmata sketch: pin state responses, digital port reports and analog reports
+// Messages can be received split in several packets. Incomplete messages are kept until the rest of the data is received
+public class FirmataParser {
+    // Constants
+    private static final int kSysexStart = 0xF0;
+    private static final int kSysexEnd = 0xF7;
+    private static final int kSysexPinStateResponse = 0x6E;
+    private static final int kReportLength = 3;
+
+    public interface Listener {
+        // State is the value of the pin (decoded from all the state bytes received)
+        void onPinStateReceived(int digitalPinId, int mode, int state);
+
+        // Bitmask with the state of the 8 pins of the port (bit 0 is the pin 8 * port)
+        void onDigitalPortReceived(int port, int pinStates);
+
+        void onAnalogValueReceived(int analogPinId, int value);
+    }
+
+    // Data
+    private final Listener mListener;
+    private byte[] mBuffer = new byte[64];
+    private int mLength;
+
+    public FirmataParser(Listener listener) {
+        mListener = listener;
+    }
+
+    public void reset() {
+        mLength = 0;
+    }
+
+    public void parse(byte[] data) {
+        // Append received bytes to buffer
+        if (mLength + data.length > mBuffer.length) {
+            byte[] buffer = new byte[Math.max(mBuffer.length * 2, mLength + data.length)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+            mBuffer = buffer;
+        }
+        System.arraycopy(data, 0, mBuffer, mLength, data.length);
+        mLength += data.length;
+
+        // Process all the complete messages
+        int offset = 0;
+        while (offset < mLength) {
+            final int data0 = mBuffer[offset] & 0xFF;
+            if (data0 == kSysexStart) {
+                final int endIndex = indexOfSysexEnd(offset + 1);
+                if (endIndex < 0) {
+                    break;          // Wait for the rest of the message
+                }
+
+                /* pin state response
+                * -------------------------------
+                * 0  START_SYSEX (0xF0) (MIDI System Exclusive)
+                * 1  pin state response (0x6E)
+                * 2  pin (0 to 127)
+                * 3  pin mode (the currently configured mode)
+                * 4  pin state, bits 0-6
+                * 5  (optional) pin state, bits 7-13
+                * 6  (optional) pin state, bits 14-20
+                ...  additional optional bytes, as many as needed
+                * N  END_SYSEX (0xF7)
+                */
+                if (endIndex - offset >= 5 && (mBuffer[offset + 1] & 0xFF) == kSysexPinStateResponse) {
+                    final int pinDigitalId = mBuffer[offset + 2] & 0xFF;
+                    final int pinMode = mBuffer[offset + 3] & 0xFF;
+                    int pinState = 0;
+                    for (int i = offset + 4, shift = 0; i < endIndex && shift < 28; i++, shift += 7) {
+                        pinState |= (mBuffer[i] & 0x7F) << shift;
+                    }
+                    mListener.onPinStateReceived(pinDigitalId, pinMode, pinState);
+                }
+                offset = endIndex + 1;          // Other sysex messages are skipped
+
+            } else if (data0 >= 0x90 && data0 <= 0x9F) {
+                if (mLength - offset < kReportLength) {
+                    break;
+                }
+
+                /* two byte digital data format, second nibble of byte 0 gives the port number (e.g. 0x92 is the third port, port 2)
+                * 0  digital data, 0x90-0x9F, (MIDI NoteOn, but different data format)
+                * 1  digital pins 0-6 bitmask
+                * 2  digital pin 7 bitmask
+                */
+                final int port = data0 - 0x90;
+                int pinStates = mBuffer[offset + 1] & 0xFF;
+                pinStates |= (mBuffer[offset + 2] & 0xFF) << 7;        // PORT 0: use LSB of third byte for pin7, PORT 1: pins 14 & 15
+                mListener.onDigitalPortReceived(port, pinStates);
+                offset += kReportLength;
+
+            } else if (data0 >= 0xE0 && data0 <= 0xEF) {
+                if (mLength - offset < kReportLength) {
+                    break;
+                }
+
+                /* analog 14-bit data format
+                * 0  analog pin, 0xE0-0xEF, (MIDI Pitch Wheel)
+                * 1  analog least significant 7 bits
+                * 2  analog most significant 7 bits
+                */
+                final int analogPinId = data0 - 0xE0;
+                final int value = (mBuffer[offset + 1] & 0xFF) + ((mBuffer[offset + 2] & 0xFF) << 7);
+                mListener.onAnalogValueReceived(analogPinId, value);
+                offset += kReportLength;
+
+            } else {
+                offset++;           // Unknown byte: skip it
+            }
+        }
+
+        //  Remove from the buffer the bytes parsed
+        if (offset > 0) {
+            mLength -= offset;
+            System.arraycopy(mBuffer, offset, mBuffer, 0, mLength);
+        }
+    }
+
+    private int indexOfSysexEnd(int fromIndex) {
+        for (int i = fromIndex; i < mLength; i++) {
+            if ((mBuffer[i] & 0xFF) == kSysexEnd) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,48 @@
+package com.adafruit.bluefruit.le.connect.core;
+
+// Hexadecimal formatting of byte arrays. Uses a lookup table instead of String.format (that is several times slower and allocates a Formatter for each byte)
+public class HexUtils {
+    private final static char[] kHexChars = "0123456789ABCDEF".toCharArray();
+
+    // Returns the bytes formatted as "0102A0" or null if bytes is null
+    public static String bytesToHex(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+
+        char[] hexChars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            final int value = bytes[i] & 0xFF;
+            hexChars[i * 2] = kHexChars[value >>> 4];
+            hexChars[i * 2 + 1] = kHexChars[value & 0x0F];
+        }
+        return new String(hexChars);
+    }
+
+    // Returns the bytes formatted as "01 02 A0"
+    public static String bytesToHexWithSpaces(byte[] bytes) {
+        if (bytes.length == 0) {
+            return "";
+        }
+
+        char[] hexChars = new char[bytes.length * 3 - 1];
+        for (int i = 0; i < bytes.length; i++) {
+            final int value = bytes[i] & 0xFF;
+            hexChars[i * 3] = kHexChars[value >>> 4];
+            hexChars[i * 3 + 1] = kHexChars[value & 0x0F];
+            if (i < bytes.length - 1) {
+                hexChars[i * 3 + 2] = ' ';
+            }
+        }
+        return new String(hexChars);
+    }
+
+    // Appends the bytes formatted as "01 02 A0 " (with a trailing space, so consecutive chunks can be appended to the same builder)
+    public static void appendHexWithSpaces(StringBuilder builder, byte[] bytes) {
+        builder.ensureCapacity(builder.length() + bytes.length * 3);
+        for (byte aByte : bytes) {
+            final int value = aByte & 0xFF;
+            builder.append(kHexChars[value >>> 4]).append(kHexChars[value & 0x0F]).append(' ');
+        }
+    }
+}
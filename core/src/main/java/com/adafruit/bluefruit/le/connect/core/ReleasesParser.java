@@ -1,7 +1,4 @@
-package com.adafruit.bluefruit.le.connect.app.update;
-
-
-import android.util.Log;
+package com.adafruit.bluefruit.le.connect.core;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -14,14 +11,19 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Logger;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
 // Class with utils to parse releases.xml
 public class ReleasesParser {
-    // Constants
-    private final static String TAG = ReleasesParser.class.getSimpleName();
+    // Log
+    private final static Logger kLogger = Logger.getLogger(ReleasesParser.class.getSimpleName());
+
+    // File types (same values as DfuBaseService.TYPE_BOOTLOADER and DfuBaseService.TYPE_APPLICATION)
+    public static final int kFileType_Bootloader = 0x02;
+    public static final int kFileType_Application = 0x04;
 
     public static class BoardInfo {
         public List<FirmwareInfo> firmwareReleases = new ArrayList<>();
@@ -56,7 +58,7 @@ public class ReleasesParser {
             blefruitleNode = (Element) document.getElementsByTagName("bluefruitle").item(0);
 
         } catch (Exception e) {
-            Log.w(TAG, "Error reading xml: " + e.getMessage());
+            kLogger.warning("Error reading xml: " + e.getMessage());
         }
 
         if (blefruitleNode != null) {
@@ -83,7 +85,7 @@ public class ReleasesParser {
                                     FirmwareInfo releaseInfo = new FirmwareInfo();
 
                                     Element firmwareElement = (Element) firmwareNode;
-                                    releaseInfo.fileType = DfuService.TYPE_APPLICATION;
+                                    releaseInfo.fileType = kFileType_Application;
                                     releaseInfo.version = firmwareElement.getAttribute("version");
                                     releaseInfo.hexFileUrl = firmwareElement.getAttribute("hexfile");
                                     releaseInfo.iniFileUrl = firmwareElement.getAttribute("initfile");
@@ -96,7 +98,7 @@ public class ReleasesParser {
                             }
                         }
                     } catch (Exception e) {
-                        Log.w(TAG, "Error parsing releases: firmwarenodes");
+                        kLogger.warning("Error parsing releases: firmwarenodes");
                     }
 
                     // Read bootloader releases
@@ -110,7 +112,7 @@ public class ReleasesParser {
                                     BootloaderInfo bootloaderInfo = new BootloaderInfo();
 
                                     Element bootloaderElement = (Element) booloaderNode;
-                                    bootloaderInfo.fileType = DfuService.TYPE_BOOTLOADER;
+                                    bootloaderInfo.fileType = kFileType_Bootloader;
                                     bootloaderInfo.version = bootloaderElement.getAttribute("version");
                                     bootloaderInfo.hexFileUrl = bootloaderElement.getAttribute("hexfile");
                                     bootloaderInfo.iniFileUrl = bootloaderElement.getAttribute("initfile");
@@ -122,7 +124,7 @@ public class ReleasesParser {
                             }
                         }
                     } catch (Exception e) {
-                        Log.w(TAG, "Error parsing releases: bootloadernodes");
+                        kLogger.warning("Error parsing releases: bootloadernodes");
                     }
                 }
             }
@@ -0,0 +1,128 @@
+package com.adafruit.bluefruit.le.connect.core;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// Decoding of scan records with AdvertisementReader and AdvertisementParser (reusing the AdvertisementData like MainActivity does)
+public class AdvertisementReaderTest {
+    // Constants
+    private static final UUID kUartServiceUUID = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID kBeaconProximityUUID = UUID.fromString("e2c56db5-dffb-48d2-b060-d0f5a71096e0");
+
+    // Bluefruit advertising the uart service: flags, 128-bit uuid list, complete local name, tx power
+    private static final byte[] kUartScanRecord = scanRecord("020106"
+            + "11079ecadc240ee5a9e093f3a3b50100406e"
+            + "0e09416461667275697420424c4546"
+            + "020a04");
+
+    // Same device without the tx power and with a shortened local name
+    private static final byte[] kShortenedNameScanRecord = scanRecord("020106"
+            + "11079ecadc240ee5a9e093f3a3b50100406e"
+            + "0408416461");
+
+    // Both names: the complete one has preference even if it is after the shortened one
+    private static final byte[] kBothNamesScanRecord = scanRecord("0408416461"
+            + "0e09416461667275697420424c4546");
+
+    // iBeacon manufacturer data (not Apple) after a local name, without flags
+    private static final byte[] kBeaconScanRecord = scanRecord("0409426561"
+            + "1aff59000215"
+            + "e2c56db5dffb48d2b060d0f5a71096e0"
+            + "00010002c5");
+
+    @Test
+    public void readsTheStructures() {
+        AdvertisementReader reader = new AdvertisementReader().reset(kUartScanRecord);
+
+        assertEquals(4, reader.getStructureCount());         // The zero padding is not a structure
+        assertFalse(reader.isMalformed());
+        assertEquals(0x06, reader.getFlags());
+        assertTrue(reader.hasTxPower());
+        assertEquals(4, reader.getTxPower());
+        assertEquals("Adafruit BLEF", reader.getLocalName());
+        assertTrue(reader.isLocalNameComplete());
+        assertTrue(reader.isLocalNameEqual("Adafruit BLEF"));
+        assertEquals(1, reader.getServiceUuidCount());
+        assertEquals(kUartServiceUUID, reader.getServiceUuid(0));
+        assertTrue(reader.containsServiceUuid(kUartServiceUUID));
+        assertEquals(-1, reader.getManufacturerId());
+    }
+
+    @Test
+    public void acceptsTheShortenedLocalName() {
+        AdvertisementReader reader = new AdvertisementReader().reset(kShortenedNameScanRecord);
+        assertEquals("Ada", reader.getLocalName());
+        assertFalse(reader.isLocalNameComplete());
+
+        reader.reset(kBothNamesScanRecord);
+        assertEquals("Adafruit BLEF", reader.getLocalName());
+        assertTrue(reader.isLocalNameComplete());
+    }
+
+    @Test
+    public void malformedStructureIsNotRead() {
+        AdvertisementReader reader = new AdvertisementReader().reset(hexToBytes("020106" + "0e09416461"));
+        assertTrue(reader.isMalformed());
+        assertEquals(1, reader.getStructureCount());
+        assertEquals(0x06, reader.getFlags());
+        assertFalse(reader.hasLocalName());
+    }
+
+    @Test
+    public void matchesTheBeaconLayoutAnywhereInThePacket() {
+        AdvertisementData data = AdvertisementParser.parse(kBeaconScanRecord);
+
+        assertEquals(AdvertisementData.kType_Beacon, data.type);
+        assertEquals(1, data.uuids.size());
+        assertEquals(kBeaconProximityUUID, data.uuids.get(0));
+        assertEquals(-59, data.txPower);
+        assertEquals("Bea", data.advertisedName);
+    }
+
+    @Test
+    public void txPowerIsResetWhenNotAdvertised() {
+        AdvertisementReader reader = new AdvertisementReader();
+        AdvertisementData data = new AdvertisementData();
+
+        AdvertisementParser.parse(reader.reset(kUartScanRecord), data);
+        assertEquals(AdvertisementData.kType_Uart, data.type);
+        assertEquals(4, data.txPower);
+
+        AdvertisementParser.parse(reader.reset(kShortenedNameScanRecord), data);
+        assertFalse(reader.hasTxPower());
+        assertEquals(0, data.txPower);
+        assertEquals(AdvertisementData.kType_Uart, data.type);
+    }
+
+    @Test
+    public void nameIsKeptWhenNotAdvertised() {
+        AdvertisementReader reader = new AdvertisementReader();
+        AdvertisementData data = new AdvertisementData();
+
+        AdvertisementParser.parse(reader.reset(kUartScanRecord), data);
+        AdvertisementParser.parse(reader.reset(hexToBytes("020106")), data);
+        assertEquals("Adafruit BLEF", data.advertisedName);
+        assertEquals(0, data.uuids.size());
+    }
+
+    // Scan records received with the legacy scan api are padded with zeros to 62 bytes
+    private static byte[] scanRecord(String hex) {
+        final byte[] data = hexToBytes(hex);
+        byte[] scanRecord = new byte[62];
+        System.arraycopy(data, 0, scanRecord, 0, data.length);
+        return scanRecord;
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        byte[] data = new byte[hex.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return data;
+    }
+}
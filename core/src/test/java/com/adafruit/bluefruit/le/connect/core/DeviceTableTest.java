@@ -0,0 +1,109 @@
+package com.adafruit.bluefruit.le.connect.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceTableTest {
+
+    @Test
+    public void convertsAddresses() {
+        assertEquals(0x0123456789ABL, DeviceTable.addressToLong("01:23:45:67:89:AB"));
+        assertEquals(0x0123456789ABL, DeviceTable.addressToLong("01:23:45:67:89:ab"));
+        assertEquals(0, DeviceTable.addressToLong("00:00:00:00:00:00"));
+        assertEquals(-1, DeviceTable.addressToLong("01-23-45-67-89-AB"));
+        assertEquals(-1, DeviceTable.addressToLong("01:23:45:67:89"));
+        assertEquals(-1, DeviceTable.addressToLong(null));
+    }
+
+    @Test
+    public void putKeepsTheInsertionOrder() {
+        DeviceTable<String> table = new DeviceTable<>();
+        assertEquals(0, table.put(0x30, "a"));
+        assertEquals(1, table.put(0x10, "b"));
+        assertEquals(2, table.put(0, "c"));            // The address 00:00:00:00:00:00 is valid
+
+        assertEquals(0, table.put(0x30, "d"));         // Replaced in its position
+        assertEquals(3, table.size());
+        assertEquals(Arrays.asList("d", "b", "c"), table.values());
+        assertEquals(0x10, table.getAddress(1));
+        assertEquals("c", table.find(0));
+        assertNull(table.find(0x20));
+        assertEquals(-1, table.indexOf(0x20));
+    }
+
+    @Test
+    public void removeMovesTheNextValuesBack() {
+        DeviceTable<String> table = new DeviceTable<>();
+        table.put(1, "a");
+        table.put(2, "b");
+        table.put(3, "c");
+
+        assertEquals("b", table.remove(2));
+        assertNull(table.remove(2));
+        assertEquals(Arrays.asList("a", "c"), table.values());
+        assertEquals(1, table.indexOf(3));
+        assertEquals(3, table.getAddress(1));
+        assertNull(table.find(2));
+    }
+
+    @Test
+    public void removeIfKeepsTheOrderOfTheRest() {
+        DeviceTable<Integer> table = new DeviceTable<>();
+        for (int i = 0; i < 10; i++) {
+            table.put(i, i);
+        }
+
+        final int removedCount = table.removeIf(new DeviceTable.Condition<Integer>() {
+            @Override
+            public boolean test(Integer value) {
+                return value % 3 == 0;
+            }
+        });
+        assertEquals(4, removedCount);
+        assertEquals(Arrays.asList(1, 2, 4, 5, 7, 8), table.values());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i % 3 == 0 ? -1 : table.values().indexOf(i), table.indexOf(i));
+        }
+    }
+
+    @Test
+    public void growsAndShrinks() {
+        final int count = 1000;           // Several times the initial capacity
+        DeviceTable<Long> table = new DeviceTable<>();
+        for (long i = 0; i < count; i++) {
+            table.put(0x001122000000L + i, i);           // Same manufacturer prefix
+        }
+        assertEquals(count, table.size());
+        for (long i = 0; i < count; i++) {
+            assertEquals((int) i, table.indexOf(0x001122000000L + i));
+        }
+
+        // Remove most of them (the table shrinks) and add new ones
+        table.removeIf(new DeviceTable.Condition<Long>() {
+            @Override
+            public boolean test(Long value) {
+                return value >= 10;
+            }
+        });
+        assertEquals(10, table.size());
+        for (long i = 0; i < count; i++) {
+            assertEquals(i < 10 ? (int) i : -1, table.indexOf(0x001122000000L + i));
+        }
+        for (long i = 0; i < 100; i++) {
+            table.put(0x00AABB000000L + i, i);
+        }
+        assertEquals(110, table.size());
+        assertEquals(109, table.indexOf(0x00AABB000000L + 99));
+        assertEquals(0x00AABB000000L + 99, table.getAddress(109));
+
+        table.clear();
+        assertTrue(table.isEmpty());
+        assertEquals(-1, table.indexOf(0x001122000000L));
+        assertEquals(0, table.put(0x001122000000L, 0L));
+    }
+}